@@ -0,0 +1,146 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.arch.lifecycle.Observer;
+import android.content.Context;
+import android.content.Intent;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.DoorStateMachine;
+import com.firebase_esp8266_android_alarm_app.core.EventStreams;
+import com.firebase_esp8266_android_alarm_app.core.FakeEventSource;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays door event streams through a FakeEventSource into a running MainActivity, without Firebase,
+ * and reports the main thread frame times and memory under the load. Every event must reach the screen:
+ * each raw door value ends as a confirmed transition or as one side of a suppressed flap (see DoorStateMachine),
+ * and the history list ends with every entry replayed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EventReplayTest {
+
+    private static final String TAG = "replay";
+
+    @Rule
+    public ActivityTestRule<MainActivity> activityRule = new ActivityTestRule<MainActivity>(MainActivity.class, false, false);
+
+    private FakeEventSource source;
+    private AlarmRepository repository;
+    private Observer<DoorStateMachine.Transition> doorObserver;
+    private int doorTransitions, suppressed;
+
+    private void launch(String doorId) {
+        Context context = InstrumentationRegistry.getTargetContext();
+        DoorAddress door = new DoorAddress("replay", doorId);
+        context.deleteDatabase("history_replay_" + doorId + ".db");
+
+        source = new FakeEventSource();
+        repository = new AlarmRepository(source, HistoryCache.getInstance(context, door), door);
+        AlarmRepository.setInstance(door, repository);
+
+        Intent intent = new Intent(context, MainActivity.class);
+        intent.putExtra(MainActivity.EXTRA_SITE, door.site);
+        intent.putExtra(MainActivity.EXTRA_DOOR, door.door);
+        intent.putExtra(MainActivity.EXTRA_NAME, "Replay " + doorId);
+        activityRule.launchActivity(intent);
+
+        doorObserver = new Observer<DoorStateMachine.Transition>() {
+            @Override
+            public void onChanged(DoorStateMachine.Transition transition) {
+                if (transition != null)
+                    doorTransitions++;
+            }
+        };
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                repository.getDoorState().observeForever(doorObserver);
+                doorTransitions = 0;     //nothing replayed yet: only a state kept from an earlier run
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (repository == null)
+            return;
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                repository.getDoorState().removeObserver(doorObserver);
+            }
+        });
+    }
+
+    //The recorded history, 500 times over (3000 openings)
+    @Test
+    public void replayScaledExport() throws Exception {
+        Reader export = new InputStreamReader(InstrumentationRegistry.getContext().getAssets().open("door-export.json"), "UTF-8");
+        List<EventStreams.Event> events;
+        try {
+            events = EventStreams.fromExport(export, 500);
+        } finally {
+            export.close();
+        }
+        replay("export", events, 5000);
+    }
+
+    //Openings every second, sent far faster than the ESP8266 could: most of them must be filtered out as flaps
+    @Test
+    public void doorFlapStorm() throws Exception {
+        replay("storm", EventStreams.doorFlaps(5000, 1546300800000L, 1000), 10000);
+        assertTrue("no flap suppressed", suppressed > 0);
+    }
+
+    private void replay(String doorId, List<EventStreams.Event> events, int eventsPerSecond) throws Exception {
+        launch(doorId);
+
+        int doorValues = 0;
+        Set<String> keys = new HashSet<String>();
+        for (EventStreams.Event event : events) {
+            if (event.history)
+                keys.add(event.name);
+            else if (FakeEventSource.DOOR_OPEN.equals(event.name))
+                doorValues++;
+        }
+
+        ReplayHarness harness = new ReplayHarness(source, events, eventsPerSecond);
+        assertTrue("replay timed out", harness.run(10 * 60 * 1000));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        //a change still pending is confirmed once its windows have elapsed
+        Thread.sleep(DoorStateMachine.DEBOUNCE_MS + DoorStateMachine.HYSTERESIS_MS);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                suppressed = repository.getDoorStateMachine().getSuppressedCount();
+            }
+        });
+
+        String report = doorId + ": " + harness.getReport() + "\ndoor state: " + repository.getDoorStateStats();
+        Log.i(TAG, report);
+        System.out.println(report);
+
+        assertEquals(events.size(), harness.getReplayedCount());
+        //the replayed values alternate, so none repeats the state before it: each one is counted once
+        assertEquals(doorValues, doorTransitions + suppressed);
+        assertEquals(keys.size(), repository.getHistory().getValue().size());
+    }
+}
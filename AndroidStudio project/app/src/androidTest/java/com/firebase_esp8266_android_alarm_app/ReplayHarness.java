@@ -0,0 +1,122 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.firebase_esp8266_android_alarm_app.core.EventStreams;
+import com.firebase_esp8266_android_alarm_app.core.FakeEventSource;
+import com.firebase_esp8266_android_alarm_app.core.RollingHistogram;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a door event stream through a FakeEventSource on the main thread at a fixed rate, a batch per frame,
+ * while measuring the main thread: frame intervals given by Choreographer, frames missed (intervals longer than
+ * one vsync), and the Java and native heap sizes. A few frames are let run after the last event, so that
+ * the work the events caused (list updates, sounds) is measured too.
+ */
+public class ReplayHarness {
+
+    private static final long FRAME_NS = 1000000000L / 60;
+    private static final int SETTLE_FRAMES = 30;
+
+    private final FakeEventSource source;
+    private final List<EventStreams.Event> events;
+    private final int eventsPerSecond;
+
+    private final RollingHistogram frameMicros = new RollingHistogram(16384);
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private int next, frames, missedFrames, settleFrames = SETTLE_FRAMES;
+    private long startNs, lastFrameNs, maxFrameNs, lastEventNs;
+    private long heapBefore, heapPeak, heapAfter, nativeBefore, nativePeak;
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (lastFrameNs == 0) {
+                startNs = frameTimeNanos;
+            } else {
+                long interval = frameTimeNanos - lastFrameNs;
+                frameMicros.add(interval / 1000);
+                maxFrameNs = Math.max(maxFrameNs, interval);
+                missedFrames += Math.max(0, (int) ((interval + FRAME_NS / 2) / FRAME_NS) - 1);
+            }
+            lastFrameNs = frameTimeNanos;
+            frames++;
+
+            //events due since the start, at the requested rate
+            long due = Math.min(events.size(), (frameTimeNanos - startNs) * eventsPerSecond / 1000000000L + 1);
+            while (next < due)
+                events.get(next++).applyTo(source);
+            if (next == events.size() && lastEventNs == 0)
+                lastEventNs = frameTimeNanos;
+
+            if (frames % 10 == 0)
+                sampleMemory();
+
+            if (next < events.size() || settleFrames-- > 0) {
+                Choreographer.getInstance().postFrameCallback(this);
+            } else {
+                heapAfter = usedHeap();
+                done.countDown();
+            }
+        }
+    };
+
+    public ReplayHarness(FakeEventSource source, List<EventStreams.Event> events, int eventsPerSecond) {
+        this.source = source;
+        this.events = events;
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    //Replays the whole stream. Called from the test thread, returns when done or after 'timeoutMs'
+    public boolean run(long timeoutMs) throws InterruptedException {
+        Runtime.getRuntime().gc();
+        heapBefore = heapPeak = usedHeap();
+        nativeBefore = nativePeak = Debug.getNativeHeapAllocatedSize();
+
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(frameCallback);
+            }
+        });
+        return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sampleMemory() {
+        heapPeak = Math.max(heapPeak, usedHeap());
+        nativePeak = Math.max(nativePeak, Debug.getNativeHeapAllocatedSize());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public int getReplayedCount() {
+        return next;
+    }
+
+    public int getMissedFrames() {
+        return missedFrames;
+    }
+
+    public String getReport() {
+        double seconds = (lastEventNs - startNs) / 1e9;
+        return String.format(Locale.US, "events %d in %.2f s (%.0f/s requested %d/s), delivered %d%n"
+                        + "frames %d: p50 %.1f ms  p95 %.1f ms  p99 %.1f ms  max %.1f ms, missed %d%n"
+                        + "java heap: before %d KB  peak %d KB  after %d KB%n"
+                        + "native heap: before %d KB  peak %d KB",
+                next, seconds, seconds > 0 ? next / seconds : 0, eventsPerSecond, source.getDeliveredCount(),
+                frames, frameMicros.percentile(0.5) / 1000.0, frameMicros.percentile(0.95) / 1000.0,
+                frameMicros.percentile(0.99) / 1000.0, maxFrameNs / 1e6, missedFrames,
+                heapBefore / 1024, heapPeak / 1024, heapAfter / 1024, nativeBefore / 1024, nativePeak / 1024);
+    }
+}
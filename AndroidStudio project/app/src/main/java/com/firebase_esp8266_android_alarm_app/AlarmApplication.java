@@ -0,0 +1,35 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.app.Application;
+
+/*
+Application-wide initialisation: resources that must outlive the Activities (e.g. decoded sounds) are created here once.
+Nothing here is needed to draw the first frame, so it all runs in background threads (see StartupTracer for the phases).
+*/
+
+public class AlarmApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        StartupTracer.begin("app.onCreate");
+
+        //decodes the door and siren sounds in background, so that they play without delay
+        SoundEngine.getInstance(this).preload();
+
+        //registers the notification channels and loads the user preferences file, so that MainActivity finds it in memory.
+        //Also makes sure the background link watchdog is scheduled
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                StartupTracer.begin("deferred.app");
+                NotificationChannels.createAll(AlarmApplication.this);
+                UserPreferences.getNotification(AlarmApplication.this);
+                LinkWatchdog.schedule();
+                StartupTracer.end("deferred.app");
+            }
+        }, "startup").start();
+
+        StartupTracer.end("app.onCreate");
+    }
+}
@@ -0,0 +1,328 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.firebase_esp8266_android_alarm_app.core.AlarmEventSource;
+import com.firebase_esp8266_android_alarm_app.core.BackupReader;
+import com.firebase_esp8266_android_alarm_app.core.BackupWriter;
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.HistoryBuckets;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.Transaction;
+import com.google.firebase.database.ValueEventListener;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+Backup of a door node to a local JSON file, and restore from one, in the layout of 'Firebase export/door-export.json'.
+Neither side holds the whole node: the backup reads the children one by one and the history in pages of
+PAGE_SIZE keys, writing each page to the file before reading the next; the restore parses the file token by token.
+Only the user settings are restored: the door state and heartbeat belong to the ESP8266.
+The day buckets of the compact history (see HistoryBuckets), a string per day, are read in one request and
+merged into the current ones by a transaction per day, waiting for each one to be acknowledged.
+The restored 'history' entries go into the day buckets too, never back into 'history': each child created there runs
+the timestamping cloud function, and retention would keep only the newest 100 of them anyway. Entries follow the push id
+(time) order in the file, so the entries of a day are gathered and merged when the next day starts.
+Entries not yet timestamped are skipped. Both run on a background thread and report their throughput.
+*/
+
+public class AlarmBackup {
+
+    //Result of a backup or restore, delivered on the main thread. 'entries' is negative when it failed
+    public interface Callback {
+        void onDone(long entries, String report);
+    }
+
+    static final int PAGE_SIZE = 1000;
+    private static final int TIMEOUT_S = 60;
+
+    private static final List<String> RESTORED = Arrays.asList("disabled", "local_siren", "door_open_long_time");
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public static void backup(final DoorAddress door, final File file, final Callback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                DatabaseReference node = FirebaseDatabase.getInstance().getReference(door.path(""));
+                Writer out = null;
+                int requests = 0;
+                try {
+                    out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 64 * 1024);
+                    BackupWriter writer = new BackupWriter(out);
+                    writer.begin(door.isLegacy() ? "alarm" : door.door);
+                    for (String child : BackupWriter.CHILDREN) {
+                        writer.value(child, read(node.child(child)).getValue());
+                        requests++;
+                    }
+
+                    //pages in key order: each one starts at the last key of the previous one
+                    writer.beginHistory();
+                    String cursor = null;
+                    while (true) {
+                        Query page = node.child("history").orderByKey();
+                        page = cursor == null ? page.limitToFirst(PAGE_SIZE) : page.startAt(cursor).limitToFirst(PAGE_SIZE + 1);
+                        DataSnapshot snapshot = read(page);
+                        requests++;
+
+                        int count = 0;
+                        for (DataSnapshot entry : snapshot.getChildren()) {
+                            if (entry.getKey().equals(cursor))
+                                continue;
+                            writer.historyEntry(entry.getKey(), entry.getValue());
+                            cursor = entry.getKey();
+                            count++;
+                        }
+                        if (count < PAGE_SIZE)
+                            break;
+                    }
+                    writer.endHistory();
+
+                    DataSnapshot days = read(node.child(AlarmEventSource.HISTORY_DAYS));
+                    requests++;
+                    if (days.hasChildren()) {
+                        writer.beginBuckets();
+                        for (DataSnapshot day : days.getChildren())
+                            writer.bucket(day.getKey(), day.getValue());
+                    }
+                    long entries = writer.end();
+                    String report = report("Backup", entries, file.length(), requests, start);
+                    if (writer.getBucketCount() > 0)
+                        report += String.format(Locale.US, "%n%d history days", writer.getBucketCount());
+                    done(callback, entries, report);
+                } catch (IOException e) {
+                    Log.w("backup", "Backup failed", e);
+                    done(callback, -1, "Backup failed: " + e.getMessage());
+                } finally {
+                    close(out);
+                }
+            }
+        });
+    }
+
+    public static void restore(final Context context, final DoorAddress door, final Uri uri, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                final DatabaseReference node = FirebaseDatabase.getInstance().getReference(door.path(""));
+                final Map<String, Object> batch = new HashMap<String, Object>();
+                final int[] requests = {0};
+                final long[] untimed = {0};
+                final String[] entryDay = {null};        //day of the entries gathered in 'dayEntries'
+                final HistoryBuckets.Decoder dayEntries = new HistoryBuckets.Decoder();
+                BufferedReader in = null;
+                try {
+                    InputStream stream = appContext.getContentResolver().openInputStream(uri);
+                    if (stream == null)
+                        throw new IOException("Cannot open " + uri);
+                    in = new BufferedReader(new InputStreamReader(stream, "UTF-8"), 64 * 1024);
+
+                    BackupReader reader = new BackupReader(in);
+                    reader.read(new BackupReader.Sink() {
+                        @Override
+                        public void onValue(String name, Object value) throws IOException {
+                            if (RESTORED.contains(name))
+                                batch.put(name, value);
+                        }
+
+                        @Override
+                        public void onHistoryEntry(String key, Object value) throws IOException {
+                            if (!(value instanceof Number)) {
+                                untimed[0]++;       //not timestamped yet: not an opening the cloud function confirmed
+                                return;
+                            }
+                            long timestamp = ((Number) value).longValue();
+                            String day = HistoryBuckets.dayKey(timestamp);
+                            if (!day.equals(entryDay[0])) {
+                                requests[0] += mergeEntries(node, entryDay[0], dayEntries);
+                                entryDay[0] = day;
+                            }
+                            dayEntries.add(timestamp);
+                        }
+
+                        @Override
+                        public void onBucket(String day, Object value) throws IOException {
+                            if (HistoryBuckets.dayStart(day) < 0 || !(value instanceof String)) {
+                                untimed[0]++;
+                                return;
+                            }
+                            merge(node.child(AlarmEventSource.HISTORY_DAYS).child(day), day, (String) value);
+                            requests[0]++;
+                        }
+                    });
+                    requests[0] += mergeEntries(node, entryDay[0], dayEntries);
+                    if (!batch.isEmpty()) {
+                        write(node, batch);
+                        requests[0]++;
+                    }
+
+                    long entries = reader.getHistoryCount() - untimed[0];
+                    String report = report("Restore", entries, reader.getPosition(), requests[0], start);
+                    if (reader.getBucketCount() > 0)
+                        report += String.format(Locale.US, "%n%d history days", reader.getBucketCount());
+                    if (untimed[0] > 0)
+                        report += String.format(Locale.US, "%n%d entries without timestamp skipped", untimed[0]);
+                    if (reader.getSkippedCount() > 0)
+                        report += String.format(Locale.US, "%n%d unknown values skipped", reader.getSkippedCount());
+                    done(callback, entries, report);
+                } catch (IOException | SecurityException e) {
+                    Log.w("backup", "Restore failed", e);
+                    done(callback, -1, "Restore failed after " + requests[0] + " updates: " + e.getMessage());
+                } finally {
+                    close(in);
+                }
+            }
+        });
+    }
+
+    //Single read from the background thread. The listener is called on the main thread
+    private static DataSnapshot read(Query query) throws IOException {
+        final AtomicReference<DataSnapshot> result = new AtomicReference<DataSnapshot>();
+        final AtomicReference<DatabaseError> error = new AtomicReference<DatabaseError>();
+        final CountDownLatch done = new CountDownLatch(1);
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                result.set(dataSnapshot);
+                done.countDown();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                error.set(databaseError);
+                done.countDown();
+            }
+        });
+
+        try {
+            if (!done.await(TIMEOUT_S, TimeUnit.SECONDS))
+                throw new IOException("Read timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        if (error.get() != null)
+            throw new IOException(error.get().getMessage());
+        return result.get();
+    }
+
+    //Multi-path update of the node (the restored settings), waiting for the server
+    private static void write(DatabaseReference node, Map<String, Object> batch) throws IOException {
+        try {
+            Tasks.await(node.updateChildren(new HashMap<String, Object>(batch)), TIMEOUT_S, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IOException("Update failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        batch.clear();
+    }
+
+    //Merges a restored day bucket into the current one, which the cloud function may be appending to
+    private static void merge(DatabaseReference bucket, String day, String restored) throws IOException {
+        HistoryBuckets.Decoder decoder = new HistoryBuckets.Decoder();
+        if (HistoryBuckets.decode(day, restored, decoder) < 0)
+            throw new IOException("Malformed history day " + day);
+        merge(bucket, day, decoder.getTimestamps(), decoder.size());
+    }
+
+    //Merges the restored 'history' entries gathered for a day into its bucket, then clears them. Returns the requests made
+    private static int mergeEntries(DatabaseReference node, String day, HistoryBuckets.Decoder entries) throws IOException {
+        if (day == null || entries.size() == 0)
+            return 0;
+        merge(node.child(AlarmEventSource.HISTORY_DAYS).child(day), day, entries.getTimestamps(), entries.size());
+        entries.clear();
+        return 1;
+    }
+
+    private static void merge(DatabaseReference bucket, final String day, final long[] timestamps, final int count) throws IOException {
+        final AtomicReference<DatabaseError> error = new AtomicReference<DatabaseError>();
+        final CountDownLatch done = new CountDownLatch(1);
+        bucket.runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData currentData) {
+                currentData.setValue(HistoryBuckets.merge(day, currentData.getValue(), timestamps, count));
+                return Transaction.success(currentData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError databaseError, boolean committed, DataSnapshot dataSnapshot) {
+                error.set(databaseError);
+                done.countDown();
+            }
+        });
+
+        try {
+            if (!done.await(TIMEOUT_S, TimeUnit.SECONDS))
+                throw new IOException("Update timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        if (error.get() != null)
+            throw new IOException("Update failed: " + error.get().getMessage());
+    }
+
+    private static String report(String operation, long entries, long characters, int requests, long start) {
+        double seconds = Math.max(1, SystemClock.elapsedRealtime() - start) / 1000.0;
+        return String.format(Locale.US, "%s of %d history entries in %.1f s%n%.0f entries/s, %.0f KB/s, %d requests",
+                operation, entries, seconds, entries / seconds, characters / 1024.0 / seconds, requests);
+    }
+
+    private static void done(final Callback callback, final long entries, final String report) {
+        Log.i("backup", report);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onDone(entries, report);
+            }
+        });
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w("backup", "Close failed", e);
+        }
+    }
+}
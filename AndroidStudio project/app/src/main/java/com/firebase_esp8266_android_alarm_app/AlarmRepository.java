@@ -0,0 +1,224 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.arch.lifecycle.LiveData;
+import android.content.Context;
+import android.support.annotation.VisibleForTesting;
+
+import com.firebase_esp8266_android_alarm_app.core.AlarmEventSource;
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.DoorStateMachine;
+import com.firebase_esp8266_android_alarm_app.core.DoorStatistics;
+import com.firebase_esp8266_android_alarm_app.core.HistoryIngest;
+import com.firebase_esp8266_android_alarm_app.core.HistoryModel;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Single owner of the Firebase subscriptions of one door: the original '/alarm' node, or '/sites/{site}/doors/{door}'.
+There is one repository per door. It lives as long as the application,
+so configuration changes do not add listeners: each path has one LiveData, which attaches its listener
+only while some UI is started and detaches it when the UI stops.
+Events come from an AlarmEventSource: Firebase, or a fake replaying recorded or synthetic streams (tests and load replays).
+Firebase snapshots are decoded off the main thread and delivered in frame batches (see SnapshotPipeline).
+On the same Wi-Fi, the door state is also read from the ESP8266 itself (see LocalDoorLink), Firebase being the fallback.
+The number of attached listeners is counted, so that tests can check that none is leaked.
+*/
+
+public class AlarmRepository {
+
+    private static final Map<DoorAddress, AlarmRepository> instances = new HashMap<DoorAddress, AlarmRepository>();
+
+    private final DoorAddress door;
+
+    private final AlarmEventSource source;
+
+    private final DoorValueLiveData doorOpen, doorOpenTimestamp, heartbeat;
+    private final DoorStateLiveData doorState;
+    private final SyncedSetting localSiren, disabled;
+    private final HistoryLiveData history;
+    private final HistorySearch historySearch;
+    private final DoorStatistics statistics = new DoorStatistics(TimeZone.getDefault());
+
+    private final AtomicInteger activeListeners = new AtomicInteger();
+
+    public static AlarmRepository getInstance(Context context) {
+        return getInstance(context, DoorAddress.LEGACY);
+    }
+
+    public static synchronized AlarmRepository getInstance(Context context, DoorAddress door) {
+        AlarmRepository instance = instances.get(door);
+        if (instance == null) {
+            DoorStateMachine doorStateMachine = new DoorStateMachine(context.getResources().getInteger(R.integer.door_debounce_ms),
+                    context.getResources().getInteger(R.integer.door_hysteresis_ms));
+            instance = new AlarmRepository(new FirebaseEventSource(FirebaseDatabase.getInstance().getReference(), door,
+                    SnapshotPipeline.getInstance()),
+                    HistoryCache.getInstance(context, door), door, doorStateMachine, new LocalDoorLink(context, door));
+            instances.put(door, instance);
+        }
+        return instance;
+    }
+
+    //Replaces the repository of a door, e.g. by one reading a mocked database in tests
+    @VisibleForTesting
+    static synchronized void setInstance(DoorAddress door, AlarmRepository repository) {
+        instances.put(door, repository);
+    }
+
+    AlarmRepository(DatabaseReference myRef, HistoryCache historyCache) {
+        this(myRef, historyCache, DoorAddress.LEGACY);
+    }
+
+    AlarmRepository(DatabaseReference myRef, HistoryCache historyCache, DoorAddress door) {
+        this(new FirebaseEventSource(myRef, door), historyCache, door);
+    }
+
+    public AlarmRepository(AlarmEventSource source, HistoryCache historyCache, DoorAddress door) {
+        this(source, historyCache, door, new DoorStateMachine(DoorStateMachine.DEBOUNCE_MS, DoorStateMachine.HYSTERESIS_MS));
+    }
+
+    public AlarmRepository(AlarmEventSource source, HistoryCache historyCache, DoorAddress door, DoorStateMachine doorStateMachine) {
+        this(source, historyCache, door, doorStateMachine, null);
+    }
+
+    //'localLink': door state also read from the ESP8266 on the local network, null for Firebase only
+    public AlarmRepository(AlarmEventSource source, HistoryCache historyCache, DoorAddress door, DoorStateMachine doorStateMachine,
+                           LocalDoorLink localLink) {
+        this.door = door;
+        this.source = source;
+
+        doorOpen = new DoorValueLiveData(source, AlarmEventSource.DOOR_OPEN, this);
+        doorState = new DoorStateLiveData(source, doorStateMachine, localLink, this);
+        doorOpenTimestamp = new DoorValueLiveData(source, AlarmEventSource.DOOR_OPEN_TS, this);
+        heartbeat = new DoorValueLiveData(source, AlarmEventSource.DOOR_HEARTBEAT, this);
+        localSiren = new SyncedSetting(source, AlarmEventSource.LOCAL_SIREN, this);
+        disabled = new SyncedSetting(source, AlarmEventSource.DISABLED, this);
+        history = new HistoryLiveData(new HistoryPager(source, new HistoryIngest(new HistoryModel(), statistics), historyCache));
+        historySearch = new HistorySearch(source, historyCache);
+    }
+
+    public DoorAddress getDoor() {
+        return door;
+    }
+
+    //Raw 'door_open' values, as delivered
+    public LiveData<Object> getDoorOpen() {
+        return doorOpen;
+    }
+
+    //Confirmed door transitions: what the screen shows and the sounds play (see DoorStateMachine)
+    public LiveData<DoorStateMachine.Transition> getDoorState() {
+        return doorState;
+    }
+
+    //Used on the main thread only
+    DoorStateMachine getDoorStateMachine() {
+        return doorState.getMachine();
+    }
+
+    //Counters of the raw door values and of the transitions suppressed, for the diagnostics screen
+    public String getDoorStateStats() {
+        return doorState.getMachine().getStats();
+    }
+
+    //Local network path to the ESP8266 and its latency compared with Firebase, for the diagnostics screen
+    public String getLocalPathStats() {
+        LocalDoorLink link = doorState.getLocalLink();
+        return "link " + (link != null ? link.getStats() : "not used") + "\n" + doorState.getPathComparison().getStats();
+    }
+
+    //Server time of the last 'door_open' change, written by the ESP8266 just before the new state
+    public LiveData<Object> getDoorOpenTimestamp() {
+        return doorOpenTimestamp;
+    }
+
+    public LiveData<Object> getHeartbeat() {
+        return heartbeat;
+    }
+
+    public LiveData<Object> getLocalSiren() {
+        return localSiren;
+    }
+
+    public LiveData<Object> getDisabled() {
+        return disabled;
+    }
+
+    //The history model is filled while observed. Older pages are loaded on demand
+    public LiveData<HistoryModel> getHistory() {
+        return history;
+    }
+
+    //Door usage statistics, updated as history entries and door transitions are received
+    public DoorStatistics getStatistics() {
+        return statistics;
+    }
+
+    //Date range searches and exports of the whole door history
+    public HistorySearch getHistorySearch() {
+        return historySearch;
+    }
+
+    public void loadOlderHistory() {
+        history.pager.loadOlderPage();
+    }
+
+    //Local siren checkbox: no-op requests are dropped and fast toggles are written once
+    public void setLocalSiren(boolean value) {
+        localSiren.set(value);
+    }
+
+    //Flips 'disabled' in a transaction, so that concurrent toggles from other phones are not lost
+    public void toggleDisabled(SyncedSetting.OnToggledListener listener) {
+        disabled.toggle(listener);
+    }
+
+    //Write counters of the synchronized settings, for the diagnostics screen
+    public String getSettingsStats() {
+        return "local_siren: " + localSiren.getStats() + "\ndisabled: " + disabled.getStats();
+    }
+
+    //Writes "OFF" so that the next ESP8266 heartbeat is seen as a change
+    public void resetHeartbeat() {
+        source.setValue(AlarmEventSource.DOOR_HEARTBEAT, "OFF");
+    }
+
+    public int getActiveListenerCount() {
+        return activeListeners.get();
+    }
+
+    void onListenerAttached() {
+        activeListeners.incrementAndGet();
+    }
+
+    void onListenerDetached() {
+        activeListeners.decrementAndGet();
+    }
+
+    /****History model published as LiveData: the pager live listener follows the observers lifecycle****/
+    private class HistoryLiveData extends LiveData<HistoryModel> {
+        final HistoryPager pager;
+
+        HistoryLiveData(HistoryPager pager) {
+            this.pager = pager;
+        }
+
+        @Override
+        protected void onActive() {
+            if (getValue() == null)
+                setValue(pager.getModel());
+            pager.start();
+            onListenerAttached();
+        }
+
+        @Override
+        protected void onInactive() {
+            pager.stop();
+            onListenerDetached();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.app.Application;
+import android.arch.lifecycle.AndroidViewModel;
+import android.support.annotation.NonNull;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.HeartbeatMonitor;
+
+/*
+State of MainActivity that must survive screen rotations: the repository subscriptions and the heartbeat statistics.
+The door shown is set once by init(), from the Activity intent.
+*/
+
+public class AlarmViewModel extends AndroidViewModel {
+
+    private AlarmRepository repository;
+    private final HeartbeatMonitor heartbeatMonitor = new HeartbeatMonitor();
+    private Object lastHeartbeat;
+    private long doorOpenedAt = -1;
+
+    public AlarmViewModel(@NonNull Application application) {
+        super(application);
+    }
+
+    //Selects the door of this ViewModel. Later calls (after a rotation) keep the first door
+    public AlarmRepository init(DoorAddress door) {
+        if (repository == null)
+            repository = AlarmRepository.getInstance(getApplication(), door);
+        return repository;
+    }
+
+    public AlarmRepository getRepository() {
+        return repository;
+    }
+
+    public HeartbeatMonitor getHeartbeatMonitor() {
+        return heartbeatMonitor;
+    }
+
+    /****Records a 'door_heartbeat' value. Returns true if it is a new heartbeat from the ESP8266.
+     * The ESP8266 toggles the value, so a value equal to the previous one is just the listener (re)delivering the current state.
+     * "OFF" is written by this app and is not a heartbeat either. ****/
+    public boolean onHeartbeatValue(Object value, long nowMs) {
+        Object previous = lastHeartbeat;
+        lastHeartbeat = value;
+        if (previous == null || value == null || value.equals(previous) || "OFF".equals(value))
+            return false;
+
+        heartbeatMonitor.onHeartbeat(nowMs);
+        return true;
+    }
+
+    //Pairs 'door_open' transitions to measure how long the door stays open (monotonic clock)
+    public void onDoorTransition(boolean opened, long nowMs) {
+        if (opened)
+            doorOpenedAt = nowMs;
+        else if (doorOpenedAt >= 0) {
+            repository.getStatistics().addOpenDuration(nowMs - doorOpenedAt);
+            doorOpenedAt = -1;
+        }
+    }
+
+    //Called when the UI stops: the next value delivered is the current state, not a heartbeat
+    public void onHeartbeatPaused() {
+        lastHeartbeat = null;
+        heartbeatMonitor.restart();
+    }
+}
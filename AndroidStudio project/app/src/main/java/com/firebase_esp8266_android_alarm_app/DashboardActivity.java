@@ -0,0 +1,193 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.arch.lifecycle.ViewModelProviders;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SimpleItemAnimator;
+import android.util.Log;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.DoorDirectory;
+import com.firebase_esp8266_android_alarm_app.core.HeartbeatAggregator;
+import com.firebase_esp8266_android_alarm_app.core.HeartbeatMonitor;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.Locale;
+
+/*
+Dashboard of every door of every site, as a grid of tiles showing the door state and the ESP8266 link led.
+The doors are read once from '/sites_index/{site}/{door}' (door names only, no door data).
+Only the tiles on screen listen to their door (see DoorSubscriptions), and the link of all doors
+is checked by a single periodic evaluation of the heartbeat aggregator, which refreshes only the tiles that changed.
+Clicking a tile opens the door screen (MainActivity). A long click turns the door notifications on or off.
+*/
+
+public class DashboardActivity extends AppCompatActivity implements DoorSubscriptions.Listener, DashboardAdapter.OnDoorClickListener {
+
+    private static final int TILE_WIDTH_DP = 120;
+
+    DashboardViewModel viewModel;
+    DoorSubscriptions subscriptions;
+    DashboardAdapter adapter;
+
+    TextView textoSummary;
+    RecyclerView rvDoors;
+
+    //Evaluates the heartbeats of all doors each 'delay' milliseconds, while the Activity is started
+    Handler handler = new Handler();
+    int delay = 1000;
+
+    Runnable linkStatusTask = new Runnable() {
+        public void run() {
+            updateLinkStatus();
+            handler.postDelayed(this, delay);
+        }
+    };
+
+    private final HeartbeatAggregator.Listener tileRefresher = new HeartbeatAggregator.Listener() {
+        @Override
+        public void onStateChanged(int door, HeartbeatMonitor.State state) {
+            adapter.notifyItemChanged(door);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_dashboard);
+
+        textoSummary = (TextView) findViewById(R.id.textSummary);
+        rvDoors = (RecyclerView) findViewById(R.id.doors);
+
+        viewModel = ViewModelProviders.of(this).get(DashboardViewModel.class);
+        subscriptions = new DoorSubscriptions(FirebaseDatabase.getInstance().getReference(), viewModel.getDirectory(), this);
+        adapter = new DashboardAdapter(viewModel, subscriptions, this, UserPreferences.getFollowedDoors(this));
+
+        //as many columns as fit the screen width
+        int columns = Math.max(2, getResources().getConfiguration().screenWidthDp / TILE_WIDTH_DP);
+        rvDoors.setLayoutManager(new GridLayoutManager(this, columns));
+        rvDoors.setHasFixedSize(true);
+        ((SimpleItemAnimator) rvDoors.getItemAnimator()).setSupportsChangeAnimations(false);     //state refreshes are not animated
+        rvDoors.setAdapter(adapter);
+
+        if (viewModel.isLoaded())
+            updateLinkStatus();
+        else
+            loadDirectory();
+    }
+
+    //Reads the list of doors once. The index only holds the door names, so its size does not grow with the history
+    private void loadDirectory() {
+        textoSummary.setText("Loading doors...");
+        FirebaseDatabase.getInstance().getReference("/sites_index").addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                DoorDirectory directory = viewModel.getDirectory();
+                for (DataSnapshot site : dataSnapshot.getChildren())
+                    for (DataSnapshot door : site.getChildren())
+                        directory.add(site.getKey(), door.getKey(), String.valueOf(door.getValue()));
+
+                viewModel.onDirectoryLoaded();
+                viewModel.getHeartbeats().restart(SystemClock.elapsedRealtime());
+                subscriptions.onDirectoryChanged();
+                adapter.notifyDataSetChanged();
+                updateLinkStatus();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Log.w("dashboard", "Failed to read doors index.", databaseError.toException());
+                textoSummary.setText("Failed to read doors");
+            }
+        });
+    }
+
+    /****Single check of the link of all doors: refreshes the tiles that changed and the summary****/
+    private void updateLinkStatus() {
+        HeartbeatAggregator heartbeats = viewModel.getHeartbeats();
+        heartbeats.evaluate(SystemClock.elapsedRealtime(), tileRefresher);
+
+        if (!viewModel.isLoaded())
+            return;
+        if (heartbeats.getDoorCount() == 0) {
+            textoSummary.setText("No doors in /sites_index");
+            return;
+        }
+        textoSummary.setText(String.format(Locale.US, "%d doors   active %d   delayed %d   inactive %d   waiting %d",
+                heartbeats.getDoorCount(),
+                heartbeats.getCount(HeartbeatMonitor.State.HEALTHY),
+                heartbeats.getCount(HeartbeatMonitor.State.DEGRADED),
+                heartbeats.getCount(HeartbeatMonitor.State.DOWN),
+                heartbeats.getCount(HeartbeatMonitor.State.WAITING)));
+    }
+
+    /************DoorSubscriptions.Listener*************/
+    @Override
+    public void onDoorOpen(int door, boolean open) {
+        if (viewModel.setDoorOpen(door, open))
+            adapter.notifyItemChanged(door);
+    }
+
+    @Override
+    public void onHeartbeat(int door) {
+        viewModel.getHeartbeats().onHeartbeat(door, SystemClock.elapsedRealtime());
+    }
+
+    /************Tile clicks*************/
+    @Override
+    public void onDoorClick(int door) {
+        DoorAddress address = viewModel.getDirectory().get(door);
+        Intent intent = new Intent(this, MainActivity.class);
+        intent.putExtra(MainActivity.EXTRA_SITE, address.site);
+        intent.putExtra(MainActivity.EXTRA_DOOR, address.door);
+        intent.putExtra(MainActivity.EXTRA_NAME, viewModel.getDirectory().getName(door));
+        startActivity(intent);
+    }
+
+    //Turns the door notifications on or off, with the notification option chosen in the main screen
+    @Override
+    public void onDoorLongClick(int door) {
+        DoorAddress address = viewModel.getDirectory().get(door);
+        boolean follow = !UserPreferences.isFollowed(this, address);
+        UserPreferences.setFollowed(this, address, follow);
+        TopicSubscriptionManager.getInstance(this).request(UserPreferences.getNotification(this));
+
+        adapter.setFollowed(UserPreferences.getFollowedDoors(this));
+        adapter.notifyItemChanged(door);
+        Toast.makeText(this, viewModel.getDirectory().getName(door) + (follow ? ": notifications on" : ": notifications off"),
+                Toast.LENGTH_SHORT).show();
+    }
+
+    //Listeners only live while the dashboard is visible. Heartbeats missed meanwhile are not known: the doors wait for fresh ones
+    @Override
+    public void onStart() {
+        super.onStart();
+        viewModel.getHeartbeats().restart(SystemClock.elapsedRealtime());
+        adapter.notifyDataSetChanged();
+        subscriptions.start();
+        handler.postDelayed(linkStatusTask, delay);
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        handler.removeCallbacks(linkStatusTask);
+        subscriptions.stop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        rvDoors.setAdapter(null);
+    }
+}
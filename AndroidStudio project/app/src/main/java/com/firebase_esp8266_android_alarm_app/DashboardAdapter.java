@@ -0,0 +1,153 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorDirectory;
+import com.firebase_esp8266_android_alarm_app.core.HeartbeatAggregator;
+import com.firebase_esp8266_android_alarm_app.core.HeartbeatMonitor;
+
+import java.util.Set;
+
+/*
+Door tiles of the dashboard grid, one per door of the directory ('dashboard_tile.xml' layout).
+A tile on screen keeps a 'door_open' listener: the subscriptions follow the tiles attached to the window,
+so scrolling through 500 doors never keeps more listeners than the visible tiles.
+Images are only set when the state shown by the tile changes.
+*/
+
+public class DashboardAdapter extends RecyclerView.Adapter<DashboardAdapter.ViewHolder> {
+
+    public interface OnDoorClickListener {
+        void onDoorClick(int door);
+
+        void onDoorLongClick(int door);
+    }
+
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener, View.OnLongClickListener {
+        final ImageView door, led;
+        final TextView name;
+        int index = -1;             //door bound to this tile
+        int subscribed = -1;        //door subscribed while the tile is attached to the window
+        int doorShown = -1, ledShown = -1;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            door = (ImageView) itemView.findViewById(R.id.tileDoor);
+            led = (ImageView) itemView.findViewById(R.id.tileLed);
+            name = (TextView) itemView.findViewById(R.id.tileName);
+            itemView.setOnClickListener(this);
+            itemView.setOnLongClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (index >= 0)
+                clickListener.onDoorClick(index);
+        }
+
+        @Override
+        public boolean onLongClick(View view) {
+            if (index >= 0)
+                clickListener.onDoorLongClick(index);
+            return true;
+        }
+    }
+
+    private final DashboardViewModel viewModel;
+    private final DoorDirectory directory;
+    private final HeartbeatAggregator heartbeats;
+    private final DoorSubscriptions subscriptions;
+    private final OnDoorClickListener clickListener;
+    private Set<String> followed;
+
+    public DashboardAdapter(DashboardViewModel viewModel, DoorSubscriptions subscriptions, OnDoorClickListener clickListener, Set<String> followed) {
+        this.viewModel = viewModel;
+        this.directory = viewModel.getDirectory();
+        this.heartbeats = viewModel.getHeartbeats();
+        this.subscriptions = subscriptions;
+        this.clickListener = clickListener;
+        this.followed = followed;
+        setHasStableIds(true);
+    }
+
+    //Doors whose notifications are enabled (DoorAddress keys), marked with a bell
+    public void setFollowed(Set<String> followed) {
+        this.followed = followed;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ViewHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.dashboard_tile, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        holder.index = position;
+
+        //a tile rebound to another door while on screen moves its subscription
+        if (holder.subscribed >= 0 && holder.subscribed != position) {
+            subscriptions.hide(holder.subscribed);
+            subscriptions.show(position);
+            holder.subscribed = position;
+        }
+
+        holder.name.setText(directory.getName(position));
+        holder.name.setCompoundDrawablesWithIntrinsicBounds(0, 0,
+                followed.contains(directory.get(position).key()) ? android.R.drawable.ic_popup_reminder : 0, 0);
+
+        int doorImage = viewModel.getDoorState(position) == DashboardViewModel.DOOR_OPEN ? R.drawable.door_opened : R.drawable.door_closed;
+        if (doorImage != holder.doorShown) {
+            holder.door.setImageResource(doorImage);
+            holder.doorShown = doorImage;
+        }
+        holder.door.setAlpha(viewModel.getDoorState(position) == DashboardViewModel.DOOR_UNKNOWN ? 0.4f : 1f);
+
+        int ledImage = ledImage(heartbeats.getState(position));
+        if (ledImage != holder.ledShown) {
+            holder.led.setImageResource(ledImage);
+            holder.ledShown = ledImage;
+        }
+    }
+
+    //Same colours as the MainActivity led
+    private static int ledImage(HeartbeatMonitor.State state) {
+        switch (state) {
+            case HEALTHY:
+                return R.drawable.green_on;
+            case DOWN:
+                return R.drawable.red_on;
+            default:
+                return R.drawable.led_off;
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return viewModel.isLoaded() ? directory.size() : 0;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    /************Subscriptions follow the tiles on screen*************/
+    @Override
+    public void onViewAttachedToWindow(@NonNull ViewHolder holder) {
+        holder.subscribed = holder.index;
+        subscriptions.show(holder.index);
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(@NonNull ViewHolder holder) {
+        subscriptions.hide(holder.subscribed);
+        holder.subscribed = -1;
+    }
+}
@@ -0,0 +1,56 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.arch.lifecycle.ViewModel;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorDirectory;
+import com.firebase_esp8266_android_alarm_app.core.HeartbeatAggregator;
+
+import java.util.Arrays;
+
+/*
+State of DashboardActivity that must survive screen rotations: the doors read from '/sites_index',
+the last known state of each door and the aggregated heartbeat states. Door states are kept in an array indexed like the directory.
+*/
+
+public class DashboardViewModel extends ViewModel {
+
+    public static final byte DOOR_UNKNOWN = 0, DOOR_CLOSED = 1, DOOR_OPEN = 2;
+
+    private final DoorDirectory directory = new DoorDirectory();
+    private final HeartbeatAggregator heartbeats = new HeartbeatAggregator();
+    private byte[] doorStates = new byte[0];
+    private boolean loaded;
+
+    public DoorDirectory getDirectory() {
+        return directory;
+    }
+
+    public HeartbeatAggregator getHeartbeats() {
+        return heartbeats;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    //Sizes the per door state after the directory was filled
+    public void onDirectoryLoaded() {
+        heartbeats.setDoorCount(directory.size());
+        if (doorStates.length < directory.size())
+            doorStates = Arrays.copyOf(doorStates, directory.size());
+        loaded = true;
+    }
+
+    public byte getDoorState(int door) {
+        return doorStates[door];
+    }
+
+    //Returns true if the state changed
+    public boolean setDoorOpen(int door, boolean open) {
+        byte state = open ? DOOR_OPEN : DOOR_CLOSED;
+        if (doorStates[door] == state)
+            return false;
+        doorStates[door] = state;
+        return true;
+    }
+}
@@ -0,0 +1,99 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.widget.TextView;
+
+import com.firebase_esp8266_android_alarm_app.core.LatencyStats;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/*
+Diagnostics screen: end-to-end delays of the door events per stage (p50, p95, p99), cold start phases,
+sound and notification handling times. Refreshed every 'delay' milliseconds while visible.
+The report can be exported as text (with the delays in CSV) through any app that accepts ACTION_SEND.
+*/
+
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    TextView textoDiagnostics;
+
+    Handler handler = new Handler();
+    int delay = 2000;
+
+    Runnable refreshTask = new Runnable() {
+        public void run() {
+            textoDiagnostics.setText(buildReport(false));
+            handler.postDelayed(this, delay);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_diagnostics);
+        textoDiagnostics = (TextView) findViewById(R.id.textDiagnostics);
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+        handler.post(refreshTask);
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        handler.removeCallbacks(refreshTask);
+    }
+
+    private String buildReport(boolean csv) {
+        LatencyStats stats = LatencyTracker.getStats();
+        SoundEngine soundEngine = SoundEngine.getInstance(this);
+        StringBuilder report = new StringBuilder();
+
+        report.append(String.format(Locale.US, "End-to-end delays (ms)%nserver clock offset %d ms, negative delays %d%n",
+                LatencyTracker.getServerOffsetMs(), stats.getNegativeCount()));
+        report.append(stats.format(csv)).append('\n');
+
+        report.append("Cold start\n").append(StartupTracer.getReport()).append('\n');
+
+        report.append(String.format(Locale.US, "Sound start latency: p50 %d us  p95 %d us  (%d plays)%n",
+                soundEngine.getLatencyPercentileMicros(0.5), soundEngine.getLatencyPercentileMicros(0.95), soundEngine.getPlayCount()));
+        report.append(String.format(Locale.US, "FCM message handling: p50 %d us  p95 %d us%n",
+                MyFirebaseMessagingService.getHandlingPercentileMicros(0.5), MyFirebaseMessagingService.getHandlingPercentileMicros(0.95)));
+        report.append(String.format(Locale.US, "FCM topic calls: %d%n", TopicSubscriptionManager.getInstance(this).getCallCount()));
+        report.append(String.format(Locale.US, "Firebase listeners (main door): %d%n", AlarmRepository.getInstance(this).getActiveListenerCount()));
+        report.append("Background link watchdog\n").append(LinkWatchdog.getReport(this)).append('\n');
+        report.append("Setting writes (main door)\n").append(AlarmRepository.getInstance(this).getSettingsStats()).append('\n');
+        report.append("Door state (main door)\n").append(AlarmRepository.getInstance(this).getDoorStateStats()).append('\n');
+        report.append("Local network path (main door)\n").append(AlarmRepository.getInstance(this).getLocalPathStats()).append('\n');
+        report.append("Snapshot pipeline\n").append(SnapshotPipeline.getInstance().getStats()).append('\n');
+        return report.toString();
+    }
+
+    //Executes when the 'Export' button is clicked: shares the report as text
+    public void exportDiagnostics(View view) {
+        String date = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date());
+        String text = "ESP8266 Alarms diagnostics - " + date + " - " + Build.MANUFACTURER + " " + Build.MODEL
+                + " (API " + Build.VERSION.SDK_INT + ")\n\n" + buildReport(true);
+
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_SUBJECT, "ESP8266 Alarms diagnostics " + date);
+        intent.putExtra(Intent.EXTRA_TEXT, text);
+        startActivity(Intent.createChooser(intent, "Export diagnostics"));
+    }
+
+    //Executes when the 'Clear' button is clicked: starts a new measure of the delays
+    public void clearDiagnostics(View view) {
+        LatencyTracker.getStats().clear();
+        textoDiagnostics.setText(buildReport(false));
+    }
+}
@@ -0,0 +1,147 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.arch.lifecycle.LiveData;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.firebase_esp8266_android_alarm_app.core.AlarmEventSource;
+import com.firebase_esp8266_android_alarm_app.core.DoorStateMachine;
+import com.firebase_esp8266_android_alarm_app.core.PathComparison;
+
+/*
+LiveData holding the last confirmed door transition: the raw 'door_open' values go through a DoorStateMachine,
+so flaps caused by interference never reach the screen, and each transition says whether it was seen live,
+at the initial sync or after a reconnection ('.info/connected' back to true).
+Like DoorValueLiveData, its listeners are attached only while observed. A pending change is confirmed by a
+main thread timer at the end of its windows.
+With a LocalDoorLink, the door state read from the ESP8266 on the local network goes through the same machine,
+confirmed at once: the board confirmed it already. Both paths are compared (PathComparison), and the Firebase copy of
+a change the local path delivered first is dropped, as is the first Firebase value while the local path has one:
+a stale Firebase value can neither cancel nor undo a local change. The first local status after the link
+comes up is a snapshot (no sound); a Firebase reconnection only tags the next Firebase value.
+*/
+
+public class DoorStateLiveData extends LiveData<DoorStateMachine.Transition> {
+
+    private final AlarmEventSource source;
+    private final AlarmRepository repository;
+    private final DoorStateMachine machine;
+    private final LocalDoorLink localLink;      //null when the local network path is not used
+    private final PathComparison comparison = new PathComparison();
+    private Handler handler;      //created on first use
+
+    private boolean connected, connectionLost;
+    private boolean localSnapshot;      //next local value is the first since the link came up
+
+    private final AlarmEventSource.ValueListener doorListener = new AlarmEventSource.ValueListener() {
+        @Override
+        public void onValue(Object value) {
+            if (value instanceof Boolean) {
+                long now = SystemClock.elapsedRealtime();
+                int result = comparison.onValue(PathComparison.CLOUD, (Boolean) value, now);
+                if (result == PathComparison.LATE || (result == PathComparison.BASELINE && comparison.hasValue(PathComparison.LOCAL)))
+                    machine.onDropped();
+                else
+                    publish(machine.onValue((Boolean) value, now));
+            }
+        }
+    };
+
+    private final LocalDoorLink.Listener localListener = new LocalDoorLink.Listener() {
+        @Override
+        public void onDoorOpen(boolean open) {
+            long now = SystemClock.elapsedRealtime();
+            comparison.onValue(PathComparison.LOCAL, open, now);
+            publish(machine.onConfirmedValue(open, localSnapshot, now));
+            localSnapshot = false;
+        }
+
+        @Override
+        public void onLinkChanged(boolean up) {
+            comparison.reset(PathComparison.LOCAL);
+            localSnapshot = up;
+        }
+    };
+
+    //A reconnection is a return to true after a false seen while connected: the first connection is not one
+    private final AlarmEventSource.ValueListener connectedListener = new AlarmEventSource.ValueListener() {
+        @Override
+        public void onValue(Object value) {
+            if (Boolean.TRUE.equals(value)) {
+                if (connectionLost)
+                    machine.onReconnected();
+                connected = true;
+                connectionLost = false;
+            } else if (connected) {
+                connectionLost = true;
+            }
+        }
+    };
+
+    private final Runnable confirmTask = new Runnable() {
+        @Override
+        public void run() {
+            publish(machine.poll(SystemClock.elapsedRealtime()));
+        }
+    };
+
+    DoorStateLiveData(AlarmEventSource source, DoorStateMachine machine, LocalDoorLink localLink, AlarmRepository repository) {
+        this.source = source;
+        this.machine = machine;
+        this.localLink = localLink;
+        this.repository = repository;
+    }
+
+    public DoorStateMachine getMachine() {
+        return machine;
+    }
+
+    public LocalDoorLink getLocalLink() {
+        return localLink;
+    }
+
+    public PathComparison getPathComparison() {
+        return comparison;
+    }
+
+    private void publish(DoorStateMachine.Transition transition) {
+        if (transition != null)
+            setValue(transition);
+
+        getHandler().removeCallbacks(confirmTask);
+        long deadline = machine.getDeadline();
+        if (deadline >= 0)
+            handler.postDelayed(confirmTask, Math.max(0, deadline - SystemClock.elapsedRealtime()));
+    }
+
+    private Handler getHandler() {
+        if (handler == null)
+            handler = new Handler(Looper.getMainLooper());
+        return handler;
+    }
+
+    @Override
+    protected void onActive() {
+        connected = connectionLost = false;
+        machine.onSubscribed();
+        comparison.reset(PathComparison.CLOUD);
+        source.addValueListener(AlarmEventSource.CONNECTED, connectedListener);
+        source.addValueListener(AlarmEventSource.DOOR_OPEN, doorListener);
+        repository.onListenerAttached();        //one for each listener
+        repository.onListenerAttached();
+        if (localLink != null)
+            localLink.start(localListener);
+    }
+
+    @Override
+    protected void onInactive() {
+        source.removeValueListener(AlarmEventSource.DOOR_OPEN, doorListener);
+        source.removeValueListener(AlarmEventSource.CONNECTED, connectedListener);
+        getHandler().removeCallbacks(confirmTask);
+        if (localLink != null)
+            localLink.stop();
+        repository.onListenerDetached();
+        repository.onListenerDetached();
+    }
+}
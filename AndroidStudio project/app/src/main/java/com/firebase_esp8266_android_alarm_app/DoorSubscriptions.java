@@ -0,0 +1,158 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.DoorDirectory;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+Firebase listeners of the doors dashboard. With hundreds of doors configured, only the doors whose tile is on screen
+get a 'door_open' listener: show() is called when a tile is attached to the window and hide() when it leaves it.
+Heartbeats are not listened per door: one ChildEventListener per site covers '/sites/{site}/heartbeats',
+and every change is reported with the door index, for the aggregated link check.
+Listeners exist only between start() and stop(). Must be used from the main thread.
+*/
+
+public class DoorSubscriptions {
+
+    public interface Listener {
+        void onDoorOpen(int door, boolean open);
+
+        void onHeartbeat(int door);
+    }
+
+    private final DatabaseReference root;
+    private final DoorDirectory directory;
+    private final Listener listener;
+
+    //doors on screen, and the listeners currently attached to them
+    private final SparseBooleanArray visible = new SparseBooleanArray();
+    private final SparseArray<ValueEventListener> doorListeners = new SparseArray<ValueEventListener>();
+    private final Map<String, ChildEventListener> siteListeners = new HashMap<String, ChildEventListener>();
+    private boolean started;
+
+    public DoorSubscriptions(DatabaseReference root, DoorDirectory directory, Listener listener) {
+        this.root = root;
+        this.directory = directory;
+        this.listener = listener;
+    }
+
+    public void start() {
+        started = true;
+        attachSites();
+        for (int i = 0; i < visible.size(); i++)
+            attachDoor(visible.keyAt(i));
+    }
+
+    public void stop() {
+        started = false;
+        for (int i = 0; i < doorListeners.size(); i++)
+            root.child(directory.get(doorListeners.keyAt(i)).path("door_open")).removeEventListener(doorListeners.valueAt(i));
+        doorListeners.clear();
+
+        for (Map.Entry<String, ChildEventListener> entry : siteListeners.entrySet())
+            root.child(DoorAddress.heartbeatsPath(entry.getKey())).removeEventListener(entry.getValue());
+        siteListeners.clear();
+    }
+
+    //Called when doors were added to the directory: their sites are listened too
+    public void onDirectoryChanged() {
+        if (started)
+            attachSites();
+    }
+
+    //A door tile came on screen
+    public void show(int door) {
+        if (door < 0 || visible.get(door))
+            return;
+        visible.put(door, true);
+        if (started)
+            attachDoor(door);
+    }
+
+    //A door tile left the screen
+    public void hide(int door) {
+        if (door < 0 || !visible.get(door))
+            return;
+        visible.delete(door);
+
+        ValueEventListener doorListener = doorListeners.get(door);
+        if (doorListener != null) {
+            root.child(directory.get(door).path("door_open")).removeEventListener(doorListener);
+            doorListeners.remove(door);
+        }
+    }
+
+    //Number of listeners attached (door tiles on screen plus one per site)
+    public int getActiveCount() {
+        return doorListeners.size() + siteListeners.size();
+    }
+
+    private void attachDoor(final int door) {
+        if (doorListeners.get(door) != null)
+            return;
+
+        ValueEventListener doorListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                Object value = dataSnapshot.getValue();
+                if (value instanceof Boolean)
+                    listener.onDoorOpen(door, (Boolean) value);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Log.w("dashboard", "Failed to read door " + directory.get(door), databaseError.toException());
+            }
+        };
+        doorListeners.put(door, doorListener);
+        root.child(directory.get(door).path("door_open")).addValueEventListener(doorListener);
+    }
+
+    private void attachSites() {
+        for (final String site : directory.getSites()) {
+            if (siteListeners.containsKey(site))
+                continue;
+
+            ChildEventListener siteListener = new ChildEventListener() {
+                @Override
+                //Current heartbeat values, delivered when the listener is attached: not heartbeats
+                public void onChildAdded(DataSnapshot dataSnapshot, String s) {
+                }
+
+                @Override
+                //The ESP8266 toggles its heartbeat every period. "OFF" is written by the app when a door screen opens
+                public void onChildChanged(DataSnapshot dataSnapshot, String s) {
+                    if ("OFF".equals(dataSnapshot.getValue()))
+                        return;
+                    listener.onHeartbeat(directory.indexOf(site, dataSnapshot.getKey()));
+                }
+
+                @Override
+                public void onChildRemoved(DataSnapshot dataSnapshot) {
+                }
+
+                @Override
+                public void onChildMoved(DataSnapshot dataSnapshot, String s) {
+                }
+
+                @Override
+                public void onCancelled(DatabaseError databaseError) {
+                    Log.w("dashboard", "Failed to read heartbeats of site " + site, databaseError.toException());
+                }
+            };
+            siteListeners.put(site, siteListener);
+            root.child(DoorAddress.heartbeatsPath(site)).addChildEventListener(siteListener);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.arch.lifecycle.LiveData;
+
+import com.firebase_esp8266_android_alarm_app.core.AlarmEventSource;
+
+/*
+LiveData holding the value of one child of the door node (Boolean, Long, String or null).
+The source listener (a Firebase ValueEventListener, see FirebaseEventSource) is attached only while at least one
+observer is started, and removed when the last one stops,
+so there is a single subscription per path however many Activities (or rotations) observe it.
+*/
+
+public class DoorValueLiveData extends LiveData<Object> {
+
+    protected final AlarmEventSource source;
+    protected final String child;
+    private final AlarmRepository repository;
+
+    private final AlarmEventSource.ValueListener listener = new AlarmEventSource.ValueListener() {
+        @Override
+        public void onValue(Object value) {
+            setValue(value);
+        }
+    };
+
+    DoorValueLiveData(AlarmEventSource source, String child, AlarmRepository repository) {
+        this.source = source;
+        this.child = child;
+        this.repository = repository;
+    }
+
+    @Override
+    protected void onActive() {
+        source.addValueListener(child, listener);
+        repository.onListenerAttached();
+    }
+
+    @Override
+    protected void onInactive() {
+        source.removeValueListener(child, listener);
+        repository.onListenerDetached();
+    }
+}
@@ -0,0 +1,361 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.util.Log;
+
+import com.firebase_esp8266_android_alarm_app.core.AlarmEventSource;
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.HistoryBuckets;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.Transaction;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+AlarmEventSource reading and writing one door node of the Firebase Realtime Database
+('/alarm' or '/sites/{site}/doors/{door}', its heartbeat where DoorAddress keeps it), and '.info/connected'.
+Day buckets of the compact history are decoded here, once per bucket, before reaching the listeners.
+Each listener added here is one Firebase listener, removed with it.
+With a SnapshotPipeline, snapshots are decoded on its background thread and delivered to the listeners in frame batches;
+an event still in the pipeline when its listener is removed is dropped. Without one (unit tests), everything runs in the Firebase callback.
+*/
+
+public class FirebaseEventSource implements AlarmEventSource {
+
+    private final DatabaseReference root;
+    private final DoorAddress door;
+    private final DatabaseReference history, historyDays;
+    private final SnapshotPipeline pipeline;
+
+    //Firebase listener registered for each source listener, and the query it listens to
+    private final Map<Object, Object> firebaseListeners = new HashMap<Object, Object>();
+    private final Map<Object, Query> queries = new HashMap<Object, Query>();
+
+    public FirebaseEventSource(DatabaseReference root, DoorAddress door) {
+        this(root, door, null);
+    }
+
+    public FirebaseEventSource(DatabaseReference root, DoorAddress door, SnapshotPipeline pipeline) {
+        this.root = root;
+        this.door = door;
+        this.pipeline = pipeline;
+        history = root.child(door.path("history"));
+        historyDays = root.child(door.path(HISTORY_DAYS));
+    }
+
+    private DatabaseReference child(String child) {
+        if (CONNECTED.equals(child))
+            return root.child(CONNECTED);       //'root' is the database root: '.info' paths are allowed there
+        return root.child(DOOR_HEARTBEAT.equals(child) ? door.heartbeatPath() : door.path(child));
+    }
+
+    @Override
+    public void addValueListener(final String child, final ValueListener listener) {
+        ValueEventListener firebaseListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(final DataSnapshot dataSnapshot) {
+                // This method is called once with the initial value and again whenever data at this location is updated.
+                final ValueEventListener firebaseListener = this;
+                dispatch(new SnapshotPipeline.Task() {
+                    Object value;
+
+                    @Override
+                    protected void decode() {
+                        value = dataSnapshot.getValue();
+                    }
+
+                    @Override
+                    protected void deliver() {
+                        if (isRegistered(listener, firebaseListener))
+                            listener.onValue(value);
+                    }
+                });
+            }
+
+            @Override
+            public void onCancelled(DatabaseError error) {
+                // Failed to read value
+                Log.w("file", "Failed to read " + child + ".", error.toException());
+            }
+        };
+        DatabaseReference ref = child(child);
+        register(listener, ref, firebaseListener);
+        ref.addValueEventListener(firebaseListener);
+    }
+
+    @Override
+    public void removeValueListener(String child, ValueListener listener) {
+        unregister(listener);
+    }
+
+    @Override
+    public void setValue(String child, Object value) {
+        child(child).setValue(value);
+    }
+
+    @Override
+    public void toggle(final String child, final ToggleCallback callback) {
+        child(child).runTransaction(new Transaction.Handler() {
+            @Override
+            public Transaction.Result doTransaction(MutableData mutableData) {
+                mutableData.setValue(!Boolean.TRUE.equals(mutableData.getValue()));
+                return Transaction.success(mutableData);
+            }
+
+            @Override
+            public void onComplete(DatabaseError databaseError, boolean committed, DataSnapshot dataSnapshot) {
+                if (!committed)
+                    Log.w("settings", "Failed to toggle " + child, databaseError != null ? databaseError.toException() : null);
+                if (callback != null)
+                    callback.onToggled(committed, committed && Boolean.TRUE.equals(dataSnapshot.getValue()));
+            }
+        });
+    }
+
+    @Override
+    public void addHistoryListener(String startKey, int limit, final HistoryListener listener) {
+        ChildEventListener firebaseListener = new ChildEventListener() {
+            @Override
+            //Also triggered when app starts or when screen is rotated
+            public void onChildAdded(DataSnapshot dataSnapshot, String s) {
+                onEntry(dataSnapshot, false);
+            }
+
+            @Override
+            //Triggered by the Firebase cloud function that generates timestamp
+            public void onChildChanged(DataSnapshot dataSnapshot, String s) {
+                onEntry(dataSnapshot, true);
+            }
+
+            private void onEntry(final DataSnapshot dataSnapshot, final boolean changed) {
+                final ChildEventListener firebaseListener = this;
+                dispatch(new SnapshotPipeline.Task() {
+                    Object value;
+
+                    @Override
+                    protected void decode() {
+                        value = dataSnapshot.getValue();
+                    }
+
+                    @Override
+                    protected void deliver() {
+                        if (isRegistered(listener, firebaseListener))
+                            listener.onEntry(dataSnapshot.getKey(), value, changed);
+                    }
+                });
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot dataSnapshot, String s) {
+            }
+
+            @Override
+            public void onChildRemoved(final DataSnapshot dataSnapshot) {
+                final ChildEventListener firebaseListener = this;
+                dispatch(new SnapshotPipeline.Task() {
+                    @Override
+                    protected void decode() {
+                    }
+
+                    @Override
+                    protected void deliver() {
+                        if (isRegistered(listener, firebaseListener))
+                            listener.onRemoved(dataSnapshot.getKey());
+                    }
+                });
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Log.w("history", "Failed to read history.", databaseError.toException());
+            }
+        };
+
+        Query query = startKey != null ? history.orderByKey().startAt(startKey) : history.orderByKey().limitToLast(limit);
+        register(listener, query, firebaseListener);
+        query.addChildEventListener(firebaseListener);
+    }
+
+    @Override
+    public void removeHistoryListener(HistoryListener listener) {
+        unregister(listener);
+    }
+
+    @Override
+    public void readHistory(String startKey, String endKey, int limit, final PageCallback callback) {
+        Query query = history.orderByKey();
+        if (startKey != null)
+            query = query.startAt(startKey);
+        if (endKey != null)
+            query = query.endAt(endKey);
+        if (limit > 0)
+            query = query.limitToLast(limit);
+
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(final DataSnapshot dataSnapshot) {
+                dispatch(new SnapshotPipeline.Task() {
+                    String[] keys;
+                    Object[] values;
+                    int count;
+
+                    @Override
+                    protected void decode() {
+                        int size = (int) dataSnapshot.getChildrenCount();
+                        keys = new String[size];
+                        values = new Object[size];
+                        for (DataSnapshot child : dataSnapshot.getChildren()) {
+                            keys[count] = child.getKey();
+                            values[count++] = child.getValue();
+                        }
+                    }
+
+                    @Override
+                    protected void deliver() {
+                        callback.onPage(keys, values, count);
+                    }
+                });
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Log.w("history", "Failed to read history range.", databaseError.toException());
+                callback.onPage(new String[0], new Object[0], -1);
+            }
+        });
+    }
+
+    @Override
+    public void addBucketListener(String startDay, int limit, final BucketListener listener) {
+        ChildEventListener firebaseListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(DataSnapshot dataSnapshot, String s) {
+                onBucket(dataSnapshot);
+            }
+
+            @Override
+            //Triggered by the cloud function appending the newest opening to the bucket of the day
+            public void onChildChanged(DataSnapshot dataSnapshot, String s) {
+                onBucket(dataSnapshot);
+            }
+
+            //one decoder per bucket event, as it may wait for its frame while the next bucket is decoded. No allocation per opening
+            private void onBucket(final DataSnapshot dataSnapshot) {
+                final ChildEventListener firebaseListener = this;
+                dispatch(new SnapshotPipeline.Task() {
+                    final HistoryBuckets.Decoder decoder = new HistoryBuckets.Decoder();
+                    int count;
+
+                    @Override
+                    protected void decode() {
+                        count = HistoryBuckets.decode(dataSnapshot.getKey(), dataSnapshot.getValue(), decoder);
+                    }
+
+                    @Override
+                    protected void deliver() {
+                        if (isRegistered(listener, firebaseListener))
+                            listener.onBucket(dataSnapshot.getKey(), decoder.getTimestamps(), count);
+                    }
+                });
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot dataSnapshot, String s) {
+            }
+
+            @Override
+            public void onChildRemoved(DataSnapshot dataSnapshot) {
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Log.w("history", "Failed to read history days.", databaseError.toException());
+            }
+        };
+
+        Query query = startDay != null ? historyDays.orderByKey().startAt(startDay) : historyDays.orderByKey().limitToLast(limit);
+        register(listener, query, firebaseListener);
+        query.addChildEventListener(firebaseListener);
+    }
+
+    @Override
+    public void removeBucketListener(BucketListener listener) {
+        unregister(listener);
+    }
+
+    @Override
+    public void readBuckets(String startDay, String endDay, int limit, final BucketListener callback) {
+        Query query = historyDays.orderByKey();
+        if (startDay != null)
+            query = query.startAt(startDay);
+        if (endDay != null)
+            query = query.endAt(endDay);
+        if (limit > 0)
+            query = query.limitToLast(limit);
+
+        query.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(final DataSnapshot dataSnapshot) {
+                dispatch(new SnapshotPipeline.Task() {
+                    final HistoryBuckets.Decoder decoder = new HistoryBuckets.Decoder();
+                    String oldestDay;
+
+                    @Override
+                    protected void decode() {
+                        for (DataSnapshot child : dataSnapshot.getChildren()) {
+                            if (oldestDay == null)
+                                oldestDay = child.getKey();
+                            if (HistoryBuckets.decode(child.getKey(), child.getValue(), decoder) < 0)
+                                Log.w("history", "Malformed history day " + child.getKey());
+                        }
+                    }
+
+                    @Override
+                    protected void deliver() {
+                        callback.onBucket(oldestDay, decoder.getTimestamps(), decoder.size());
+                    }
+                });
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Log.w("history", "Failed to read history days.", databaseError.toException());
+                callback.onBucket(null, new long[0], -1);
+            }
+        });
+    }
+
+    private void dispatch(SnapshotPipeline.Task task) {
+        if (pipeline != null) {
+            pipeline.submit(task);
+            return;
+        }
+        task.decode();
+        task.deliver();
+    }
+
+    //Whether a listener is still the one registered, when its event leaves the pipeline
+    private boolean isRegistered(Object listener, Object firebaseListener) {
+        return firebaseListeners.get(listener) == firebaseListener;
+    }
+
+    private void register(Object listener, Query query, Object firebaseListener) {
+        firebaseListeners.put(listener, firebaseListener);
+        queries.put(listener, query);
+    }
+
+    private void unregister(Object listener) {
+        Object firebaseListener = firebaseListeners.remove(listener);
+        Query query = queries.remove(listener);
+        if (firebaseListener instanceof ValueEventListener)
+            query.removeEventListener((ValueEventListener) firebaseListener);
+        else if (firebaseListener instanceof ChildEventListener)
+            query.removeEventListener((ChildEventListener) firebaseListener);
+    }
+}
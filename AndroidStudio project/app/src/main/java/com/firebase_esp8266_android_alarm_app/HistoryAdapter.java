@@ -0,0 +1,88 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.firebase_esp8266_android_alarm_app.core.HistoryFormatter;
+import com.firebase_esp8266_android_alarm_app.core.HistoryModel;
+
+/*
+Couples the door opening history model to the RecyclerView.
+Each row uses the 'listview_custom_layout.xml' layout. Only the rows reported by the model are refreshed.
+Timestamps are formatted when the row is bound, into a buffer owned by the row.
+*/
+
+public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.ViewHolder> implements HistoryModel.Listener {
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+        final char[] buffer = new char[HistoryFormatter.LENGTH];
+
+        ViewHolder(TextView itemView) {
+            super(itemView);
+            text = itemView;
+        }
+    }
+
+    private final HistoryModel model;
+    private final HistoryFormatter formatter = HistoryFormatter.getInstance();
+
+    public HistoryAdapter(HistoryModel model) {
+        this.model = model;
+        setHasStableIds(true);
+        model.setListener(this);
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.listview_custom_layout, parent, false);
+        return new ViewHolder((TextView) view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        int length = formatter.format(model.get(position).timestamp, holder.buffer);
+        holder.text.setText(holder.buffer, 0, length);
+    }
+
+    @Override
+    public int getItemCount() {
+        return model.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return model.get(position).id;
+    }
+
+    //Stops receiving model updates, so that the model does not keep this adapter (and its RecyclerView) alive
+    public void detach() {
+        model.setListener(null);
+    }
+
+    /************HistoryModel.Listener: refreshes only the affected rows*************/
+    @Override
+    public void onInserted(int position) {
+        notifyItemInserted(position);
+    }
+
+    @Override
+    public void onChanged(int position) {
+        notifyItemChanged(position);
+    }
+
+    @Override
+    public void onRemoved(int position) {
+        notifyItemRemoved(position);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        notifyItemMoved(fromPosition, toPosition);
+    }
+}
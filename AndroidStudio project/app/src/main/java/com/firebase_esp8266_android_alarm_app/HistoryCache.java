@@ -0,0 +1,342 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.HistoryExporter;
+import com.firebase_esp8266_android_alarm_app.core.HistoryFilter;
+import com.firebase_esp8266_android_alarm_app.core.HistoryFormatter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+Local copy of the door opening history, stored in a SQLite table indexed on timestamp.
+The app renders from it as soon as it starts and then only downloads what is newer than the newest cached key.
+Each door has its own database file ('history.db' for the original '/alarm' door).
+Searches and exports select rows by date range through the timestamp index.
+Openings read from day buckets (see HistoryBuckets) are stored under their bucket key, unless the push id entry is cached.
+All database access runs on a single background thread, shared by the doors. Results are delivered on the main thread.
+*/
+
+public class HistoryCache extends SQLiteOpenHelper {
+
+    //Callback receiving a page of history, ordered from the most recent to the oldest
+    public interface PageCallback {
+        void onPage(String[] keys, long[] timestamps, int count);
+    }
+
+    //Callback receiving the result of an export: the number of rows written, or -1 if the file could not be written
+    public interface ExportCallback {
+        void onExported(File file, int count);
+    }
+
+    //Callback receiving the oldest cached key, null when the cache is empty
+    public interface KeyCallback {
+        void onKey(String key);
+    }
+
+    private static final String DATABASE_NAME = "history.db";
+    private static final int DATABASE_VERSION = 1;
+
+    //Oldest rows above this count are discarded, as the cloud function does with the Firebase history
+    public static final int MAX_ROWS = 5000;
+
+    private static final Map<DoorAddress, HistoryCache> instances = new HashMap<DoorAddress, HistoryCache>();
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int writesSinceTrim = 0;
+
+    public static HistoryCache getInstance(Context context) {
+        return getInstance(context, DoorAddress.LEGACY);
+    }
+
+    public static synchronized HistoryCache getInstance(Context context, DoorAddress door) {
+        HistoryCache instance = instances.get(door);
+        if (instance == null) {
+            instance = new HistoryCache(context.getApplicationContext(), databaseName(door));
+            instances.put(door, instance);
+        }
+        return instance;
+    }
+
+    private static String databaseName(DoorAddress door) {
+        if (door.isLegacy())
+            return DATABASE_NAME;
+        return "history_" + door.site + "_" + door.door + ".db";
+    }
+
+    private HistoryCache(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE history (key TEXT PRIMARY KEY, timestamp INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX history_timestamp ON history (timestamp)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS history");
+        onCreate(db);
+    }
+
+    //Newest 'limit' entries. Push ids are chronological, so ordering by key is the same as ordering by time
+    public void loadNewest(int limit, PageCallback callback) {
+        query(null, limit, callback);
+    }
+
+    //'limit' entries older than 'beforeKey'
+    public void loadOlder(String beforeKey, int limit, PageCallback callback) {
+        query(beforeKey, limit, callback);
+    }
+
+    public void loadOldestKey(final KeyCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String key = null;
+                Cursor cursor = null;
+                try {
+                    cursor = getReadableDatabase().query("history", new String[]{"key"}, null, null, null, null, "key ASC", "1");
+                    if (cursor.moveToNext())
+                        key = cursor.getString(0);
+                } catch (RuntimeException e) {
+                    Log.w("history", "Failed to read history cache.", e);
+                } finally {
+                    if (cursor != null)
+                        cursor.close();
+                }
+
+                final String oldest = key;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onKey(oldest);
+                    }
+                });
+            }
+        });
+    }
+
+    //Newest 'limit' entries selected by the filter. The date range uses the timestamp index, the time of day is checked per row
+    public void search(final HistoryFilter filter, final int limit, final PageCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String[] keys = new String[limit];
+                final long[] timestamps = new long[limit];
+                int count = 0;
+
+                Cursor cursor = null;
+                try {
+                    cursor = queryRange(filter);
+                    while (count < limit && cursor.moveToNext()) {
+                        long timestamp = cursor.getLong(1);
+                        if (!filter.matches(timestamp))
+                            continue;
+                        keys[count] = cursor.getString(0);
+                        timestamps[count] = timestamp;
+                        count++;
+                    }
+                } catch (RuntimeException e) {
+                    Log.w("history", "Failed to search history cache.", e);
+                } finally {
+                    if (cursor != null)
+                        cursor.close();
+                }
+
+                final int total = count;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPage(keys, timestamps, total);
+                    }
+                });
+            }
+        });
+    }
+
+    //Writes the entries selected by the filter to 'file', row by row from the cursor, in the HistoryExporter format
+    public void export(final HistoryFilter filter, final File file, final int format, final ExportCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int count = -1;
+                Cursor cursor = null;
+                Writer writer = null;
+                try {
+                    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+                    HistoryExporter exporter = new HistoryExporter(writer, format, HistoryFormatter.getInstance());
+                    exporter.begin();
+                    cursor = queryRange(filter);
+                    while (cursor.moveToNext()) {
+                        long timestamp = cursor.getLong(1);
+                        if (filter.matches(timestamp))
+                            exporter.write(cursor.getString(0), timestamp);
+                    }
+                    count = exporter.end();
+                } catch (IOException | RuntimeException e) {
+                    Log.w("history", "Failed to export history.", e);
+                } finally {
+                    if (cursor != null)
+                        cursor.close();
+                    if (writer != null) {
+                        try {
+                            writer.close();
+                        } catch (IOException e) {
+                            count = -1;
+                        }
+                    }
+                }
+
+                final int total = count;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onExported(file, total);
+                    }
+                });
+            }
+        });
+    }
+
+    //Rows of the filter's date range, newest first. Runs on the executor
+    private Cursor queryRange(HistoryFilter filter) {
+        return getReadableDatabase().query("history", new String[]{"key", "timestamp"},
+                "timestamp >= ? AND timestamp < ?", new String[]{String.valueOf(filter.fromMs), String.valueOf(filter.toMs)},
+                null, null, "timestamp DESC");
+    }
+
+    public void put(final String key, final long timestamp) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ContentValues values = new ContentValues(2);
+                values.put("key", key);
+                values.put("timestamp", timestamp);
+                SQLiteDatabase db = getWritableDatabase();
+                db.insertWithOnConflict("history", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+
+                if (++writesSinceTrim >= 100) {
+                    writesSinceTrim = 0;
+                    db.execSQL("DELETE FROM history WHERE key NOT IN (SELECT key FROM history ORDER BY key DESC LIMIT " + MAX_ROWS + ")");
+                }
+            }
+        });
+    }
+
+    //Adds a downloaded range in one transaction (one commit instead of one per row)
+    public void putAll(final String[] keys, final long[] timestamps, final int count) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = getWritableDatabase();
+                ContentValues values = new ContentValues(2);
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        values.put("key", keys[i]);
+                        values.put("timestamp", timestamps[i]);
+                        db.insertWithOnConflict("history", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+    }
+
+    //Adds openings read from day buckets, skipping those already cached under their push id (same timestamp), in one transaction
+    public void putAllNew(final String[] keys, final long[] timestamps, final int count) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = getWritableDatabase();
+                SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO history (key, timestamp) "
+                        + "SELECT ?, ? WHERE NOT EXISTS (SELECT 1 FROM history WHERE timestamp = ?)");
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        insert.bindString(1, keys[i]);
+                        insert.bindLong(2, timestamps[i]);
+                        insert.bindLong(3, timestamps[i]);
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    insert.close();
+                }
+            }
+        });
+    }
+
+    public void remove(final String key) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getWritableDatabase().delete("history", "key = ?", new String[]{key});
+            }
+        });
+    }
+
+    private void query(final String beforeKey, final int limit, final PageCallback callback) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String[] keys = new String[limit];
+                final long[] timestamps = new long[limit];
+                int count = 0;
+
+                Cursor cursor = null;
+                try {
+                    if (beforeKey == null)
+                        cursor = getReadableDatabase().query("history", new String[]{"key", "timestamp"},
+                                null, null, null, null, "key DESC", String.valueOf(limit));
+                    else
+                        cursor = getReadableDatabase().query("history", new String[]{"key", "timestamp"},
+                                "key < ?", new String[]{beforeKey}, null, null, "key DESC", String.valueOf(limit));
+
+                    while (cursor.moveToNext()) {
+                        keys[count] = cursor.getString(0);
+                        timestamps[count] = cursor.getLong(1);
+                        count++;
+                    }
+                } catch (RuntimeException e) {
+                    Log.w("history", "Failed to read history cache.", e);
+                } finally {
+                    if (cursor != null)
+                        cursor.close();
+                }
+
+                final int total = count;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPage(keys, timestamps, total);
+                    }
+                });
+            }
+        });
+    }
+}
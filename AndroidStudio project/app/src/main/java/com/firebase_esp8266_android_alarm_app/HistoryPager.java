@@ -0,0 +1,233 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import com.firebase_esp8266_android_alarm_app.core.AlarmEventSource;
+import com.firebase_esp8266_android_alarm_app.core.HistoryBuckets;
+import com.firebase_esp8266_android_alarm_app.core.HistoryIngest;
+import com.firebase_esp8266_android_alarm_app.core.HistoryModel;
+import com.firebase_esp8266_android_alarm_app.core.LatencyStats;
+import com.firebase_esp8266_android_alarm_app.core.PushIds;
+
+import java.util.TreeSet;
+
+/*
+Loads the door 'history' node one page at a time into the history model, through the door event source.
+The newest page is first rendered from the local history cache. Only one live listener is kept:
+- when the cache has entries, it starts at the newest cached key, so only the delta comes over the network;
+- otherwise it covers the newest page (limitToLast).
+Older pages are read from the cache and, when the cache runs out, fetched once from Firebase with endAt cursors,
+as the user scrolls down the list. Push ids are generated in chronological order, so ordering by key is the same as ordering by time.
+The compact history ('history_days', see HistoryBuckets) is read alongside: a live listener on the newest days,
+and older days once the 'history' node runs out. An opening present in both formats is shown once (see HistoryIngest).
+*/
+
+public class HistoryPager {
+
+    public static final int PAGE_SIZE = 50;
+    public static final int BUCKET_DAYS = 7;          //days of the live bucket listener, when the cache is empty
+    public static final int BUCKET_PAGE_DAYS = 30;
+
+    private final AlarmEventSource source;
+    private final HistoryIngest ingest;
+    private final HistoryCache cache;
+
+    private boolean started;
+    private int generation;         //bumped by stop(): a cache load started before it no longer attaches listeners
+    private AlarmEventSource.HistoryListener liveListener;
+    private boolean liveWindowLimited;
+
+    //keys currently inside the live window, to tell window slides apart from real deletions
+    private final TreeSet<String> liveKeys = new TreeSet<String>();
+
+    private AlarmEventSource.BucketListener bucketListener;
+    private String bucketCursor;        //oldest day read from the buckets
+
+    private boolean loading, endReached, bucketsEndReached;
+
+    public HistoryPager(AlarmEventSource source, HistoryIngest ingest, HistoryCache cache) {
+        this.source = source;
+        this.ingest = ingest;
+        this.cache = cache;
+    }
+
+    public HistoryModel getModel() {
+        return ingest.getModel();
+    }
+
+    //Renders the newest cached page, then attaches the live listener
+    public void start() {
+        if (started)
+            return;
+        started = true;
+
+        final int loadGeneration = generation;
+        cache.loadNewest(PAGE_SIZE, new HistoryCache.PageCallback() {
+            @Override
+            public void onPage(String[] keys, long[] timestamps, int count) {
+                if (loadGeneration != generation)
+                    return;     //stopped (and maybe started again) before the cache answered
+                for (int i = 0; i < count; i++)
+                    ingest.put(keys[i], timestamps[i]);
+                StartupTracer.mark("history_cached");
+                attachLiveListener(count > 0 ? keys[0] : null);
+                attachBucketListener(count > 0 ? HistoryBuckets.dayKey(timestamps[0]) : null);
+            }
+        });
+    }
+
+    public void stop() {
+        started = false;
+        generation++;
+        if (bucketListener != null) {
+            source.removeBucketListener(bucketListener);
+            bucketListener = null;
+        }
+        if (liveListener == null)
+            return;
+
+        source.removeHistoryListener(liveListener);
+        liveListener = null;
+        liveKeys.clear();
+    }
+
+    private void attachLiveListener(String newestCachedKey) {
+        liveListener = new AlarmEventSource.HistoryListener() {
+            @Override
+            //Also triggered when app starts or when screen is rotated. 'changed': timestamp set by the cloud function
+            public void onEntry(String key, Object value, boolean changed) {
+                if (changed)
+                    recordLatency(key, value);
+                else
+                    liveKeys.add(key);
+                addChildToModel(key, value);
+            }
+
+            @Override
+            public void onRemoved(String key) {
+                //When a new child arrives a limited window drops its oldest one, which still exists in the database: keep it as a paged entry
+                boolean windowSlide = liveWindowLimited && liveKeys.size() >= PAGE_SIZE && key.equals(liveKeys.first());
+                liveKeys.remove(key);
+                if (!windowSlide) {
+                    ingest.remove(key);
+                    cache.remove(key);
+                }
+            }
+        };
+
+        liveWindowLimited = newestCachedKey == null;
+        source.addHistoryListener(newestCachedKey, PAGE_SIZE, liveListener);
+    }
+
+    //Buckets from the day of the newest cached opening on, or the newest days. A changed bucket is delivered whole: known openings are skipped
+    private void attachBucketListener(String startDay) {
+        bucketListener = new AlarmEventSource.BucketListener() {
+            @Override
+            public void onBucket(String day, long[] timestamps, int count) {
+                if (bucketCursor == null || day.compareTo(bucketCursor) < 0)
+                    bucketCursor = day;
+                addBucketToModel(timestamps, count);
+            }
+        };
+        source.addBucketListener(startDay, BUCKET_DAYS, bucketListener);
+    }
+
+    //Fetches the page just before the oldest entry loaded so far. Called when the list is scrolled near its end
+    public void loadOlderPage() {
+        if (loading || (endReached && bucketsEndReached) || ingest.getOldestKey() == null)
+            return;
+
+        loading = true;
+        final String cursor = ingest.getOldestKey();
+
+        cache.loadOlder(cursor, PAGE_SIZE, new HistoryCache.PageCallback() {
+            @Override
+            public void onPage(String[] keys, long[] timestamps, int count) {
+                for (int i = 0; i < count; i++)
+                    ingest.put(keys[i], timestamps[i]);
+
+                if (count == PAGE_SIZE)
+                    loading = false;
+                else if (!endReached)
+                    loadOlderPageFromFirebase(getFirebaseCursor());
+                else
+                    loadOlderBuckets();
+            }
+        });
+    }
+
+    //The oldest push id: a bucket opening older than it would skip the 'history' children in between.
+    //Without any, only bucket openings were loaded and the oldest of them bounds the page
+    private String getFirebaseCursor() {
+        String pushId = ingest.getOldestPushId();
+        return pushId != null ? pushId : ingest.getOldestKey();
+    }
+
+    private void loadOlderPageFromFirebase(final String cursor) {
+
+        //the cursor itself is included by the read, so one extra child is requested
+        source.readHistory(null, cursor, PAGE_SIZE + 1, new AlarmEventSource.PageCallback() {
+            @Override
+            public void onPage(String[] keys, Object[] values, int count) {
+                int added = 0;
+                for (int i = 0; i < count; i++) {
+                    if (keys[i].equals(cursor))
+                        continue;
+                    addChildToModel(keys[i], values[i]);
+                    added++;
+                }
+                if (count >= 0 && added < PAGE_SIZE)
+                    endReached = true;
+                loading = false;
+            }
+        });
+    }
+
+    //Days older than those already read, up to the day of the oldest opening loaded (it may hold older openings)
+    private void loadOlderBuckets() {
+        String endDay = HistoryBuckets.dayKey(PushIds.timestamp(ingest.getOldestKey()));
+        if (bucketCursor != null && bucketCursor.compareTo(endDay) <= 0)
+            endDay = HistoryBuckets.dayKey(HistoryBuckets.dayStart(bucketCursor) - 1);
+
+        source.readBuckets(null, endDay, BUCKET_PAGE_DAYS, new AlarmEventSource.BucketListener() {
+            @Override
+            public void onBucket(String day, long[] timestamps, int count) {
+                if (count >= 0 && day == null)
+                    bucketsEndReached = true;
+                if (day != null)
+                    bucketCursor = day;
+                addBucketToModel(timestamps, count);
+                loading = false;
+            }
+        });
+    }
+
+    //The push id holds the server time of the ESP8266 push, the value the time the cloud function set it
+    private void recordLatency(String key, Object value) {
+        if (!(value instanceof Long))
+            return;
+        LatencyTracker.record(LatencyStats.HISTORY_FUNCTION, PushIds.timestamp(key), (Long) value);
+        LatencyTracker.recordSince(LatencyStats.HISTORY_LISTENER, (Long) value);
+    }
+
+    //Adds the openings of buckets to the history model and, when new, to the local cache
+    private void addBucketToModel(long[] timestamps, int count) {
+        String[] keys = new String[Math.max(count, 0)];
+        long[] added = new long[keys.length];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            String key = HistoryBuckets.entryKey(timestamps[i]);
+            if (ingest.put(key, timestamps[i]) == HistoryIngest.ADDED) {
+                keys[n] = key;
+                added[n++] = timestamps[i];
+            }
+        }
+        if (n > 0)
+            cache.putAllNew(keys, added, n);
+    }
+
+    //Adds or updates child 'history' values in the history model and, when new or changed, in the local cache
+    private void addChildToModel(String key, Object value) {
+        int result = ingest.onChild(key, value);
+        if (result == HistoryIngest.ADDED || result == HistoryIngest.UPDATED)
+            cache.put(key, (Long) value);
+    }
+}
@@ -0,0 +1,107 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import com.firebase_esp8266_android_alarm_app.core.AlarmEventSource;
+import com.firebase_esp8266_android_alarm_app.core.HistoryBuckets;
+import com.firebase_esp8266_android_alarm_app.core.HistoryFilter;
+import com.firebase_esp8266_android_alarm_app.core.PushIds;
+
+import java.io.File;
+
+/*
+Date range searches and exports of the door history, run on the local history cache.
+The cache holds a contiguous run of history up to the newest entry (see HistoryPager), so only the part of a range
+older than the oldest cached key can be missing: it is downloaded once from Firebase (the door event source) with a key range query
+(push ids start with their creation time) and added to the cache before the search runs.
+The days of that range kept in the compact history (see HistoryBuckets) are read too, after it, so that an opening
+in both formats is cached once.
+*/
+
+public class HistorySearch {
+
+    private final AlarmEventSource source;
+    private final HistoryCache cache;
+
+    public HistorySearch(AlarmEventSource source, HistoryCache cache) {
+        this.source = source;
+        this.cache = cache;
+    }
+
+    //Newest 'limit' entries selected by the filter
+    public void search(final HistoryFilter filter, final int limit, final HistoryCache.PageCallback callback) {
+        fill(filter, new Runnable() {
+            @Override
+            public void run() {
+                cache.search(filter, limit, callback);
+            }
+        });
+    }
+
+    //Streams all the entries selected by the filter to 'file' (HistoryExporter.CSV or JSON)
+    public void export(final HistoryFilter filter, final File file, final int format, final HistoryCache.ExportCallback callback) {
+        fill(filter, new Runnable() {
+            @Override
+            public void run() {
+                cache.export(filter, file, format, callback);
+            }
+        });
+    }
+
+    //Downloads the history of the range that is older than the cache, then runs 'then' on the main thread
+    private void fill(final HistoryFilter filter, final Runnable then) {
+        cache.loadOldestKey(new HistoryCache.KeyCallback() {
+            @Override
+            public void onKey(final String oldestKey) {
+                if (oldestKey != null && PushIds.timestamp(oldestKey) <= filter.fromMs) {
+                    then.run();
+                    return;
+                }
+
+                //the cloud function timestamp follows the push by a few seconds: start the key range a minute earlier
+                String startKey = PushIds.startKey(Math.max(0, filter.fromMs - 60000));
+                String endKey = oldestKey != null ? oldestKey : PushIds.startKey(filter.toMs);
+                source.readHistory(startKey, endKey, 0, new AlarmEventSource.PageCallback() {
+                    @Override
+                    public void onPage(String[] keys, Object[] values, int count) {
+                        //a failed read searches what is cached
+                        String[] cachedKeys = new String[Math.max(count, 0)];
+                        long[] timestamps = new long[cachedKeys.length];
+                        int cached = 0;
+                        for (int i = 0; i < count; i++) {
+                            if (values[i] instanceof Long) {
+                                cachedKeys[cached] = keys[i];
+                                timestamps[cached++] = (Long) values[i];
+                            }
+                        }
+
+                        //queued on the cache thread before the search, so it sees these rows
+                        cache.putAll(cachedKeys, timestamps, cached);
+                        fillFromBuckets(filter, oldestKey, then);
+                    }
+                });
+            }
+        });
+    }
+
+    //The day buckets of the same range. Only openings older than the cache are added, as for the 'history' node
+    private void fillFromBuckets(HistoryFilter filter, final String oldestKey, final Runnable then) {
+        final long oldest = oldestKey != null ? PushIds.timestamp(oldestKey) : filter.toMs;
+        String startDay = HistoryBuckets.dayKey(Math.max(0, filter.fromMs));
+        String endDay = HistoryBuckets.dayKey(oldest);
+        source.readBuckets(startDay, endDay, 0, new AlarmEventSource.BucketListener() {
+            @Override
+            public void onBucket(String day, long[] timestamps, int count) {
+                String[] keys = new String[Math.max(count, 0)];
+                long[] added = new long[keys.length];
+                int n = 0;
+                for (int i = 0; i < count; i++) {
+                    if (timestamps[i] < oldest) {
+                        keys[n] = HistoryBuckets.entryKey(timestamps[i]);
+                        added[n++] = timestamps[i];
+                    }
+                }
+                cache.putAllNew(keys, added, n);
+                then.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.util.Log;
+
+import com.firebase_esp8266_android_alarm_app.core.LatencyStats;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+/*
+Application-wide end-to-end latency of the door events (see LatencyStats for the stages).
+Events carry server timestamps, so the device clock is corrected by '.info/serverTimeOffset',
+the offset estimated by the Firebase client when it connects (a local value: listening to it costs no download).
+Until the client connected once, the device clock is used as it is.
+*/
+
+public class LatencyTracker {
+
+    private static final LatencyStats stats = new LatencyStats(256);
+    private static volatile long serverOffsetMs;
+    private static boolean started;
+
+    public static synchronized void start() {
+        if (started)
+            return;
+        started = true;
+
+        FirebaseDatabase.getInstance().getReference(".info/serverTimeOffset").addValueEventListener(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                Object value = dataSnapshot.getValue();
+                if (value instanceof Number)
+                    serverOffsetMs = ((Number) value).longValue();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Log.w("latency", "Failed to read server time offset.", databaseError.toException());
+            }
+        });
+    }
+
+    //Current time of the Firebase server clock, estimated from the device clock
+    public static long serverNow() {
+        return System.currentTimeMillis() + serverOffsetMs;
+    }
+
+    public static long getServerOffsetMs() {
+        return serverOffsetMs;
+    }
+
+    //Records the delay from a server timestamp until now. Events without timestamp (<= 0) are ignored
+    public static void recordSince(int stage, long serverTimestamp) {
+        if (serverTimestamp > 0)
+            stats.record(stage, serverNow() - serverTimestamp);
+    }
+
+    //Records a delay between two server timestamps
+    public static void record(int stage, long fromTimestamp, long toTimestamp) {
+        if (fromTimestamp > 0 && toTimestamp > 0)
+            stats.record(stage, toTimestamp - fromTimestamp);
+    }
+
+    public static LatencyStats getStats() {
+        return stats;
+    }
+}
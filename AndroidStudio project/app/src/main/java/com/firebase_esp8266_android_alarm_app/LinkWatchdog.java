@@ -0,0 +1,187 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.NotificationRouter;
+import com.firebase_esp8266_android_alarm_app.core.WatchdogPolicy;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+/*
+Background watchdog: tells the user that an ESP8266 stopped reporting while the app is closed.
+Instead of a streaming listener on 'door_heartbeat', each wakeup makes a single read of the 'last_seen' server timestamp
+that the board writes every minute, for the original door and the followed dashboard doors.
+Each run schedules the next one with the delay chosen by WatchdogPolicy (15 minutes to 4 hours), as a one-time work
+appended to a unique chain, so that WorkManager can batch the wakeups with other apps and skip them without network.
+The Firebase connection closes by itself once idle. Wakeups, reads and notifications are counted per day.
+*/
+
+public class LinkWatchdog extends Worker {
+
+    private static final String WORK_NAME = "link_watchdog";
+    private static final long READ_TIMEOUT_S = 30;
+
+    private static final String FILE = "link_watchdog";
+    private static final String DAY = "day", WAKEUPS = "wakeups", READS = "reads", NOTIFICATIONS = "notifications";
+    private static final String PREVIOUS = "previous_";
+
+    public LinkWatchdog(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    //Starts the watchdog chain, if not already scheduled. Called at every application start
+    public static void schedule() {
+        WorkManager.getInstance().enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, request(WatchdogPolicy.MIN_INTERVAL_MS));
+    }
+
+    private static OneTimeWorkRequest request(long delayMs) {
+        return new OneTimeWorkRequest.Builder(LinkWatchdog.class)
+                .setInitialDelay(delayMs, TimeUnit.MILLISECONDS)
+                .setConstraints(new Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+                .build();
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        count(context, WAKEUPS);
+
+        //with notifications disabled nobody is told: the chain stops, MainActivity restarts it when they are enabled
+        if (UserPreferences.getNotification(context) == 0)
+            return Result.success();
+
+        LatencyTracker.start();
+        DatabaseReference root = FirebaseDatabase.getInstance().getReference();
+        SharedPreferences preferences = getPreferences(context);
+        long nextDelay = WatchdogPolicy.MAX_INTERVAL_MS;
+
+        for (DoorAddress door : watchedDoors(context)) {
+            String key = door.key();
+            WatchdogPolicy policy = new WatchdogPolicy(preferences.getBoolean("offline_" + key, false),
+                    preferences.getInt("checks_" + key, 0));
+
+            count(context, READS);
+            long lastSeen = readLastSeen(root.child(door.path("last_seen")));
+            if (lastSeen < 0)
+                policy.onReadFailed();
+            else
+                notify(context, door, policy.onCheck(lastSeen, LatencyTracker.serverNow()), lastSeen);
+
+            preferences.edit().putBoolean("offline_" + key, policy.isOffline()).putInt("checks_" + key, policy.getOnlineChecks()).apply();
+            nextDelay = Math.min(nextDelay, policy.nextDelayMs());
+        }
+
+        //runs after this work succeeds
+        WorkManager.getInstance().enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.APPEND, request(nextDelay));
+        return Result.success();
+    }
+
+    private static List<DoorAddress> watchedDoors(Context context) {
+        List<DoorAddress> doors = new ArrayList<DoorAddress>();
+        doors.add(DoorAddress.LEGACY);
+        for (String key : UserPreferences.getFollowedDoors(context))
+            doors.add(DoorAddress.fromKey(key));
+        return doors;
+    }
+
+    //Single read, blocking this worker thread. Returns 0 when never written, -1 when the read failed
+    private static long readLastSeen(DatabaseReference ref) {
+        final AtomicLong result = new AtomicLong(-1);
+        final CountDownLatch done = new CountDownLatch(1);
+        ref.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(DataSnapshot dataSnapshot) {
+                Object value = dataSnapshot.getValue();
+                result.set(value instanceof Long ? (Long) value : 0);
+                done.countDown();
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                Log.w("watchdog", "Failed to read last seen.", databaseError.toException());
+                done.countDown();
+            }
+        });
+
+        try {
+            done.await(READ_TIMEOUT_S, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result.get();
+    }
+
+    //Posts the link lost or recovered notification, one per door, on the door open for too long channel
+    private static void notify(Context context, DoorAddress door, int event, long lastSeen) {
+        if (event == WatchdogPolicy.NONE)
+            return;
+
+        String title = door.isLegacy() ? "ESP8266" : door.site + " / " + door.door;
+        String body;
+        if (event == WatchdogPolicy.WENT_OFFLINE)
+            body = "Sem contato desde " + new SimpleDateFormat("dd/MM HH:mm", Locale.US).format(new Date(lastSeen));
+        else
+            body = "Contato restabelecido";
+
+        count(context, NOTIFICATIONS);
+        NotificationChannels.createAll(context);
+        MyFirebaseMessagingService.postNotification(context, "link:" + door.key(), NotificationRouter.NOTIFICATION_ID_LINK,
+                NotificationChannels.CHANNEL_LONG, title, body, event == WatchdogPolicy.WENT_OFFLINE);
+    }
+
+    /****Daily counters: today's values, and yesterday's (or the last day the watchdog ran)****/
+    private static synchronized void count(Context context, String counter) {
+        SharedPreferences preferences = getPreferences(context);
+        SharedPreferences.Editor editor = preferences.edit();
+        int today = Integer.parseInt(new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date()));
+
+        if (preferences.getInt(DAY, 0) != today) {
+            editor.putInt(PREVIOUS + DAY, preferences.getInt(DAY, 0));
+            for (String name : new String[]{WAKEUPS, READS, NOTIFICATIONS}) {
+                editor.putInt(PREVIOUS + name, preferences.getInt(name, 0));
+                editor.putInt(name, 0);
+            }
+            editor.putInt(DAY, today);
+            editor.apply();
+        }
+        editor.putInt(counter, preferences.getInt(counter, 0) + 1).apply();
+    }
+
+    //For the diagnostics screen
+    public static String getReport(Context context) {
+        SharedPreferences preferences = getPreferences(context);
+        return String.format(Locale.US, "today: %d wakeups, %d reads, %d notifications%nday %d: %d wakeups, %d reads, %d notifications",
+                preferences.getInt(WAKEUPS, 0), preferences.getInt(READS, 0), preferences.getInt(NOTIFICATIONS, 0),
+                preferences.getInt(PREVIOUS + DAY, 0), preferences.getInt(PREVIOUS + WAKEUPS, 0),
+                preferences.getInt(PREVIOUS + READS, 0), preferences.getInt(PREVIOUS + NOTIFICATIONS, 0));
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(FILE, Context.MODE_PRIVATE);
+    }
+}
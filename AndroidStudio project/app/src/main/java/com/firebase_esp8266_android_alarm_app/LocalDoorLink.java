@@ -0,0 +1,229 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.content.Context;
+import android.net.nsd.NsdManager;
+import android.net.nsd.NsdServiceInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.LocalStatusClient;
+
+/*
+Local network fast path to the ESP8266 of one door. The board announces a '_doormon._tcp' service over mDNS,
+named after its door ("alarm" for the original '/alarm' door, "site/door" otherwise): it is found with NSD,
+resolved, and its '/status' long-polled by a LocalStatusClient. Status changes are delivered on the main thread.
+The Firebase listeners stay attached meanwhile: off the Wi-Fi, or when the board stops answering, the door
+keeps following Firebase and the board is looked for again after LocalStatusClient.RETRY_MS.
+*/
+
+public class LocalDoorLink {
+
+    //Called on the main thread
+    public interface Listener {
+        void onDoorOpen(boolean open);
+
+        void onLinkChanged(boolean up);
+    }
+
+    static final String SERVICE_TYPE = "_doormon._tcp.";
+
+    private final NsdManager nsd;
+    private final DoorAddress door;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private Listener listener;
+    private NsdManager.DiscoveryListener discovery;
+    private LocalStatusClient client;
+    private boolean started, resolving, up;
+
+    private final Runnable retryTask = new Runnable() {
+        @Override
+        public void run() {
+            startDiscovery();
+        }
+    };
+
+    public LocalDoorLink(Context context, DoorAddress door) {
+        nsd = (NsdManager) context.getApplicationContext().getSystemService(Context.NSD_SERVICE);
+        this.door = door;
+    }
+
+    public void start(Listener listener) {
+        if (started)
+            return;
+        started = true;
+        this.listener = listener;
+        startDiscovery();
+    }
+
+    public void stop() {
+        started = false;
+        mainHandler.removeCallbacks(retryTask);
+        stopDiscovery();
+        disconnect();
+    }
+
+    public boolean isUp() {
+        return up;
+    }
+
+    public String getStats() {
+        LocalStatusClient current = client;
+        if (current != null)
+            return (up ? "up, " : "down, ") + current.getStats();
+        return started ? "looking for the board" : "stopped";
+    }
+
+    private void startDiscovery() {
+        if (!started || discovery != null || client != null)
+            return;
+
+        discovery = new NsdManager.DiscoveryListener() {
+            @Override
+            public void onServiceFound(final NsdServiceInfo serviceInfo) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (serviceInfo.getServiceName().equals(door.toString()))
+                            resolve(serviceInfo);
+                    }
+                });
+            }
+
+            @Override
+            public void onServiceLost(NsdServiceInfo serviceInfo) {
+            }
+
+            @Override
+            public void onDiscoveryStarted(String serviceType) {
+            }
+
+            @Override
+            public void onDiscoveryStopped(String serviceType) {
+            }
+
+            @Override
+            public void onStartDiscoveryFailed(String serviceType, int errorCode) {
+                Log.w("local", "Discovery failed: " + errorCode);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        discovery = null;
+                        retryLater();
+                    }
+                });
+            }
+
+            @Override
+            public void onStopDiscoveryFailed(String serviceType, int errorCode) {
+            }
+        };
+        nsd.discoverServices(SERVICE_TYPE, NsdManager.PROTOCOL_DNS_SD, discovery);
+    }
+
+    private void stopDiscovery() {
+        if (discovery == null)
+            return;
+        try {
+            nsd.stopServiceDiscovery(discovery);
+        } catch (IllegalArgumentException e) {
+            //discovery that failed to start: nothing to stop
+        }
+        discovery = null;
+    }
+
+    private void resolve(NsdServiceInfo serviceInfo) {
+        if (!started || resolving || client != null)
+            return;
+        resolving = true;
+        nsd.resolveService(serviceInfo, new NsdManager.ResolveListener() {
+            @Override
+            public void onServiceResolved(final NsdServiceInfo resolved) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        resolving = false;
+                        String host = resolved.getHost().getHostAddress();
+                        connect("http://" + (host.indexOf(':') >= 0 ? "[" + host + "]" : host) + ":" + resolved.getPort());
+                    }
+                });
+            }
+
+            @Override
+            public void onResolveFailed(NsdServiceInfo serviceInfo, int errorCode) {
+                Log.w("local", "Resolve failed: " + errorCode);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        resolving = false;
+                        stopDiscovery();
+                        retryLater();
+                    }
+                });
+            }
+        });
+    }
+
+    private void connect(String baseUrl) {
+        if (!started || client != null)
+            return;
+        stopDiscovery();
+        Log.i("local", "Door " + door + " board at " + baseUrl);
+
+        //events posted by a client that was replaced in the meantime are dropped
+        final LocalStatusClient[] self = new LocalStatusClient[1];
+        client = new LocalStatusClient(baseUrl, door, new LocalStatusClient.Listener() {
+            @Override
+            public void onStatus(final LocalStatusClient.Status status) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (up && client == self[0])
+                            listener.onDoorOpen(status.doorOpen);
+                    }
+                });
+            }
+
+            //Down: the board may have a new address, so it is looked for again instead of retried
+            @Override
+            public void onLinkChanged(final boolean linkUp) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!started || client != self[0])
+                            return;
+                        if (!linkUp) {
+                            disconnect();
+                            retryLater();
+                        } else if (!up) {
+                            up = true;
+                            listener.onLinkChanged(true);
+                        }
+                    }
+                });
+            }
+        });
+        self[0] = client;
+        client.start();
+    }
+
+    private void disconnect() {
+        if (client != null) {
+            client.stop();
+            client = null;
+        }
+        if (up) {
+            up = false;
+            if (started)
+                listener.onLinkChanged(false);
+        }
+    }
+
+    private void retryLater() {
+        mainHandler.removeCallbacks(retryTask);
+        if (started)
+            mainHandler.postDelayed(retryTask, LocalStatusClient.RETRY_MS);
+    }
+}
@@ -20,108 +20,181 @@
  * - Listen to door state and animates door picture accordingly.
  * - Receives Firebase Cloud Messages and trigger Android notifications.
  * - Monitors communication status with the ESP8266 based on 'door_heartbeat'.
- * - Displays Firebase door opening history in a scrollable list.
+ * - Displays Firebase door opening history in a scrollable list, searchable by date and time of day, and exportable as CSV or JSON.
+ * - Backs up the door node to a JSON file (door-export.json layout) and restores it.
+ * - Shows the original '/alarm' door, or the site door passed in the intent extras (opened from the doors dashboard).
  * **********************************************************************************/
 
 package com.firebase_esp8266_android_alarm_app;
 
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.media.MediaPlayer;
+import android.content.DialogInterface;
+import android.content.Intent;
 import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.arch.lifecycle.Observer;
+import android.arch.lifecycle.ViewModelProviders;
 import android.support.annotation.NonNull;
+import android.support.v4.content.FileProvider;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.PopupMenu;
+import android.support.v7.widget.RecyclerView;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.ArrayAdapter;
 import android.widget.Toast;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.Locale;
 import java.util.Objects;
-
+import java.util.TimeZone;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.DoorStateMachine;
+import com.firebase_esp8266_android_alarm_app.core.DoorStatistics;
+import com.firebase_esp8266_android_alarm_app.core.HistoryExporter;
+import com.firebase_esp8266_android_alarm_app.core.HistoryFilter;
+import com.firebase_esp8266_android_alarm_app.core.HistoryFormatter;
+import com.firebase_esp8266_android_alarm_app.core.HeartbeatMonitor;
+import com.firebase_esp8266_android_alarm_app.core.HistoryModel;
+import com.firebase_esp8266_android_alarm_app.core.LatencyStats;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.AuthResult;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.database.ChildEventListener;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
-import com.google.firebase.database.Query;
-import com.google.firebase.database.ValueEventListener;
 import com.google.firebase.iid.FirebaseInstanceId;
 import com.google.firebase.iid.InstanceIdResult;
-import com.google.firebase.messaging.FirebaseMessaging;
 
 public class MainActivity extends AppCompatActivity implements AdapterView.OnItemSelectedListener {
 
-    //Reference to Firebase access
-    FirebaseDatabase database = FirebaseDatabase.getInstance();
-    DatabaseReference myRef = database.getReference();
-    DatabaseReference dbHistory = database.getReference("/alarm/history");
-    private FirebaseAuth mAuth;
+    //Door shown by this Activity. Without extras, the original '/alarm' door
+    public static final String EXTRA_SITE = "site", EXTRA_DOOR = "door", EXTRA_NAME = "name";
 
-    DatabaseReference dbchild_porta = myRef.child("/alarm/door_open");
-    DatabaseReference dbchild_sirene = myRef.child("/alarm/local_siren");
-    DatabaseReference dbchild_disabled = myRef.child("/alarm/disabled");
-    DatabaseReference door_heartbeat = myRef.child("/alarm/door_heartbeat");
+    //Firebase subscriptions are owned by the repository (through the ViewModel), so that rotations do not duplicate them
+    AlarmViewModel viewModel;
+    AlarmRepository repository;
+    private FirebaseAuth mAuth;
 
-    //Arrays to receive alarm history from Firebase
-    ArrayList<String> listItems = new ArrayList<String>();
-    ArrayList<String> listKeys = new ArrayList<String>();
+    //Alarm history received from Firebase, keyed by push id and sorted by timestamp
+    HistoryAdapter historyAdapter;
     ArrayAdapter<String> arrayAdapter;
 
     //Runtime accessed screen objects
     ImageView mImagePorta, mImageLed;
-    TextView textoStatus;
+    TextView textoStatus, textoLinkStats;
     CheckBox cbSirene;
     Spinner spNotifica;
-    ListView lv;
-
-    //Persistent variables access to store user settings
-    SharedPreferences sp_preferences;
-    SharedPreferences.Editor sp_editor;
+    RecyclerView rvHistory;
 
     //Heartbeat monitoring variables
     Handler handler = new Handler();
-    int counter = 0, delay = 5000; //milliseconds
+    HeartbeatMonitor heartbeatMonitor;
+    HeartbeatMonitor.State linkState;
+    int delay = 1000; //milliseconds between link evaluations
+
+    //Evaluates the heartbeat statistics from ESP8266 each 'delay' milliseconds, while the Activity is started
+    Runnable linkStatusTask = new Runnable() {
+        public void run() {
+            updateLinkStatus();
+            handler.postDelayed(this, delay);
+        }
+    };
+
+    SoundEngine soundEngine;
 
     String[] notifyOptions={"Disabled", "Default sound","Siren sound"};
-    boolean first_scan, disable;
+
+    //history search periods, and their length in days (0: whole history)
+    static final String[] SEARCH_PERIODS = {"Last 24 hours", "Last 7 days", "Last 30 days", "Last 365 days", "All"};
+    static final int[] SEARCH_PERIOD_DAYS = {1, 7, 30, 365, 0};
+    static final int SEARCH_LIMIT = 500;
+    static final int REQUEST_RESTORE = 1;
+    Boolean door_open;      //last door state displayed, null until the first value is received
+    long doorTimestamp, doorTimestampRecorded;     //server time of the last door change, and of the last one measured
+    boolean doorLatencyPending;     //live door change waiting for its server time: both arrive together, in any order
+    boolean disable;
+    boolean updatingSirene;     //true while the checkbox is set from the Firebase value, so that it is not written back
+
+    /****Startup work that is not needed to draw the first frame: runs right after it (see StartupTracer)****/
+    boolean freshStart;
+    Runnable deferredStartup = new Runnable() {
+        public void run() {
+            //only done once: after a rotation the ESP8266 may already be sending heartbeats
+            if (freshStart) {
+                StartupTracer.begin("deferred.heartbeat");
+                repository.resetHeartbeat();
+                StartupTracer.end("deferred.heartbeat");
+            }
+
+            //configures FCM notifications accordingly to the spinner selection
+            StartupTracer.begin("deferred.topics");
+            notifyConfigUpdate(spNotifica.getSelectedItemPosition());
+            StartupTracer.end("deferred.topics");
+
+            //server clock offset, for the end-to-end latency measures
+            StartupTracer.begin("deferred.latency");
+            LatencyTracker.start();
+            StartupTracer.end("deferred.latency");
+
+            //Firebase anonymous authentication
+            StartupTracer.begin("deferred.auth");
+            mAuth = FirebaseAuth.getInstance();
+            signInAnonymously();
+            StartupTracer.end("deferred.auth");
+
+            if (freshStart)
+                StartupTracer.log();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTracer.begin("main.inflate");
         setContentView(R.layout.activity_main);
 
         mImagePorta = (ImageView) findViewById(R.id.porta);
         mImageLed = (ImageView) findViewById(R.id.led);
         textoStatus = (TextView) findViewById(R.id.textView);
+        textoLinkStats = (TextView) findViewById(R.id.textLinkStats);
         cbSirene = (CheckBox) findViewById(R.id.checkBoxSiren);
         spNotifica = (Spinner) findViewById(R.id.spinnerNotify);
+        StartupTracer.end("main.inflate");
 
-        //Loads sounds files in folder '\app\src\main\res\raw'
-        final MediaPlayer mpCloseDoor = MediaPlayer.create(this, R.raw.close_door);
-        final MediaPlayer mpOpenDoor = MediaPlayer.create(this, R.raw.open_door);
-        final MediaPlayer mpSiren = MediaPlayer.create(this, R.raw.siren);
+        StartupTracer.begin("main.repository");
 
-        door_heartbeat.setValue("OFF");
-        textoStatus.setText("Waiting for ESP8266...");
+        DoorAddress door = DoorAddress.LEGACY;
+        if (getIntent().hasExtra(EXTRA_SITE)) {
+            door = new DoorAddress(getIntent().getStringExtra(EXTRA_SITE), getIntent().getStringExtra(EXTRA_DOOR));
+            setTitle(getIntent().getStringExtra(EXTRA_NAME));
+        }
 
-        first_scan = true;
+        viewModel = ViewModelProviders.of(this).get(AlarmViewModel.class);
+        repository = viewModel.init(door);
+        heartbeatMonitor = viewModel.getHeartbeatMonitor();
+
+        //Sounds files in folder '\app\src\main\res\raw' are decoded once by the application
+        soundEngine = SoundEngine.getInstance(this);
+        StartupTracer.end("main.repository");
+
+        StartupTracer.begin("main.bind");
+        freshStart = savedInstanceState == null;
+        textoStatus.setText("Waiting for ESP8266...");
 
         /******Populates spinner with the notification options.
          Spinners can only be filled by using an ArrayAdapter, that couples the 'notifyOptions' array data to the spinner ***/
@@ -130,129 +203,94 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
         spNotifica.setAdapter(arrayAdapter);
 
         //Busca valor da variável persistente deste App, utilizada para salvar opção de notificação, e atualiza o spinner
-        sp_preferences = this.getSharedPreferences("user_preferences", Context.MODE_PRIVATE );
-        sp_editor = sp_preferences.edit();
-        int spinner_position = sp_preferences.getInt("notification",0);
+        int spinner_position = UserPreferences.getNotification(this);
         spNotifica.setSelected(false);
         spNotifica.setSelection(spinner_position,false);
 
         //initializes spinner listener
         spNotifica.setOnItemSelectedListener(this);
 
-        //configures FCM notifications accordingly to the spinner selection
-        notifyConfigUpdate(spinner_position);
-
-        //Firebase anonymous authentication
-        mAuth = FirebaseAuth.getInstance();
-        signInAnonymously();
-
         //sends local siren checkbox settings to Firebase
         cbSirene.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener()
         {
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                dbchild_sirene.setValue(isChecked);
+                if (!updatingSirene)        //ignores the checkbox updates made by the Firebase listener below
+                    repository.setLocalSiren(isChecked);
             }
         });
 
-        /*****Function executes each 'delay' milliseconds. Increments heartbeat watchdog counting from ESP8266.****/
-        handler.postDelayed(new Runnable() {
-            public void run() {
-                counter++;
-
-                //If watchdog counting > 2, turns the led red to indicate communication fault with the ESP8266
-                if (counter >= 2) {
-                    mImageLed.setImageResource(R.drawable.red_on);
-                    textoStatus.setText("ESP8266 inactive");
-                }
-                handler.postDelayed(this, delay);
-            }
-        }, delay);
-
-        /*****Listen to the door state updates from Firebase***/
-        dbchild_porta.addValueEventListener(new ValueEventListener() {
+        /*****Listen to the confirmed door transitions: flaps are filtered out by the repository (see DoorStateMachine)***/
+        repository.getDoorState().observe(this, new Observer<DoorStateMachine.Transition>() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                // This method is called once with the initial value and again whenever data at this location is updated.
-                String value = dataSnapshot.getValue().toString();
-                Log.d("door", "Value is: " + value);
-
-                if (Objects.equals(value, "true")) {
+            public void onChanged(DoorStateMachine.Transition transition) {
+                // This method is called with the last transition whenever the Activity starts and again on every confirmed transition.
+                Log.d("door", "Value is: " + transition.open + " (" + transition.source + ")");
+
+                StartupTracer.mark("door_state");
+                //plays door sound only on a live change: not for the state received at App startup, when returning to it,
+                //or reached while the connection was lost
+                boolean changed = transition.isLive() && door_open != null && door_open != transition.open;
+                door_open = transition.open;
+                if (changed) {
+                    viewModel.onDoorTransition(transition.open, transition.receivedMs);
+                    doorLatencyPending = true;
+                    recordDoorLatency();
+                }
 
+                if (transition.open) {
                     mImagePorta.setImageResource(R.drawable.door_opened);
-
-                    //plays door opening sound or siren, except during App startup.
-                    if(!first_scan)
-                        mpOpenDoor.start();   //toca som de porta abrindo
-                    first_scan = false;
+                    if(changed)
+                        soundEngine.play(SoundEngine.OPEN_DOOR);   //toca som de porta abrindo
                 }
-                else if (Objects.equals(value, "false")) {
+                else {
                     mImagePorta.setImageResource(R.drawable.door_closed);
-
-                    //plays door closing sound, except during App startup.
-                    if(!first_scan)
-                        mpCloseDoor.start();
-                    first_scan = false;
+                    if(changed)
+                        soundEngine.play(SoundEngine.CLOSE_DOOR);
                 }
             }
-
-            @Override
-            public void onCancelled(DatabaseError error) {
-                // Failed to read value
-                Log.w("file", "Failed to read value.", error.toException());
-            }
         });
 
-        /***Listen to the heartbeat from Firebase. When heartbeat is received from ESP8266, turns led green and resets watchdog counter*****/
-        door_heartbeat.addValueEventListener(new ValueEventListener() {
+        /***Listen to the server time of the door changes, to measure how long they take to reach this screen*****/
+        repository.getDoorOpenTimestamp().observe(this, new Observer<Object>() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                // This method is called once with the initial value and again
-                // whenever data at this location is updated.
-                if(!first_scan) {
-                    mImageLed.setImageResource(R.drawable.green_on);
-                    if (disable)
-                        textoStatus.setText("ESP8266 inactive");
-                    else
-                        textoStatus.setText("ESP8266 active");
-                    counter = 0;
-                }
+            public void onChanged(Object data) {
+                if (!(data instanceof Number))
+                    return;
+                if (doorTimestamp == 0)     //stored value, of a change before the App started
+                    doorTimestampRecorded = ((Number) data).longValue();
+                doorTimestamp = ((Number) data).longValue();
+                recordDoorLatency();
             }
+        });
 
+        /***Listen to the heartbeat from Firebase. Records the receive time in the heartbeat monitor and refreshes the led*****/
+        repository.getHeartbeat().observe(this, new Observer<Object>() {
             @Override
-            public void onCancelled(DatabaseError error) {
-                // Failed to read value
-                Log.w("file", "Failed to read value.", error.toException());
+            public void onChanged(Object data) {
+                if (viewModel.onHeartbeatValue(data, SystemClock.elapsedRealtime()))
+                    updateLinkStatus();
             }
         });
 
         /***Listen to the local siren configuration from Firebase, to synchronize different users*****/
-        dbchild_sirene.addValueEventListener(new ValueEventListener() {
+        repository.getLocalSiren().observe(this, new Observer<Object>() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                // This method is called once with the initial value and again whenever data at this location is updated.
-                String value = dataSnapshot.getValue().toString();
+            public void onChanged(Object data) {
+                String value = String.valueOf(data);
                 Log.d("sirene", "Value is: " + value);
 
-                if (Objects.equals(value, "true"))
-                    cbSirene.setChecked(true);
-                else
-                    cbSirene.setChecked(false);
-            }
-
-            @Override
-            public void onCancelled(DatabaseError error) {
-                // Failed to read value
-                Log.w("file", "Failed to read value.", error.toException());
+                updatingSirene = true;
+                cbSirene.setChecked(Objects.equals(value, "true"));
+                updatingSirene = false;
             }
         });
 
         /***Listen to the enable/disable configuration from Firebase*****/
-        dbchild_disabled.addValueEventListener(new ValueEventListener() {
+        repository.getDisabled().observe(this, new Observer<Object>() {
             @Override
-            public void onDataChange(DataSnapshot dataSnapshot) {
-                // This method is called once with the initial value and again whenever data at this location is updated.
-                String value = dataSnapshot.getValue().toString();
+            public void onChanged(Object data) {
+                String value = String.valueOf(data);
                 Log.d("disable", "Value is: " + value);
 
                 if (Objects.equals(value, "true"))
@@ -260,150 +298,432 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
                 else
                     disable = false;
             }
+        });
 
+        //Populates RecyclerView. The adapter is created when the history model is first delivered
+        rvHistory = (RecyclerView) findViewById(R.id.historico);
+        rvHistory.setLayoutManager(new LinearLayoutManager(this));
+        rvHistory.setHasFixedSize(true);
+
+        /******The HistoryAdapter couples the history model with the RecyclerView, refreshing only the rows that changed.
+        *     The file 'listview_custom_layout.xml' describes the layout of each line from the list,
+        *     since the default layout was separating the lines with excessive space.
+        *     The repository renders the cached alarms history, then queries the newer entries from Firebase while the Activity is started.  ***/
+        repository.getHistory().observe(this, new Observer<HistoryModel>() {
             @Override
-            public void onCancelled(DatabaseError error) {
-                // Failed to read value
-                Log.w("file", "Failed to read value.", error.toException());
+            public void onChanged(HistoryModel historyModel) {
+                if (historyAdapter == null) {
+                    historyAdapter = new HistoryAdapter(historyModel);
+                    rvHistory.setAdapter(historyAdapter);
+                }
             }
         });
 
-        /**************Query the alarms history from Firebase. Answer is received through listener*************/
-        Query query = dbHistory;
-        addChildEventListener();
-
-        /******ListViews can only be filled by using an ArrayAdapter,  that couples the 'listItems' list with the ListView.
-        *     The file 'listview_custom_layout.xml' was created to describe the layout of each line from the list,
-        *     since the default layout was separating the lines with excessive space. This file is then fed as the 2nd argument.  ***/
-        arrayAdapter = new ArrayAdapter<String>(this, R.layout.listview_custom_layout, listItems );
-
-        //Populates ListView with the defined ArrayAdapter
-        lv = (ListView) findViewById(R.id.historico);
-        lv.setAdapter(arrayAdapter);
+        //Loads older history pages when the list is scrolled close to its end
+        rvHistory.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (dy > 0 && historyAdapter != null && layoutManager.findLastVisibleItemPosition() >= historyAdapter.getItemCount() - 10)
+                    repository.loadOlderHistory();
+            }
+        });
 
         /***********disables system when led is long clicked.**************/
         mImageLed.setOnLongClickListener(new View.OnLongClickListener() {
             @Override
             public boolean onLongClick(View view) {
 
-                dbchild_disabled.setValue(!disable);
-                if(disable)
-                    Toast.makeText(getApplicationContext(), "System enabled", Toast.LENGTH_LONG).show();
-                else
-                    Toast.makeText(getApplicationContext(), "System disabled", Toast.LENGTH_LONG).show();
+                //the toast shows the value actually stored, which may differ if another phone toggled it meanwhile
+                repository.toggleDisabled(new SyncedSetting.OnToggledListener() {
+                    @Override
+                    public void onToggled(boolean disabled) {
+                        Toast.makeText(getApplicationContext(), disabled ? "System disabled" : "System enabled", Toast.LENGTH_LONG).show();
+                    }
+                });
                 return true;    // <- set to true
             }
         });
+        StartupTracer.end("main.bind");
+
+        //the deferred work starts once the first frame (layout and cached state) is drawn
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTracer.mark("first_frame");
+                handler.post(deferredStartup);      //runs after this frame is drawn
+                return true;
+            }
+        });
     }
     /*****************************OnCreate ends here********************************/
 
-    //Executes when an option from notification spinner is selected
-    @Override
-    public void onItemSelected(AdapterView<?> arg0, View arg1, int position, long id) {
+    /****Turns the led green, grey or red accordingly to the heartbeat monitor state and displays the heartbeat statistics****/
+    private void updateLinkStatus() {
+        long now = SystemClock.elapsedRealtime();
+        HeartbeatMonitor.State state = heartbeatMonitor.evaluate(now);
 
-        notifyConfigUpdate(position);
+        if (state != linkState) {
+            switch (state) {
+                case HEALTHY:
+                    mImageLed.setImageResource(R.drawable.green_on);
+                    break;
+                case DEGRADED:
+                    mImageLed.setImageResource(R.drawable.led_off);
+                    break;
+                case DOWN:
+                    mImageLed.setImageResource(R.drawable.red_on);
+                    break;
+            }
+            linkState = state;
+        }
 
-        //saves new config in the persistent variable
-        sp_editor.putInt("notification", position);
-        sp_editor.commit();
+        if (state == HeartbeatMonitor.State.HEALTHY)
+            textoStatus.setText(disable ? "ESP8266 inactive" : "ESP8266 active");
+        else if (state == HeartbeatMonitor.State.DEGRADED)
+            textoStatus.setText("ESP8266 delayed");
+        else if (state == HeartbeatMonitor.State.DOWN)
+            textoStatus.setText("ESP8266 inactive");
+
+        if (state != HeartbeatMonitor.State.WAITING)
+            textoLinkStats.setText(String.format(Locale.US, "last %.1fs  p50 %.1fs  p95 %.1fs  jitter %dms",
+                    heartbeatMonitor.getSilenceMs(now) / 1000.0,
+                    heartbeatMonitor.getGapPercentileMs(0.5) / 1000.0,
+                    heartbeatMonitor.getGapPercentileMs(0.95) / 1000.0,
+                    heartbeatMonitor.getJitterMs()));
     }
 
-    @Override
-    public void onNothingSelected(AdapterView<?> arg0) {
-    }
+    /****Records the delay from the door change (server time) to its delivery here, and to the frame that shows it****/
+    private void recordDoorLatency() {
+        if (!doorLatencyPending || doorTimestamp <= 0 || doorTimestamp == doorTimestampRecorded)
+            return;     //no live change, ESP8266 firmware without 'door_open_ts', or timestamp not received yet
+        doorLatencyPending = false;
+        doorTimestampRecorded = doorTimestamp;
 
-    /****When updating notification configuration, subscribe or unsubscribe message topic
-     * FCM "sirene" or "porta_aberta": see Firebase cloud function 'sendFirebaseCloudMessage'
-     * Two topics were created, to separate users that chose standard notification sound from users that picked siren sound.
-     ******************************************************************************************************************/
-    private void notifyConfigUpdate(int position) {
+        final long timestamp = doorTimestamp;
+        LatencyTracker.recordSince(LatencyStats.DOOR_LISTENER, timestamp);
+        Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                LatencyTracker.recordSince(LatencyStats.DOOR_UI, timestamp);
+            }
+        });
+    }
 
-        Log.d("notifica", "Value is: " + String.valueOf(position) );
-        switch(position) {
-            case 0:
-                FirebaseMessaging.getInstance().unsubscribeFromTopic("porta_aberta");
-                FirebaseMessaging.getInstance().unsubscribeFromTopic("sirene");
-                FirebaseMessaging.getInstance().unsubscribeFromTopic("door_long");
-                break;
-            case 1:
-                FirebaseMessaging.getInstance().subscribeToTopic("porta_aberta");
-                FirebaseMessaging.getInstance().unsubscribeFromTopic("sirene");
-                FirebaseMessaging.getInstance().subscribeToTopic("door_long");
-                break;
-            case 2:
-                FirebaseMessaging.getInstance().subscribeToTopic("sirene");
-                FirebaseMessaging.getInstance().unsubscribeFromTopic("porta_aberta");
-                FirebaseMessaging.getInstance().subscribeToTopic("door_long");
-                break;
-        }
+    /****Executes when the door opening history title is clicked: shows the history options****/
+    public void showHistoryMenu(View view) {
+        PopupMenu popup = new PopupMenu(this, view);
+        popup.getMenuInflater().inflate(R.menu.history_menu, popup.getMenu());
+        popup.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                if (item.getItemId() == R.id.menu_search) {
+                    showHistoryFilter();
+                    return true;
+                }
+                if (item.getItemId() == R.id.menu_backup) {
+                    showBackupMenu();
+                    return true;
+                }
+                if (item.getItemId() == R.id.menu_statistics) {
+                    showStatistics();
+                    return true;
+                }
+                if (item.getItemId() == R.id.menu_diagnostics) {
+                    startActivity(new Intent(MainActivity.this, DiagnosticsActivity.class));
+                    return true;
+                }
+                if (item.getItemId() == R.id.menu_dashboard) {
+                    startActivity(new Intent(MainActivity.this, DashboardActivity.class));
+                    return true;
+                }
+                return false;
+            }
+        });
+        popup.show();
     }
 
-    //Listen to Firebase 'history' child node: The app will receive notifications whenever new child nodes are added, removed or changed
-    private void addChildEventListener() {
-        ChildEventListener childListener = new ChildEventListener() {
+    //Asks for the period and time of day of a history search, e.g. the openings between 02:00 and 05:00 last week
+    private void showHistoryFilter() {
+        final View form = getLayoutInflater().inflate(R.layout.dialog_history_filter, null);
+        final Spinner period = (Spinner) form.findViewById(R.id.filterPeriod);
+        final CheckBox hours = (CheckBox) form.findViewById(R.id.filterHours);
+        final Spinner fromHour = (Spinner) form.findViewById(R.id.filterFromHour);
+        final Spinner toHour = (Spinner) form.findViewById(R.id.filterToHour);
+
+        String[] hourNames = new String[24];
+        for (int h = 0; h < 24; h++)
+            hourNames[h] = String.format(Locale.US, "%02d:00", h);
+        period.setAdapter(new ArrayAdapter<String>(this, android.R.layout.simple_spinner_dropdown_item, SEARCH_PERIODS));
+        period.setSelection(1);
+        fromHour.setAdapter(new ArrayAdapter<String>(this, android.R.layout.simple_spinner_dropdown_item, hourNames));
+        toHour.setAdapter(new ArrayAdapter<String>(this, android.R.layout.simple_spinner_dropdown_item, hourNames));
+        fromHour.setSelection(2);
+        toHour.setSelection(5);
+
+        new AlertDialog.Builder(this)
+                .setTitle("Search history")
+                .setView(form)
+                .setPositiveButton("Search", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        long now = System.currentTimeMillis();
+                        int days = SEARCH_PERIOD_DAYS[period.getSelectedItemPosition()];
+                        long from = days > 0 ? now - days * 24 * 60 * 60 * 1000L : 0;
+                        int start = HistoryFilter.ANY_TIME, end = HistoryFilter.ANY_TIME;
+                        if (hours.isChecked()) {
+                            start = fromHour.getSelectedItemPosition() * 60;
+                            end = toHour.getSelectedItemPosition() * 60;
+                        }
+                        searchHistory(new HistoryFilter(from, now + 1, start, end, TimeZone.getDefault()));
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
 
+    //Lists the newest openings selected by the filter. The whole selection can then be exported
+    private void searchHistory(final HistoryFilter filter) {
+        repository.getHistorySearch().search(filter, SEARCH_LIMIT, new HistoryCache.PageCallback() {
             @Override
-            //Also triggered when app starts or when screen is rotated
-            public void onChildAdded(DataSnapshot dataSnapshot, String s) {
-                adicionaFirebaseChildToList(dataSnapshot);
+            public void onPage(String[] keys, long[] timestamps, int count) {
+                if (isFinishing())
+                    return;
+
+                HistoryFormatter formatter = HistoryFormatter.getInstance();
+                String[] rows = new String[count];
+                for (int i = 0; i < count; i++)
+                    rows[i] = formatter.format(timestamps[i]);
+
+                new AlertDialog.Builder(MainActivity.this)
+                        .setTitle(count == SEARCH_LIMIT ? "Newest " + count + " openings" : count + " openings")
+                        .setItems(rows, null)
+                        .setPositiveButton("Export CSV", new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                exportHistory(filter, HistoryExporter.CSV);
+                            }
+                        })
+                        .setNeutralButton("Export JSON", new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                exportHistory(filter, HistoryExporter.JSON);
+                            }
+                        })
+                        .setNegativeButton("Close", null)
+                        .show();
             }
+        });
+    }
+
+    //Writes the selection to a file in the cache folder and shares it through the FileProvider (e-mail, drive...)
+    private void exportHistory(HistoryFilter filter, final int format) {
+        File folder = new File(getCacheDir(), "exports");
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            Toast.makeText(getApplicationContext(), "Export failed", Toast.LENGTH_LONG).show();
+            return;
+        }
+        String name = "door_history_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date())
+                + (format == HistoryExporter.CSV ? ".csv" : ".json");
 
+        repository.getHistorySearch().export(filter, new File(folder, name), format, new HistoryCache.ExportCallback() {
             @Override
-            //Triggered by the Firebase cloud function that generates timestamp
-            public void onChildChanged(DataSnapshot dataSnapshot, String s) {
-                adicionaFirebaseChildToList(dataSnapshot);
+            public void onExported(File file, int count) {
+                if (count < 0) {
+                    Toast.makeText(getApplicationContext(), "Export failed", Toast.LENGTH_LONG).show();
+                    return;
+                }
+                Intent intent = new Intent(Intent.ACTION_SEND);
+                intent.setType(format == HistoryExporter.CSV ? "text/csv" : "application/json");
+                intent.putExtra(Intent.EXTRA_SUBJECT, "Door history (" + count + " openings)");
+                intent.putExtra(Intent.EXTRA_STREAM, FileProvider.getUriForFile(MainActivity.this, getPackageName() + ".fileprovider", file));
+                intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                startActivity(Intent.createChooser(intent, "Export history"));
             }
+        });
+    }
+
+    /****Backup of this door (settings, state and whole history) to a JSON file, and restore from one (see AlarmBackup)****/
+    private void showBackupMenu() {
+        new AlertDialog.Builder(this)
+                .setTitle("Backup and restore")
+                .setItems(new String[]{"Backup to file", "Restore from file"}, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        if (which == 0)
+                            backupDoor();
+                        else
+                            confirmRestore();
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
 
+    //Streams the door node to a file in the cache folder and shares it through the FileProvider
+    private void backupDoor() {
+        File folder = new File(getCacheDir(), "exports");
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            Toast.makeText(getApplicationContext(), "Backup failed", Toast.LENGTH_LONG).show();
+            return;
+        }
+        final String name = "door_backup_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".json";
+        final File file = new File(folder, name);
+        Toast.makeText(getApplicationContext(), "Backup started", Toast.LENGTH_SHORT).show();
+
+        AlarmBackup.backup(repository.getDoor(), file, new AlarmBackup.Callback() {
             @Override
-            public void onChildMoved(DataSnapshot dataSnapshot, String s) {
+            public void onDone(long entries, String report) {
+                Toast.makeText(getApplicationContext(), report, Toast.LENGTH_LONG).show();
+                if (entries < 0)
+                    return;
+                Intent intent = new Intent(Intent.ACTION_SEND);
+                intent.setType("application/json");
+                intent.putExtra(Intent.EXTRA_SUBJECT, "Door backup (" + entries + " openings)");
+                intent.putExtra(Intent.EXTRA_STREAM, FileProvider.getUriForFile(MainActivity.this, getPackageName() + ".fileprovider", file));
+                intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                startActivity(Intent.createChooser(intent, "Save backup"));
             }
+        });
+    }
 
-            @Override
-            public void onChildRemoved(DataSnapshot dataSnapshot) {
-                String key = dataSnapshot.getKey();
-                int index = listKeys.indexOf(key);
+    //A restore writes to the database shared by all phones: asks first, then lets the user pick the file
+    private void confirmRestore() {
+        new AlertDialog.Builder(this)
+                .setTitle("Restore from file")
+                .setMessage("The history of the backup is added to this door, and its settings replace the current ones.")
+                .setPositiveButton("Choose file", new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                        intent.addCategory(Intent.CATEGORY_OPENABLE);
+                        intent.setType("*/*");
+                        startActivityForResult(intent, REQUEST_RESTORE);
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
 
-                if (index != -1) {
-                    listItems.remove(index);
-                    listKeys.remove(index);
-                }
-                arrayAdapter.notifyDataSetChanged();
-            }
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != REQUEST_RESTORE || resultCode != RESULT_OK || data == null || data.getData() == null)
+            return;
 
+        Toast.makeText(getApplicationContext(), "Restore started", Toast.LENGTH_SHORT).show();
+        AlarmBackup.restore(this, repository.getDoor(), data.getData(), new AlarmBackup.Callback() {
             @Override
-            public void onCancelled(DatabaseError databaseError) {
+            public void onDone(long entries, String report) {
+                if (isFinishing()) {
+                    Toast.makeText(getApplicationContext(), report, Toast.LENGTH_LONG).show();
+                    return;
+                }
+                new AlertDialog.Builder(MainActivity.this)
+                        .setTitle(entries < 0 ? "Restore failed" : "Restore done")
+                        .setMessage(report)
+                        .setPositiveButton("OK", null)
+                        .show();
             }
-        };
-        dbHistory.addChildEventListener(childListener);
+        });
     }
 
-    //Adds child 'history' values in the items list and notifies adapter to refresh screen
-    public void adicionaFirebaseChildToList(DataSnapshot dataSnapshot) {
+    //Displays door usage statistics: openings per period, busiest hour and day, and how long the door stays open
+    private void showStatistics() {
+        DoorStatistics stats = repository.getStatistics();
+        long now = System.currentTimeMillis();
+        String[] weekdays = {"Sunday", "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday"};
+
+        StringBuilder text = new StringBuilder();
+        text.append("Openings today: ").append(stats.getOpeningsOnDay(now)).append('\n');
+        text.append("Openings last 7 days: ").append(stats.getOpeningsInLastDays(now, 7)).append('\n');
+        text.append("Openings last 30 days: ").append(stats.getOpeningsInLastDays(now, 30)).append('\n');
+        text.append("Openings loaded: ").append(stats.getTotalOpenings()).append("\n\n");
+
+        if (stats.getTotalOpenings() > 0) {
+            int hour = stats.getBusiestHour(), weekday = stats.getBusiestWeekday();
+            text.append(String.format(Locale.US, "Busiest hour: %02dh (%d openings)%n", hour, stats.getOpeningsAtHour(hour)));
+            text.append(String.format(Locale.US, "Busiest day: %s (%d openings)%n%n", weekdays[weekday], stats.getOpeningsOnWeekday(weekday)));
+
+            text.append("Openings per hour:\n");
+            for (int h = 0; h < 24; h++)
+                text.append(String.format(Locale.US, "%02dh %-4d%s", h, stats.getOpeningsAtHour(h), h % 4 == 3 ? "\n" : " "));
+            text.append('\n');
+        }
 
-        //if 'history' key value is not a number, returns
-        if(!isInteger(dataSnapshot.getValue().toString()))
-            return;
+        if (stats.getOpenDurationCount() > 0)
+            text.append(String.format(Locale.US, "Open time (%d): mean %ds  p50 %ds  p90 %ds  p99 %ds",
+                    stats.getOpenDurationCount(),
+                    stats.getMeanOpenDurationMs() / 1000,
+                    stats.getOpenDurationPercentileMs(0.5) / 1000,
+                    stats.getOpenDurationPercentileMs(0.9) / 1000,
+                    stats.getOpenDurationPercentileMs(0.99) / 1000));
+        else
+            text.append("Open time: no door transition seen yet");
+
+        new AlertDialog.Builder(this)
+                .setTitle("Door usage")
+                .setMessage(text)
+                .setPositiveButton("OK", null)
+                .show();
+    }
 
-        //converts date/time from Unix Epoch format (milliseconds since 01/01/1970) to format "dd/MM/yy  -  HH:mm:ss"
-        SimpleDateFormat formatter = new SimpleDateFormat("dd/MM/yy  -  HH:mm:ss");
-        long dateUnixEpoch = (long) dataSnapshot.getValue();
-        Date date = new Date(dateUnixEpoch);
-        String dateTimeAsString = formatter.format(date);
+    //Executes when an option from notification spinner is selected
+    @Override
+    public void onItemSelected(AdapterView<?> arg0, View arg1, int position, long id) {
 
-        //adds new item to the list, so that the most recent will appear on the top
-        listItems.add(0, dateTimeAsString);
-        listKeys.add(0, dataSnapshot.getKey());
+        notifyConfigUpdate(position);
+
+        //saves new config in the persistent variable (also read by the FCM service and the link watchdog)
+        UserPreferences.setNotification(this, position);
+        if (position != 0)
+            LinkWatchdog.schedule();    //the watchdog stops while notifications are disabled
+    }
 
-        //updates list view
-        arrayAdapter.notifyDataSetChanged();
+    @Override
+    public void onNothingSelected(AdapterView<?> arg0) {
+    }
+
+    /****When updating notification configuration, subscribe or unsubscribe message topic
+     * FCM "sirene" or "porta_aberta": see Firebase cloud function 'sendFirebaseCloudMessage'
+     * Two topics were created, to separate users that chose standard notification sound from users that picked siren sound.
+     * The subscription manager only issues the calls needed to move from the confirmed subscriptions to the requested ones.
+     ******************************************************************************************************************/
+    private void notifyConfigUpdate(int position) {
+
+        Log.d("notifica", "Value is: " + String.valueOf(position) );
+        TopicSubscriptionManager.getInstance(this).request(position);
     }
 
     //When initializing your Activity, check to see if the user is currently signed in.
     @Override
     public void onStart() {
         super.onStart();
-        // Check if user is signed in (non-null) and update UI accordingly.
-        FirebaseUser currentUser = mAuth.getCurrentUser();
+        // Check if user is signed in (non-null) and update UI accordingly. Authentication starts after the first frame
+        FirebaseUser currentUser = mAuth != null ? mAuth.getCurrentUser() : null;
+
+        handler.postDelayed(linkStatusTask, delay);
+    }
+
+    //Firebase listeners are detached by the repository when the Activity stops. The watchdog loop stops with them.
+    @Override
+    public void onStop() {
+        super.onStop();
+        handler.removeCallbacks(linkStatusTask);
+        viewModel.onHeartbeatPaused();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(deferredStartup);
+
+        //the history model outlives this Activity: releases the adapter and the views it references
+        if (historyAdapter != null)
+            historyAdapter.detach();
+        rvHistory.setAdapter(null);
     }
     //sign in as an anonymous use
     private void signInAnonymously() {
@@ -425,22 +745,4 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
                     }
                 });
     }
-
-    /*******auxiliar:  Check if a String represents an integer in Java***********************
-     * *    credits: https://stackoverflow.com/questions/5439529/determine-if-a-string-is-an-integer-in-java***********/
-    public static boolean isInteger(String s) {
-        return isInteger(s,10);
-    }
-
-    public static boolean isInteger(String s, int radix) {
-        if(s.isEmpty()) return false;
-        for(int i = 0; i < s.length(); i++) {
-            if(i == 0 && s.charAt(i) == '-') {
-                if(s.length() == 1) return false;
-                else continue;
-            }
-            if(Character.digit(s.charAt(i),radix) < 0) return false;
-        }
-        return true;
-    }
 }
\ No newline at end of file
@@ -1,120 +1,187 @@
 package com.firebase_esp8266_android_alarm_app;
 
-import android.app.Notification;
-import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Color;
-import android.media.AudioAttributes;
-import android.media.RingtoneManager;
-import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
 
+import com.firebase_esp8266_android_alarm_app.core.LatencyStats;
+import com.firebase_esp8266_android_alarm_app.core.NotificationCoalescer;
+import com.firebase_esp8266_android_alarm_app.core.NotificationRouter;
+import com.firebase_esp8266_android_alarm_app.core.RollingHistogram;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
 /*
 This class receives Firebase FCM messages when app is foreground
 credits: https://www.androidauthority.com/android-push-notifications-with-firebase-cloud-messaging-925075/
+
+Notification channels are registered when the application starts, and the large icon and the click intent are built once,
+so each message only fills the notification text and posts it. The handling time of each message is measured.
+
+Door messages arriving in bursts (e.g. a door banging in the wind) are merged into a single notification,
+which sounds again at most once every ALERT_INTERVAL_MS. The door open for too long warning is never merged nor silenced.
+Each door has its own bursts and notifications (tagged by the door of the message topic).
+The cloud function sends data messages, so that they reach this service also when the app is in background.
+Their server timestamps give the cloud function and FCM delivery delays (see LatencyTracker).
 */
 
 public class MyFirebaseMessagingService extends FirebaseMessagingService {
 
+    //Burst coalescing settings
+    public static final long COALESCE_WINDOW_MS = 60 * 1000;
+    public static final long ALERT_INTERVAL_MS = 30 * 1000;
+
+    private static final NotificationCoalescer coalescer =
+            new NotificationCoalescer(COALESCE_WINDOW_MS, ALERT_INTERVAL_MS, NotificationChannels.CHANNEL_LONG);
+
+    //Shared by all messages while the process lives
+    private static Bitmap largeIcon;
+    private static PendingIntent pendingIntent;
+    private static final RollingHistogram handlingMicros = new RollingHistogram(64);
+
     @Override
     public void onMessageReceived(RemoteMessage message) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        long received = LatencyTracker.serverNow();
         super.onMessageReceived(message);
 
-        //Establish an intent, which is the action taken when the notification is clicked on. This intent simply bring app to front.
-        Intent intent = new Intent(this, MainActivity.class);
-        intent.setAction(Intent.ACTION_MAIN);
-        intent.addCategory(Intent.CATEGORY_LAUNCHER);
-        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, intent, 0);
-
-        NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-        String NOTIFICATION_CHANNEL_ID, notification_description, notification_title;
-
-        //Receives FCM notification text
+        //Receives FCM text: data messages from the cloud function, or notification messages from older versions of it
         String messageBody = "No mensage";
         String messageTitle = "No title";
-        if (message.getNotification() != null) {
+        if (message.getData().containsKey("body")) {
+            messageTitle = message.getData().get("title");
+            messageBody = message.getData().get("body");
+        }
+        else if (message.getNotification() != null) {
             messageTitle = message.getNotification().getTitle();
             messageBody = message.getNotification().getBody();
         }
         Log.d("service", "Body is: " + messageBody );
 
-        //Searches this app persistent variable value, used to save notification option, and updates the spinner
-        final SharedPreferences sp_preferences = this.getSharedPreferences("user_preferences", Context.MODE_PRIVATE );
-        int spinner_position = sp_preferences.getInt("notification",0);
+        //channels are registered in background at startup: makes sure it is done (no-op once registered)
+        NotificationChannels.createAll(this);
 
-        Uri alarmSound;
+        //defines notification channel (and sound) accordingly to the message and the notification option kept in memory
+        String NOTIFICATION_CHANNEL_ID = NotificationRouter.route(messageBody, UserPreferences.getNotification(this));
 
-        //defines notification sound
-        if(messageBody.equals("Porta aberta por mais de 5 minutos!")) {
-            NOTIFICATION_CHANNEL_ID = "channel_id_long";
-            notification_title = "5 min notification";
-            notification_description = "Aviso de 5 minutos porta aberta";
-            alarmSound = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + getApplicationContext().getPackageName() + "/" + R.raw.chime);
-        }
-        else if(spinner_position == 2) {
-            NOTIFICATION_CHANNEL_ID = "channel_id_siren";
-            notification_title = "Siren notification";
-            notification_description = "Porta aberta com sirene";
-            alarmSound = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + getApplicationContext().getPackageName() + "/" + R.raw.siren);
+        //merges bursts of door messages into the same notification, door by door
+        String door = NotificationRouter.doorKey(message.getFrom());
+        long now = SystemClock.elapsedRealtime();
+        NotificationCoalescer.Decision decision;
+        synchronized (coalescer) {
+            decision = coalescer.onMessage(NOTIFICATION_CHANNEL_ID, door, now);
         }
-        else {
-            NOTIFICATION_CHANNEL_ID = "channel_id_default";
-            notification_title = "Default notification";
-            notification_description = "Porta aberta com toque padrão";
-            alarmSound = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
+        if (decision.count > 1)
+            messageBody = NotificationRouter.burstText(decision.count, now - decision.burstStartMs);
+        int notificationId = NotificationRouter.notificationId(NOTIFICATION_CHANNEL_ID);
+
+        postNotification(this, NotificationRouter.doorTag(door), notificationId, NOTIFICATION_CHANNEL_ID, messageTitle, messageBody, decision.alert);
+
+        long micros = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+        synchronized (handlingMicros) {
+            handlingMicros.add(micros);
         }
+        Log.d("service", "Message handled in " + micros + " us");
 
-        //Before you can deliver the notification on Android 8.0 (Oreo) and higher, you must register your app's notification channel:
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationChannel notificationChannel = new NotificationChannel(NOTIFICATION_CHANNEL_ID,
-                    notification_title, NotificationManager.IMPORTANCE_HIGH);
+        //after the notification is posted, so that it is not delayed by the measure
+        recordLatency(message, received);
+    }
 
-            // Configure the notification channel.
-            notificationChannel.setDescription(notification_description);
-            notificationChannel.enableLights(true);
-            notificationChannel.setLightColor(Color.CYAN);
-            //notificationChannel.enableVibration(true);   ==> does not play sound when enabled
-            notificationChannel.setLockscreenVisibility(Notification.VISIBILITY_PUBLIC);
+    /****A new token has none of the topic subscriptions of the previous one. Called on a background thread****/
+    @Override
+    public void onNewToken(String token) {
+        super.onNewToken(token);
+        Log.d("notifica", "New FCM token");
+        final Context context = getApplicationContext();
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                TopicSubscriptionManager.getInstance(context).onTokenChanged();
+            }
+        });
+    }
 
-            AudioAttributes att = new AudioAttributes.Builder()
-                    .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
-                    .setUsage(AudioAttributes.USAGE_NOTIFICATION)
-                    .build();
+    /****The cloud function sends the server time of the door event ('event_ts') and of the message ('sent_ts').
+     * Without 'sent_ts', the time FCM accepted the message is used. ****/
+    private void recordLatency(RemoteMessage message, long received) {
+        LatencyTracker.start();
+        long event = parseTimestamp(message.getData().get("event_ts"));
+        long sent = parseTimestamp(message.getData().get("sent_ts"));
+        if (sent <= 0)
+            sent = message.getSentTime();
+
+        LatencyTracker.record(LatencyStats.FCM_FUNCTION, event, sent);
+        LatencyTracker.record(LatencyStats.FCM_DELIVERY, sent, received);
+        LatencyTracker.record(LatencyStats.FCM_TOTAL, event, received);
+    }
 
-            notificationChannel.setSound(alarmSound,att);  //plays siren sound if checkbox is checked
+    private static long parseTimestamp(String value) {
+        if (value == null)
+            return -1;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 
-            //We use the same channel to avoid multiple notifications. If there's already a channel, it won't be updated
-            if (notificationManager != null)
-               notificationManager.createNotificationChannel(notificationChannel);
+    //Handling time of the last messages, in microseconds
+    public static long getHandlingPercentileMicros(double p) {
+        synchronized (handlingMicros) {
+            return handlingMicros.percentile(p);
         }
+    }
+
+    /****Posts a notification on one of the door alarm channels. Also used by the background link watchdog.
+     * 'alert' false updates the text silently. 'tag' separates notifications sharing an id (null for none). ****/
+    static void postNotification(Context context, String tag, int notificationId, String channelId, String title, String body, boolean alert) {
+        NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (notificationManager == null)
+            return;
 
         //Defines notification settings
-        NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(getApplicationContext(), NOTIFICATION_CHANNEL_ID)
+        NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(context.getApplicationContext(), channelId)
                 .setLights(Color.CYAN, 300, 1000)                                         //notification device LED color
                 .setSmallIcon(R.drawable.door)
-                .setLargeIcon(BitmapFactory.decodeResource(getResources(),R.drawable.security_alarm))  //notification icon
+                .setLargeIcon(getLargeIcon(context))                    //notification icon
                 .setVibrate(new long[]{0, 1000, 500, 1000})             //device vibration pattern
-                .setContentTitle(messageTitle)                          //notification title text
-                .setContentText(messageBody)                            //notification secondary text
-                .setPriority(notificationManager.IMPORTANCE_HIGH)       //sets maximum priority
-                .setContentIntent(pendingIntent);                       //action taken when notification gets clicked on
-        ;
+                .setContentTitle(title)                                 //notification title text
+                .setContentText(body)                                   //notification secondary text
+                .setPriority(NotificationCompat.PRIORITY_MAX)           //sets maximum priority
+                .setContentIntent(getPendingIntent(context))            //action taken when notification gets clicked on
+                .setOnlyAlertOnce(!alert);                              //updates the text silently when rate limited
 
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O)
-           mBuilder.setSound(alarmSound);
+           mBuilder.setSound(NotificationChannels.getSound(context, channelId));
 
         //triggers notification
-        notificationManager.notify(0, mBuilder.build());
+        notificationManager.notify(tag, notificationId, mBuilder.build());
+    }
+
+    private static synchronized Bitmap getLargeIcon(Context context) {
+        if (largeIcon == null)
+            largeIcon = BitmapFactory.decodeResource(context.getResources(), R.drawable.security_alarm);
+        return largeIcon;
+    }
+
+    //Establish an intent, which is the action taken when the notification is clicked on. This intent simply bring app to front.
+    private static synchronized PendingIntent getPendingIntent(Context context) {
+        if (pendingIntent == null) {
+            Intent intent = new Intent(context, MainActivity.class);
+            intent.setAction(Intent.ACTION_MAIN);
+            intent.addCategory(Intent.CATEGORY_LAUNCHER);
+            pendingIntent = PendingIntent.getActivity(context.getApplicationContext(), 0, intent, 0);
+        }
+        return pendingIntent;
     }
-}
\ No newline at end of file
+}
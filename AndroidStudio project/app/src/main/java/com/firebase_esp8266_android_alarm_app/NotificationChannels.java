@@ -0,0 +1,76 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Color;
+import android.media.AudioAttributes;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Build;
+
+import com.firebase_esp8266_android_alarm_app.core.NotificationRouter;
+
+/*
+Notification channels used by the door alarms. The channel ids must match the ones sent by the Firebase cloud function.
+Before you can deliver the notification on Android 8.0 (Oreo) and higher, you must register your app's notification channels:
+they are registered once, in background when the application starts. The FCM service also calls createAll(),
+in case a message arrives before that registration is done.
+*/
+
+public class NotificationChannels {
+
+    public static final String CHANNEL_LONG = NotificationRouter.CHANNEL_LONG;
+    public static final String CHANNEL_SIREN = NotificationRouter.CHANNEL_SIREN;
+    public static final String CHANNEL_DEFAULT = NotificationRouter.CHANNEL_DEFAULT;
+
+    private static boolean created;
+
+    public static synchronized void createAll(Context context) {
+        if (created || Build.VERSION.SDK_INT < Build.VERSION_CODES.O)
+            return;
+
+        NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (notificationManager == null)
+            return;
+
+        //If there's already a channel, it won't be updated
+        notificationManager.createNotificationChannel(create(CHANNEL_LONG, "5 min notification",
+                "Aviso de 5 minutos porta aberta", getSound(context, CHANNEL_LONG)));
+        notificationManager.createNotificationChannel(create(CHANNEL_SIREN, "Siren notification",
+                "Porta aberta com sirene", getSound(context, CHANNEL_SIREN)));
+        notificationManager.createNotificationChannel(create(CHANNEL_DEFAULT, "Default notification",
+                "Porta aberta com toque padrão", getSound(context, CHANNEL_DEFAULT)));
+        created = true;
+    }
+
+    //Sound of each channel. Also used directly by the notifications before Android 8.0 (Oreo)
+    public static Uri getSound(Context context, String channelId) {
+        if (CHANNEL_LONG.equals(channelId))
+            return Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + context.getPackageName() + "/" + R.raw.chime);
+        if (CHANNEL_SIREN.equals(channelId))
+            return Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + context.getPackageName() + "/" + R.raw.siren);
+        return RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
+    }
+
+    private static NotificationChannel create(String id, String title, String description, Uri sound) {
+        NotificationChannel notificationChannel = new NotificationChannel(id, title, NotificationManager.IMPORTANCE_HIGH);
+
+        // Configure the notification channel.
+        notificationChannel.setDescription(description);
+        notificationChannel.enableLights(true);
+        notificationChannel.setLightColor(Color.CYAN);
+        //notificationChannel.enableVibration(true);   ==> does not play sound when enabled
+        notificationChannel.setLockscreenVisibility(Notification.VISIBILITY_PUBLIC);
+
+        AudioAttributes att = new AudioAttributes.Builder()
+                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                .setUsage(AudioAttributes.USAGE_NOTIFICATION)
+                .build();
+
+        notificationChannel.setSound(sound, att);
+        return notificationChannel;
+    }
+}
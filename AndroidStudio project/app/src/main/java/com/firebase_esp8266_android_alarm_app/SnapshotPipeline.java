@@ -0,0 +1,89 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import com.firebase_esp8266_android_alarm_app.core.EventBatcher;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Moves the decoding of Firebase snapshots off the main thread. Firebase calls its listeners on the main thread:
+FirebaseEventSource only hands each snapshot to a Task here. The Task decodes it on a single background thread,
+in the order received, and is then delivered to the listener on the main thread with the other tasks decoded
+since the previous frame (see EventBatcher): an initial history sync of 100 children costs one list layout.
+Shared by all the doors. Counters of both queues are shown in the diagnostics screen.
+*/
+
+public class SnapshotPipeline {
+
+    //One snapshot: decode() runs on the decoding thread, deliver() on the main thread. A Task is used once
+    public static abstract class Task implements Runnable {
+        protected abstract void decode();
+
+        protected abstract void deliver();
+
+        @Override
+        public final void run() {
+            deliver();
+        }
+    }
+
+    private static SnapshotPipeline instance;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger decodeDepth = new AtomicInteger();
+    private volatile int maxDecodeDepth;
+
+    //Choreographer of the main thread, requested there: a frame callback runs before the layout of that frame
+    private final EventBatcher batcher = new EventBatcher(new EventBatcher.FrameScheduler() {
+        @Override
+        public void scheduleFrame(final Runnable frame) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                        @Override
+                        public void doFrame(long frameTimeNanos) {
+                            frame.run();
+                        }
+                    });
+                }
+            });
+        }
+    });
+
+    public static synchronized SnapshotPipeline getInstance() {
+        if (instance == null)
+            instance = new SnapshotPipeline();
+        return instance;
+    }
+
+    public void submit(final Task task) {
+        int depth = decodeDepth.incrementAndGet();
+        if (depth > maxDecodeDepth)
+            maxDecodeDepth = depth;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                task.decode();
+                decodeDepth.decrementAndGet();
+                batcher.post(task);
+            }
+        });
+    }
+
+    public EventBatcher getBatcher() {
+        return batcher;
+    }
+
+    public String getStats() {
+        return String.format(Locale.US, "decode queue %d (max %d)%n%s", decodeDepth.get(), maxDecodeDepth, batcher.getStats());
+    }
+}
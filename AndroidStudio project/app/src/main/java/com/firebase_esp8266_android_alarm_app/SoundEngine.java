@@ -0,0 +1,139 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.firebase_esp8266_android_alarm_app.core.RollingHistogram;
+
+/*
+Application-wide player for the short sounds in folder '\app\src\main\res\raw'.
+The clips are decoded once by a SoundPool, on a background thread, and stay in memory while the app runs.
+Several clips may play at the same time (e.g. a door closing right after opening). When all streams are busy,
+the SoundPool stops the lowest priority one, so the siren is never cut by a door sound.
+
+The delay between a play() request and the moment the clip is handed to the SoundPool is measured.
+It includes the wait for decoding when a sound is triggered before its clip is loaded.
+*/
+
+public class SoundEngine {
+
+    public static final int CLOSE_DOOR = 0, OPEN_DOOR = 1, SIREN = 2;
+
+    private static final int[] RESOURCES = {R.raw.close_door, R.raw.open_door, R.raw.siren};
+    private static final int[] PRIORITIES = {1, 1, 2};
+    private static final int MAX_STREAMS = 4;
+
+    private static SoundEngine instance;
+
+    private final Context context;
+    private final Handler loader;
+    private SoundPool soundPool;
+
+    private final int[] soundIds = new int[RESOURCES.length];
+    private final boolean[] loaded = new boolean[RESOURCES.length];
+    private final long[] pendingSince = new long[RESOURCES.length];   //trigger time of a play() received before loading, 0 if none
+
+    private final RollingHistogram latencyMicros = new RollingHistogram(64);
+
+    public static synchronized SoundEngine getInstance(Context context) {
+        if (instance == null)
+            instance = new SoundEngine(context.getApplicationContext());
+        return instance;
+    }
+
+    private SoundEngine(Context context) {
+        this.context = context;
+        HandlerThread thread = new HandlerThread("sound-loader");
+        thread.start();
+        loader = new Handler(thread.getLooper());
+    }
+
+    //Decodes all clips in background. Can be called more than once
+    public void preload() {
+        loader.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SoundEngine.this) {
+                    if (soundPool != null)
+                        return;
+                    soundPool = createSoundPool();
+                    soundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+                        @Override
+                        public void onLoadComplete(SoundPool pool, int sampleId, int status) {
+                            onLoaded(sampleId, status);
+                        }
+                    });
+                    for (int i = 0; i < RESOURCES.length; i++)
+                        soundIds[i] = soundPool.load(context, RESOURCES[i], PRIORITIES[i]);
+                }
+            }
+        });
+    }
+
+    public void play(int sound) {
+        long trigger = SystemClock.elapsedRealtimeNanos();
+        synchronized (this) {
+            if (!loaded[sound]) {
+                //played as soon as the clip is decoded
+                pendingSince[sound] = trigger;
+                preload();
+                return;
+            }
+            start(sound, trigger);
+        }
+    }
+
+    //Delay from play() to playback start, in microseconds
+    public synchronized long getLatencyPercentileMicros(double p) {
+        return latencyMicros.percentile(p);
+    }
+
+    public synchronized long getPlayCount() {
+        return latencyMicros.getTotal();
+    }
+
+    private synchronized void onLoaded(int sampleId, int status) {
+        for (int i = 0; i < soundIds.length; i++) {
+            if (soundIds[i] != sampleId)
+                continue;
+            if (status != 0) {
+                Log.w("sound", "Failed to load sound " + i + ", status " + status);
+                return;
+            }
+            loaded[i] = true;
+            if (pendingSince[i] != 0) {
+                start(i, pendingSince[i]);
+                pendingSince[i] = 0;
+            }
+        }
+    }
+
+    private void start(int sound, long trigger) {
+        int streamId = soundPool.play(soundIds[sound], 1f, 1f, PRIORITIES[sound], 0, 1f);
+        long micros = (SystemClock.elapsedRealtimeNanos() - trigger) / 1000;
+        latencyMicros.add(micros);
+        if (streamId == 0)
+            Log.w("sound", "Sound " + sound + " could not be played");
+        else
+            Log.d("sound", "Sound " + sound + " started after " + micros + " us");
+    }
+
+    @SuppressWarnings("deprecation")
+    private static SoundPool createSoundPool() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            AudioAttributes attributes = new AudioAttributes.Builder()
+                    .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                    .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                    .build();
+            return new SoundPool.Builder().setMaxStreams(MAX_STREAMS).setAudioAttributes(attributes).build();
+        }
+        return new SoundPool(MAX_STREAMS, AudioManager.STREAM_MUSIC, 0);
+    }
+}
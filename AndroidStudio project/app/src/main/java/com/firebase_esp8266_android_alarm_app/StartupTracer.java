@@ -0,0 +1,84 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+Named phases of the app cold start. Each phase is a trace section (visible in systrace / Android Studio profiler)
+and its duration is recorded, as well as the time from the application start to each milestone (e.g. first frame).
+Phases run on the main thread or on background threads, but a phase must begin and end on the same thread.
+
+Phases:
+- app.*       Application.onCreate, before any Activity;
+- main.*      critical MainActivity work, before its first frame (inflate the layout, bind the cached state);
+- deferred.*  work started after the first frame or in background.
+*/
+
+public class StartupTracer {
+
+    private static final long origin = SystemClock.elapsedRealtimeNanos();
+
+    private static final Map<String, Long> begins = new LinkedHashMap<String, Long>();
+    private static final Map<String, Long> durations = new LinkedHashMap<String, Long>();
+    private static final Map<String, Long> milestones = new LinkedHashMap<String, Long>();
+
+    public static void begin(String phase) {
+        TraceCompat.beginSection(phase);
+        synchronized (StartupTracer.class) {
+            begins.put(phase, SystemClock.elapsedRealtimeNanos());
+        }
+    }
+
+    public static void end(String phase) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        synchronized (StartupTracer.class) {
+            Long begin = begins.remove(phase);
+            if (begin != null)
+                durations.put(phase, now - begin);
+        }
+        TraceCompat.endSection();
+    }
+
+    //Records the time since the application start. Only the first occurrence of a milestone is kept
+    public static synchronized void mark(String milestone) {
+        if (!milestones.containsKey(milestone))
+            milestones.put(milestone, SystemClock.elapsedRealtimeNanos() - origin);
+    }
+
+    //Duration of a finished phase, in microseconds. -1 if it did not run
+    public static synchronized long getDurationMicros(String phase) {
+        Long duration = durations.get(phase);
+        return duration == null ? -1 : duration / 1000;
+    }
+
+    //Time from the application start to a milestone, in microseconds. -1 if not reached
+    public static synchronized long getMilestoneMicros(String milestone) {
+        Long time = milestones.get(milestone);
+        return time == null ? -1 : time / 1000;
+    }
+
+    public static synchronized String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Long> entry : durations.entrySet())
+            report.append(String.format(Locale.US, "%-22s %8.2f ms%n", entry.getKey(), entry.getValue() / 1e6));
+        for (Map.Entry<String, Long> entry : milestones.entrySet())
+            report.append(String.format(Locale.US, "@%-21s %8.2f ms%n", entry.getKey(), entry.getValue() / 1e6));
+        return report.toString();
+    }
+
+    public static void log() {
+        Log.i("startup", "\n" + getReport());
+    }
+
+    //Forgets all measures (tests start several times in the same process)
+    static synchronized void reset() {
+        begins.clear();
+        durations.clear();
+        milestones.clear();
+    }
+}
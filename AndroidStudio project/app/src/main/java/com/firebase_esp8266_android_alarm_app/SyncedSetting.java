@@ -0,0 +1,107 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.firebase_esp8266_android_alarm_app.core.AlarmEventSource;
+
+import java.util.Locale;
+
+/*
+A boolean user setting shared by all phones through Firebase (e.g. 'local_siren', 'disabled').
+It keeps the last value received from Firebase, so that local changes can be told apart from remote ones:
+- a local value equal to the remote one is not written (e.g. the echo of a checkbox updated by the listener);
+- rapid local changes are merged: only the last value is written, DEBOUNCE_MS after the last change;
+- toggle() flips the value in a transaction, so two phones toggling at once do not undo each other.
+Writes and dropped requests are counted per setting. Must be used from the main thread.
+*/
+
+public class SyncedSetting extends DoorValueLiveData {
+
+    //Result of toggle(), delivered on the main thread
+    public interface OnToggledListener {
+        void onToggled(boolean value);
+    }
+
+    public static final long DEBOUNCE_MS = 300;
+
+    private Handler handler;      //created on first use
+
+    private Boolean remote;       //last value received from Firebase, null until known
+    private Boolean pending;      //local value waiting for the debounce delay
+
+    private int writes, dropped, merged, remoteChanges;
+
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            Boolean value = pending;
+            pending = null;
+            if (value == null)
+                return;
+            if (value.equals(remote)) {
+                dropped++;      //another phone (or the user) already set it
+                return;
+            }
+            writes++;
+            source.setValue(child, value);
+        }
+    };
+
+    SyncedSetting(AlarmEventSource source, String child, AlarmRepository repository) {
+        super(source, child, repository);
+    }
+
+    @Override
+    protected void setValue(Object value) {
+        Boolean received = value instanceof Boolean ? (Boolean) value : null;
+        if (remote != null && !remote.equals(received))
+            remoteChanges++;
+        remote = received;
+        super.setValue(value);
+    }
+
+    //Last value received from Firebase, null until known
+    public Boolean getRemote() {
+        return remote;
+    }
+
+    //Requests a local value. Written after DEBOUNCE_MS without another request, unless it is the current value
+    public void set(boolean value) {
+        if (pending != null)
+            merged++;
+        else if (remote != null && remote == value) {
+            dropped++;
+            return;
+        }
+
+        pending = value;
+        if (handler == null)
+            handler = new Handler(Looper.getMainLooper());
+        handler.removeCallbacks(writeTask);
+        handler.postDelayed(writeTask, DEBOUNCE_MS);
+    }
+
+    //Flips the value stored in Firebase, whatever its value is when the transaction runs
+    public void toggle(final OnToggledListener listener) {
+        source.toggle(child, new AlarmEventSource.ToggleCallback() {
+            @Override
+            public void onToggled(boolean committed, boolean value) {
+                if (!committed)
+                    return;
+                writes++;
+                if (listener != null)
+                    listener.onToggled(value);
+            }
+        });
+    }
+
+    public int getWriteCount() {
+        return writes;
+    }
+
+    //writes issued, requests dropped (value already set), requests merged into a later one, changes made by other phones
+    public String getStats() {
+        return String.format(Locale.US, "writes %d  dropped %d  merged %d  remote %d", writes, dropped, merged, remoteChanges);
+    }
+}
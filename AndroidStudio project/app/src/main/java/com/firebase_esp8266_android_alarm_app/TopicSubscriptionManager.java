@@ -0,0 +1,154 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.firebase_esp8266_android_alarm_app.core.TopicReconciler;
+import com.google.firebase.messaging.FirebaseMessaging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+Keeps the FCM topic subscriptions of this device in line with the notification option, with as few network calls as possible.
+The calls are decided by a TopicReconciler: rapid changes of the option are merged into a single reconciliation,
+only the calls needed to reach the requested state are issued, and failed calls are retried with exponential backoff.
+The confirmed state is persisted. Subscriptions belong to the FCM token: that state is forgotten when the token
+changes (onTokenChanged), and its preferences file is left out of the backups (res/xml/backup_rules.xml).
+Must be used from the main thread.
+Each door has its own topics (see DoorAddress.topic()): the original door and the doors followed on the dashboard are subscribed.
+*/
+
+public class TopicSubscriptionManager {
+
+    //see Firebase cloud function 'sendFirebaseCloudMessage'. Base names, used as they are by the original door
+    public static final String TOPIC_DEFAULT = "porta_aberta", TOPIC_SIREN = "sirene", TOPIC_LONG = "door_long";
+    private static final String[] ALL_TOPICS = {TOPIC_DEFAULT, TOPIC_SIREN, TOPIC_LONG};
+
+    private final Context context;
+
+    //own file, excluded from the backups: restored on another device it would skip its subscriptions
+    private static final String FILE = "topic_subscriptions";
+    private static final String PREF_SUBSCRIBED = "topics_subscribed", PREF_UNSUBSCRIBED = "topics_unsubscribed";
+
+    private static TopicSubscriptionManager instance;
+
+    private final SharedPreferences preferences;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final TopicReconciler reconciler;
+
+    private final Runnable reconcileTask = new Runnable() {
+        @Override
+        public void run() {
+            reconcile();
+        }
+    };
+
+    public static synchronized TopicSubscriptionManager getInstance(Context context) {
+        if (instance == null)
+            instance = new TopicSubscriptionManager(context);
+        return instance;
+    }
+
+    private TopicSubscriptionManager(Context context) {
+        this.context = context.getApplicationContext();
+        preferences = this.context.getSharedPreferences(FILE, Context.MODE_PRIVATE);
+        //the original door topics may have been subscribed by versions that did not keep the state
+        reconciler = new TopicReconciler(ALL_TOPICS,
+                preferences.getStringSet(PREF_SUBSCRIBED, new HashSet<String>()),
+                preferences.getStringSet(PREF_UNSUBSCRIBED, new HashSet<String>()));
+    }
+
+    /****Topics for each notification option: two topics separate users that chose standard notification sound from users that picked siren sound****/
+    public static Set<String> topicsFor(int notificationOption) {
+        switch (notificationOption) {
+            case 1:
+                return new HashSet<String>(Arrays.asList(TOPIC_DEFAULT, TOPIC_LONG));
+            case 2:
+                return new HashSet<String>(Arrays.asList(TOPIC_SIREN, TOPIC_LONG));
+            default:
+                return new HashSet<String>();
+        }
+    }
+
+    //Topics of a notification option for a set of doors
+    public static Set<String> topicsFor(int notificationOption, Collection<DoorAddress> doors) {
+        Set<String> topics = new HashSet<String>();
+        for (String base : topicsFor(notificationOption))
+            for (DoorAddress door : doors)
+                topics.add(door.topic(base));
+        return topics;
+    }
+
+    //Requests the subscriptions of a notification option for the followed doors. Calls are issued after DEBOUNCE_MS without a new request
+    public void request(int notificationOption) {
+        List<DoorAddress> doors = new ArrayList<DoorAddress>();
+        doors.add(DoorAddress.LEGACY);
+        for (String key : UserPreferences.getFollowedDoors(context))
+            doors.add(DoorAddress.fromKey(key));
+
+        reconciler.request(topicsFor(notificationOption, doors));
+        schedule(TopicReconciler.DEBOUNCE_MS);
+    }
+
+    //New FCM token (new install, restored backup, data cleared): it has no subscriptions yet, so they are all issued again
+    public void onTokenChanged() {
+        reconciler.onTokenChanged();
+        save();
+        request(UserPreferences.getNotification(context));
+    }
+
+    //Number of subscribe/unsubscribe calls issued since the app started
+    public int getCallCount() {
+        return reconciler.getCallCount();
+    }
+
+    private void schedule(long delayMs) {
+        handler.removeCallbacks(reconcileTask);
+        handler.postDelayed(reconcileTask, delayMs);
+    }
+
+    private void reconcile() {
+        for (TopicReconciler.Call call : reconciler.reconcile())
+            issue(call);
+    }
+
+    private void issue(final TopicReconciler.Call call) {
+        Log.d("notifica", (call.subscribe ? "subscribe " : "unsubscribe ") + call.topic);
+
+        Task<Void> task = call.subscribe ? FirebaseMessaging.getInstance().subscribeToTopic(call.topic)
+                : FirebaseMessaging.getInstance().unsubscribeFromTopic(call.topic);
+
+        task.addOnCompleteListener(new OnCompleteListener<Void>() {
+            @Override
+            public void onComplete(@NonNull Task<Void> task) {
+                long delay = reconciler.onComplete(call, task.isSuccessful());
+                save();
+                if (delay == 0) {
+                    reconcile();
+                } else {
+                    Log.w("notifica", "Topic " + call.topic + " update failed, retrying in " + delay + " ms", task.getException());
+                    schedule(delay);
+                }
+            }
+        });
+    }
+
+    private void save() {
+        preferences.edit()
+                .putStringSet(PREF_SUBSCRIBED, reconciler.getSubscribed())
+                .putStringSet(PREF_UNSUBSCRIBED, reconciler.getUnsubscribed())
+                .apply();
+    }
+}
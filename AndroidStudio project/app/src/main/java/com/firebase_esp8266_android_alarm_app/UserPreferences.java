@@ -0,0 +1,60 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+App persistent variables (user settings), kept in memory after the first read.
+Notification option: 0 = disabled, 1 = default sound, 2 = siren sound (same order as the MainActivity spinner).
+Followed doors: dashboard doors whose alarms are notified with that option, besides the original '/alarm' door.
+*/
+
+public class UserPreferences {
+
+    private static final String FILE = "user_preferences";
+    private static final String NOTIFICATION = "notification";
+    private static final String FOLLOWED_DOORS = "followed_doors";
+
+    private static volatile int notification = -1;
+
+    public static int getNotification(Context context) {
+        int value = notification;
+        if (value < 0) {
+            value = getPreferences(context).getInt(NOTIFICATION, 0);
+            notification = value;
+        }
+        return value;
+    }
+
+    public static void setNotification(Context context, int value) {
+        notification = value;
+        getPreferences(context).edit().putInt(NOTIFICATION, value).apply();
+    }
+
+    //Doors (DoorAddress keys) subscribed to notifications
+    public static Set<String> getFollowedDoors(Context context) {
+        return new HashSet<String>(getPreferences(context).getStringSet(FOLLOWED_DOORS, new HashSet<String>()));
+    }
+
+    public static boolean isFollowed(Context context, DoorAddress door) {
+        return door.isLegacy() || getFollowedDoors(context).contains(door.key());
+    }
+
+    public static void setFollowed(Context context, DoorAddress door, boolean followed) {
+        Set<String> doors = getFollowedDoors(context);
+        if (followed)
+            doors.add(door.key());
+        else
+            doors.remove(door.key());
+        getPreferences(context).edit().putStringSet(FOLLOWED_DOORS, doors).apply();
+    }
+
+    public static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(FILE, Context.MODE_PRIVATE);
+    }
+}
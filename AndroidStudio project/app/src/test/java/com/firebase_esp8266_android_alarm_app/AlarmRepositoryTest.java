@@ -0,0 +1,133 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import android.arch.core.executor.testing.InstantTaskExecutorRule;
+import android.arch.lifecycle.Lifecycle;
+import android.arch.lifecycle.LifecycleOwner;
+import android.arch.lifecycle.LifecycleRegistry;
+import android.arch.lifecycle.Observer;
+import android.support.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that the repository keeps a single Firebase subscription per path, attached only while the UI is started,
+ * and that a setting received from Firebase is not written back.
+ */
+public class AlarmRepositoryTest {
+
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutorRule = new InstantTaskExecutorRule();
+
+    private DatabaseReference child;
+    private AlarmRepository repository;
+
+    //Stands in for an Activity: its lifecycle is moved by hand
+    private static class FakeActivity implements LifecycleOwner {
+        final LifecycleRegistry registry = new LifecycleRegistry(this);
+
+        @NonNull
+        @Override
+        public Lifecycle getLifecycle() {
+            return registry;
+        }
+    }
+
+    private final Observer<Object> observer = new Observer<Object>() {
+        @Override
+        public void onChanged(Object value) {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        DatabaseReference root = mock(DatabaseReference.class);
+        child = mock(DatabaseReference.class);
+        Query query = mock(Query.class);
+        when(root.child(anyString())).thenReturn(child);
+        when(child.orderByKey()).thenReturn(query);
+        repository = new AlarmRepository(root, mock(HistoryCache.class));
+    }
+
+    private FakeActivity startActivity() {
+        FakeActivity activity = new FakeActivity();
+        repository.getDoorOpen().observe(activity, observer);
+        repository.getHeartbeat().observe(activity, observer);
+        repository.getLocalSiren().observe(activity, observer);
+        repository.getDisabled().observe(activity, observer);
+        activity.registry.handleLifecycleEvent(Lifecycle.Event.ON_START);
+        return activity;
+    }
+
+    @Test
+    public void listenersAttachOnlyWhileStarted() {
+        FakeActivity activity = new FakeActivity();
+        repository.getDoorOpen().observe(activity, observer);
+        activity.registry.handleLifecycleEvent(Lifecycle.Event.ON_CREATE);
+        assertEquals(0, repository.getActiveListenerCount());
+
+        activity.registry.handleLifecycleEvent(Lifecycle.Event.ON_START);
+        assertEquals(1, repository.getActiveListenerCount());
+
+        activity.registry.handleLifecycleEvent(Lifecycle.Event.ON_STOP);
+        assertEquals(0, repository.getActiveListenerCount());
+        verify(child).removeEventListener(any(ValueEventListener.class));
+    }
+
+    @Test
+    public void rotationsDoNotStackListeners() {
+        FakeActivity activity = startActivity();
+        assertEquals(4, repository.getActiveListenerCount());
+
+        for (int i = 0; i < 10; i++) {
+            activity.registry.handleLifecycleEvent(Lifecycle.Event.ON_DESTROY);
+            activity = startActivity();
+            assertEquals(4, repository.getActiveListenerCount());
+        }
+
+        activity.registry.handleLifecycleEvent(Lifecycle.Event.ON_DESTROY);
+        assertEquals(0, repository.getActiveListenerCount());
+        verify(child, times(11 * 4)).addValueEventListener(any(ValueEventListener.class));
+        verify(child, times(11 * 4)).removeEventListener(any(ValueEventListener.class));
+    }
+
+    @Test
+    public void twoObserversShareOneSubscription() {
+        startActivity();
+        startActivity();
+        assertEquals(4, repository.getActiveListenerCount());
+    }
+
+    @Test
+    public void remoteSettingIsNotWrittenBack() {
+        FakeActivity activity = new FakeActivity();
+        repository.getLocalSiren().observe(activity, observer);
+        activity.registry.handleLifecycleEvent(Lifecycle.Event.ON_START);
+
+        ArgumentCaptor<ValueEventListener> listener = ArgumentCaptor.forClass(ValueEventListener.class);
+        verify(child).addValueEventListener(listener.capture());
+        DataSnapshot snapshot = mock(DataSnapshot.class);
+        when(snapshot.getValue()).thenReturn(true);
+        listener.getValue().onDataChange(snapshot);
+
+        //the checkbox echoes the value it was just set to
+        repository.setLocalSiren(true);
+        verify(child, never()).setValue(any());
+    }
+}
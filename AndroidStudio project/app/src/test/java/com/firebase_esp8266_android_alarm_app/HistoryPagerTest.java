@@ -0,0 +1,74 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorStatistics;
+import com.firebase_esp8266_android_alarm_app.core.FakeEventSource;
+import com.firebase_esp8266_android_alarm_app.core.HistoryIngest;
+import com.firebase_esp8266_android_alarm_app.core.HistoryModel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * The history listeners follow start() and stop(), also when the cache answers after the pager was stopped and started again.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class HistoryPagerTest {
+
+    private FakeEventSource source;
+    private HistoryCache cache;
+    private HistoryPager pager;
+
+    @Before
+    public void setUp() {
+        source = new FakeEventSource();
+        cache = mock(HistoryCache.class);
+        pager = new HistoryPager(source, new HistoryIngest(new HistoryModel(), new DoorStatistics(TimeZone.getTimeZone("UTC"))), cache);
+    }
+
+    //The cache loads of each start(), in order
+    private List<HistoryCache.PageCallback> cacheLoads(int count) {
+        ArgumentCaptor<HistoryCache.PageCallback> callbacks = ArgumentCaptor.forClass(HistoryCache.PageCallback.class);
+        verify(cache, times(count)).loadNewest(anyInt(), callbacks.capture());
+        return callbacks.getAllValues();
+    }
+
+    @Test
+    public void restartBeforeCacheAnswersAttachesOneListener() {
+        pager.start();
+        pager.stop();       //e.g. rotation before the first cache query came back
+        pager.start();
+
+        List<HistoryCache.PageCallback> loads = cacheLoads(2);
+        for (HistoryCache.PageCallback load : loads)
+            load.onPage(new String[0], new long[0], 0);
+
+        source.emitHistory("-M3haa06MFyCrpAMD-IJ", 1585608027451L);
+        assertEquals(1, source.getDeliveredCount());
+        assertEquals(1, pager.getModel().size());
+    }
+
+    @Test
+    public void stopBeforeCacheAnswersAttachesNothing() {
+        pager.start();
+        pager.stop();
+        cacheLoads(1).get(0).onPage(new String[0], new long[0], 0);
+
+        source.emitHistory("-M3haa06MFyCrpAMD-IJ", 1585608027451L);
+        assertEquals(0, source.getDeliveredCount());
+        assertEquals(0, pager.getModel().size());
+    }
+}
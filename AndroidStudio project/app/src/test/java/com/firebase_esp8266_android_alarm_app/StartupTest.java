@@ -0,0 +1,99 @@
+package com.firebase_esp8266_android_alarm_app;
+
+import com.firebase_esp8266_android_alarm_app.core.DoorAddress;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Cold start of MainActivity: times each startup phase and checks that the deferred work only runs after the first frame.
+ * The report is printed to the test output, so startup regressions can be followed from build to build.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class StartupTest {
+
+    //Robolectric runs much slower than a device: this only catches gross regressions of the critical phases
+    private static final long CRITICAL_BUDGET_MS = 2000;
+
+    private static final String[] CRITICAL_PHASES = {"main.inflate", "main.repository", "main.bind"};
+    private static final String[] DEFERRED_PHASES = {"deferred.heartbeat", "deferred.topics", "deferred.auth"};
+
+    private DatabaseReference child;
+
+    @Before
+    public void setUp() {
+        if (FirebaseApp.getApps(RuntimeEnvironment.application).isEmpty())
+            FirebaseApp.initializeApp(RuntimeEnvironment.application);
+
+        //the door is read from a mocked database, as in AlarmRepositoryTest
+        DatabaseReference root = mock(DatabaseReference.class);
+        child = mock(DatabaseReference.class);
+        Query query = mock(Query.class);
+        when(root.child(anyString())).thenReturn(child);
+        when(child.orderByKey()).thenReturn(query);
+        AlarmRepository.setInstance(DoorAddress.LEGACY, new AlarmRepository(root, mock(HistoryCache.class)));
+
+        StartupTracer.reset();
+    }
+
+    @Test
+    public void deferredWorkRunsAfterFirstFrame() {
+        ActivityController<MainActivity> controller = Robolectric.buildActivity(MainActivity.class).setup();
+
+        for (String phase : CRITICAL_PHASES)
+            assertTrue(phase + " did not run", StartupTracer.getDurationMicros(phase) >= 0);
+        for (String phase : DEFERRED_PHASES)
+            assertEquals(phase + " ran before the first frame", -1, StartupTracer.getDurationMicros(phase));
+        verify(child, never()).setValue("OFF");
+
+        drawFirstFrame(controller);
+
+        for (String phase : DEFERRED_PHASES)
+            assertTrue(phase + " did not run", StartupTracer.getDurationMicros(phase) >= 0);
+        verify(child).setValue("OFF");
+
+        System.out.println("Cold start phases:\n" + StartupTracer.getReport());
+
+        long criticalMicros = 0;
+        for (String phase : CRITICAL_PHASES)
+            criticalMicros += StartupTracer.getDurationMicros(phase);
+        assertTrue("critical phases took " + criticalMicros / 1000 + " ms", criticalMicros < CRITICAL_BUDGET_MS * 1000);
+    }
+
+    @Test
+    public void rotationDoesNotResetHeartbeat() {
+        ActivityController<MainActivity> controller = Robolectric.buildActivity(MainActivity.class).setup();
+        drawFirstFrame(controller);
+
+        controller = Robolectric.buildActivity(MainActivity.class).setup(new android.os.Bundle());
+        drawFirstFrame(controller);
+
+        //written once, by the first start only
+        verify(child).setValue("OFF");
+    }
+
+    //Robolectric does not draw: the pre-draw pass is dispatched by hand, then the runnables it posted are run
+    private static void drawFirstFrame(ActivityController<MainActivity> controller) {
+        controller.get().findViewById(android.R.id.content).getViewTreeObserver().dispatchOnPreDraw();
+        ShadowLooper.runUiThreadTasks();
+    }
+}
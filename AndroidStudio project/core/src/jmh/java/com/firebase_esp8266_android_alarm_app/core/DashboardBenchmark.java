@@ -0,0 +1,66 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the dashboard work done on the main thread for many doors:
+ * one heartbeat received, and the periodic link check across all doors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DashboardBenchmark {
+
+    @Param({"50", "500", "5000"})
+    public int doorCount;
+
+    private DoorDirectory directory;
+    private HeartbeatAggregator aggregator;
+    private String[] doorIds;
+    private long now;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        directory = new DoorDirectory();
+        doorIds = new String[doorCount];
+        for (int i = 0; i < doorCount; i++) {
+            doorIds[i] = "door" + i;
+            directory.add("site" + (i % 10), doorIds[i], "Door " + i);
+        }
+        aggregator = new HeartbeatAggregator();
+        aggregator.setDoorCount(directory.size());
+        aggregator.restart(0);
+
+        //every door heard within the last period, each second a few go silent
+        now = 60000;
+        for (int i = 0; i < doorCount; i++)
+            aggregator.onHeartbeat(i, now - (i % 5) * 1000);
+        aggregator.evaluate(now, null);
+    }
+
+    //A heartbeat child changes: the door index is looked up from its key
+    @Benchmark
+    public int heartbeat() {
+        int i = next++ % doorCount;
+        int door = directory.indexOf("site" + (i % 10), doorIds[i]);
+        aggregator.onHeartbeat(door, now);
+        return door;
+    }
+
+    //The 1 s tick: every door is evaluated, a tenth of them alternate between healthy and delayed
+    @Benchmark
+    public int evaluateAll() {
+        now += (next++ & 1) == 0 ? 4000 : -4000;
+        return aggregator.evaluate(now, null);
+    }
+}
@@ -0,0 +1,130 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one door opening event through the history pipeline, for several history sizes.
+ * Openings enter the history at the top (new), at the bottom (older pages) or in between (late timestamps),
+ * and retention removes the oldest one: each case is measured, the history size staying the same.
+ * Run with the 'gc' profiler (configured in build.gradle) to read the allocation per event (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventPipelineBenchmark {
+
+    private static final long FIRST_TIMESTAMP = 1585608027451L;     //from 'door-export.json'
+    private static final long SPACING_MS = 10 * 60 * 1000;
+    private static final int NEW_EVENTS = 1024;                     //power of 2
+
+    @Param({"100", "10000", "1000000"})
+    public int historySize;
+
+    private HistoryModel model;
+    private HistoryIngest ingest;
+    private HistoryFormatter formatter;
+    private char[] buffer;
+
+    private String[] keys;
+    private Long[] values;               //Firebase delivers boxed Longs: boxing is not part of the measured cost
+    private String[] newKeys;
+    private Long[] newValues;
+    private Long[] olderValues, middleValues;
+    private long retained;                 //openings added by ingestRetainedEvent
+    private int next;
+
+    @Setup
+    public void setUp() {
+        TimeZone timeZone = TimeZone.getTimeZone("America/Sao_Paulo");
+        model = new HistoryModel();
+        ingest = new HistoryIngest(model, new DoorStatistics(timeZone));
+        formatter = new HistoryFormatter(timeZone);
+        buffer = new char[HistoryFormatter.LENGTH];
+
+        keys = new String[historySize];
+        values = new Long[historySize];
+        for (int i = 0; i < historySize; i++) {
+            keys[i] = String.format("-K%08d", i);
+            values[i] = FIRST_TIMESTAMP + i * SPACING_MS;
+            ingest.onChild(keys[i], values[i]);
+        }
+
+        newKeys = new String[NEW_EVENTS];
+        newValues = new Long[NEW_EVENTS];
+        olderValues = new Long[NEW_EVENTS];
+        middleValues = new Long[NEW_EVENTS];
+        for (int i = 0; i < NEW_EVENTS; i++) {
+            newKeys[i] = String.format("-N%08d", i);
+            newValues[i] = FIRST_TIMESTAMP + (historySize + i) * SPACING_MS;
+            olderValues[i] = FIRST_TIMESTAMP - (i + 1) * SPACING_MS;
+            middleValues[i] = FIRST_TIMESTAMP + (long) i * historySize / NEW_EVENTS * SPACING_MS + SPACING_MS / 2;
+        }
+    }
+
+    //A new opening arrives (then is removed, so that the history size stays constant)
+    @Benchmark
+    public int ingestNewEvent() {
+        int i = next++ & (NEW_EVENTS - 1);
+        int result = ingest.onChild(newKeys[i], newValues[i]);
+        ingest.remove(newKeys[i]);
+        return result;
+    }
+
+    //Retention at its limit: a new opening arrives and the oldest one is removed. The oldest key comes back as the newest opening
+    @Benchmark
+    public int ingestRetainedEvent() {
+        String oldest = keys[(int) (retained % historySize)];
+        ingest.remove(oldest);
+        long timestamp = FIRST_TIMESTAMP + (historySize + retained++) * SPACING_MS;
+        return ingest.put(oldest, timestamp);
+    }
+
+    //An opening older than the whole history arrives (a page of older openings), then is removed
+    @Benchmark
+    public int ingestOlderEvent() {
+        int i = next++ & (NEW_EVENTS - 1);
+        int result = ingest.onChild(newKeys[i], olderValues[i]);
+        ingest.remove(newKeys[i]);
+        return result;
+    }
+
+    //An opening lands between two known ones (timestamp set late, bucket opening), then is removed
+    @Benchmark
+    public int ingestMiddleEvent() {
+        int i = next++ & (NEW_EVENTS - 1);
+        int result = ingest.onChild(newKeys[i], middleValues[i]);
+        ingest.remove(newKeys[i]);
+        return result;
+    }
+
+    //An opening already known is delivered again (listener attach, rotation, reconnection)
+    @Benchmark
+    public int ingestReplayedEvent() {
+        int i = next++ % historySize;
+        return ingest.onChild(keys[i], values[i]);
+    }
+
+    //The value pushed by the ESP8266 before the cloud function sets the timestamp
+    @Benchmark
+    public int ingestIgnoredEvent() {
+        int i = next++ % historySize;
+        return ingest.onChild(keys[i], "");
+    }
+
+    //Formatting of a row when it is bound, walking the list as a scroll would
+    @Benchmark
+    public int formatRow() {
+        int position = next++ % historySize;
+        return formatter.format(model.get(position).timestamp, buffer);
+    }
+}
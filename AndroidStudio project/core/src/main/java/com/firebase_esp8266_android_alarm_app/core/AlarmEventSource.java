@@ -0,0 +1,75 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+/*
+Everything the door screen reads from and writes to the door node, whatever delivers it:
+the Firebase listeners of the app (FirebaseEventSource), or FakeEventSource, which replays recorded or synthetic
+streams in process for tests and load replays.
+Children are named as in the door node ("door_open", "local_siren"...); DOOR_HEARTBEAT is wherever the door keeps it.
+CONNECTED is not a child of the door: it is true while the source is connected to the database (read only).
+Values are plain Java values (Boolean, Long, String) or null. Listeners are called on the UI thread.
+*/
+
+public interface AlarmEventSource {
+
+    String DOOR_OPEN = "door_open";
+    String DOOR_OPEN_TS = "door_open_ts";
+    String DOOR_HEARTBEAT = "door_heartbeat";
+    String LOCAL_SIREN = "local_siren";
+    String DISABLED = "disabled";
+    String CONNECTED = ".info/connected";
+    String HISTORY_DAYS = "history_days";
+
+    //Called with the current value when added, then on every change
+    interface ValueListener {
+        void onValue(Object value);
+    }
+
+    //Live history entries. 'changed' is true when an entry already delivered got a new value (the cloud function timestamp)
+    interface HistoryListener {
+        void onEntry(String key, Object value, boolean changed);
+
+        void onRemoved(String key);
+    }
+
+    //Result of a single history read, ordered by key. 'count' is negative when the read failed
+    interface PageCallback {
+        void onPage(String[] keys, Object[] values, int count);
+    }
+
+    //Day buckets of the compact history (see HistoryBuckets), decoded: 'timestamps' holds 'count' openings, oldest first,
+    //and is only valid during the call. 'count' is negative when the bucket is malformed or the read failed
+    interface BucketListener {
+        void onBucket(String day, long[] timestamps, int count);
+    }
+
+    //Result of toggle(): the stored value, if the toggle was committed
+    interface ToggleCallback {
+        void onToggled(boolean committed, boolean value);
+    }
+
+    void addValueListener(String child, ValueListener listener);
+
+    void removeValueListener(String child, ValueListener listener);
+
+    void setValue(String child, Object value);
+
+    //Flips a boolean child atomically: concurrent toggles from other phones are not lost
+    void toggle(String child, ToggleCallback callback);
+
+    //History from 'startKey' on, or its newest 'limit' entries (sliding out the oldest one as new ones arrive) when 'startKey' is null
+    void addHistoryListener(String startKey, int limit, HistoryListener listener);
+
+    void removeHistoryListener(HistoryListener listener);
+
+    //Single read of the history between two keys, both included (null for no bound), keeping the newest 'limit' entries (0 for all)
+    void readHistory(String startKey, String endKey, int limit, PageCallback callback);
+
+    //Day buckets from 'startDay' on, or the newest 'limit' days when 'startDay' is null: called once per bucket, and again when it changes
+    void addBucketListener(String startDay, int limit, BucketListener listener);
+
+    void removeBucketListener(BucketListener listener);
+
+    //Single read of the day buckets between two days, both included (null for no bound), keeping the newest 'limit' days (0 for all).
+    //Called back once with the openings of all of them; 'day' is the oldest day read, null if there was none
+    void readBuckets(String startDay, String endDay, int limit, BucketListener callback);
+}
@@ -0,0 +1,110 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/*
+Reads a door node backup (BackupWriter, or a Firebase console export of the node) token by token,
+handing each child value and each history entry to a Sink as soon as it is parsed: memory does not grow with the history.
+The document is either { "alarm" : { node } } or the node object itself. Nested objects other than 'history'
+and 'history_days' are skipped and counted.
+*/
+
+public class BackupReader {
+
+    public interface Sink {
+        void onValue(String name, Object value) throws IOException;
+
+        void onHistoryEntry(String key, Object value) throws IOException;
+
+        //A day bucket of the compact history (see HistoryBuckets), as stored
+        void onBucket(String day, Object value) throws IOException;
+    }
+
+    private final JsonTokenReader json;
+    private long historyCount, bucketCount, skipped;
+
+    public BackupReader(Reader in) {
+        json = new JsonTokenReader(in);
+    }
+
+    public void read(Sink sink) throws IOException {
+        if (json.next() != JsonTokenReader.BEGIN_OBJECT)
+            throw new IOException("Not a JSON object");
+        readNode(sink, true);
+    }
+
+    //Members of the node, up to its closing brace. At the top level, an object member other than 'history' is the node
+    private void readNode(Sink sink, boolean topLevel) throws IOException {
+        while (true) {
+            int token = json.next();
+            if (token == JsonTokenReader.END_OBJECT)
+                return;
+            if (token != JsonTokenReader.NAME)
+                throw new IOException("Expected a name at character " + json.getPosition());
+
+            String name = json.getText();
+            token = json.next();
+            if (token == JsonTokenReader.BEGIN_OBJECT) {
+                if (name.equals("history"))
+                    readHistory(sink, false);
+                else if (name.equals(AlarmEventSource.HISTORY_DAYS))
+                    readHistory(sink, true);
+                else if (topLevel)
+                    readNode(sink, false);
+                else {
+                    json.skipValue();
+                    skipped++;
+                }
+            } else if (token == JsonTokenReader.BEGIN_ARRAY) {
+                json.skipValue();
+                skipped++;
+            } else {
+                sink.onValue(name, json.getValue());
+            }
+        }
+    }
+
+    private void readHistory(Sink sink, boolean buckets) throws IOException {
+        while (true) {
+            int token = json.next();
+            if (token == JsonTokenReader.END_OBJECT)
+                return;
+            if (token != JsonTokenReader.NAME)
+                throw new IOException("Expected a history key at character " + json.getPosition());
+
+            String key = json.getText();
+            token = json.next();
+            if (token == JsonTokenReader.BEGIN_OBJECT || token == JsonTokenReader.BEGIN_ARRAY) {
+                json.skipValue();
+                skipped++;
+                continue;
+            }
+            if (buckets) {
+                sink.onBucket(key, json.getValue());
+                bucketCount++;
+            } else {
+                sink.onHistoryEntry(key, json.getValue());
+                historyCount++;
+            }
+        }
+    }
+
+    public long getHistoryCount() {
+        return historyCount;
+    }
+
+    public long getBucketCount() {
+        return bucketCount;
+    }
+
+    //Nested values that are not part of a door node backup
+    public long getSkippedCount() {
+        return skipped;
+    }
+
+    //Characters read so far
+    public long getPosition() {
+        return json.getPosition();
+    }
+}
@@ -0,0 +1,128 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/*
+Writes a door node backup in the layout of the Firebase console export ('Firebase export/door-export.json'):
+{ "alarm" : { "disabled" : false, ..., "history" : { "-M3haa06MFyCrpAMD-IJ" : 1585608027451, ... } } },
+with the day buckets of the compact history (see HistoryBuckets) in "history_days" when there are some.
+Values and history entries are written as they are read, page after page, so that a backup of any size
+is written in constant memory. A backup can be imported back with BackupReader, or in the Firebase console.
+*/
+
+public class BackupWriter {
+
+    //Children of a door node saved besides 'history'. Read one by one: the node itself is never read whole
+    public static final String[] CHILDREN = {"disabled", "door_heartbeat", "door_open", "door_open_long",
+            "door_open_long_time", "door_open_ts", "last_seen", "local_siren"};
+
+    private final Writer out;
+    private boolean firstMember = true, inHistory;
+    private long historyCount, bucketCount;
+
+    public BackupWriter(Writer out) {
+        this.out = out;
+    }
+
+    //Opens the document and the node object, named as in the database (e.g. "alarm")
+    public void begin(String nodeName) throws IOException {
+        out.write("{\n  ");
+        writeString(nodeName);
+        out.write(" : {");
+    }
+
+    //A child of the node: Boolean, Number or String. Null (missing) children are not written
+    public void value(String name, Object value) throws IOException {
+        if (value == null)
+            return;
+        member(name, "    ");
+        writeValue(value);
+    }
+
+    public void beginHistory() throws IOException {
+        beginNested("history");
+    }
+
+    public void historyEntry(String key, Object value) throws IOException {
+        member(key, "      ");
+        writeValue(value);
+        historyCount++;
+    }
+
+    public void endHistory() throws IOException {
+        endNested();
+    }
+
+    public void beginBuckets() throws IOException {
+        beginNested(AlarmEventSource.HISTORY_DAYS);
+    }
+
+    public void bucket(String day, Object value) throws IOException {
+        member(day, "      ");
+        writeValue(value);
+        bucketCount++;
+    }
+
+    public void endBuckets() throws IOException {
+        endNested();
+    }
+
+    public long getBucketCount() {
+        return bucketCount;
+    }
+
+    private void beginNested(String name) throws IOException {
+        member(name, "    ");
+        out.write('{');
+        inHistory = true;
+        firstMember = true;
+    }
+
+    private void endNested() throws IOException {
+        out.write(firstMember ? "}" : "\n    }");
+        inHistory = false;
+        firstMember = false;
+    }
+
+    //Closes the node and the document, and flushes. Returns the number of history entries written
+    public long end() throws IOException {
+        if (inHistory)
+            endNested();
+        out.write(firstMember ? "}\n}\n" : "\n  }\n}\n");
+        out.flush();
+        return historyCount;
+    }
+
+    private void member(String name, String indent) throws IOException {
+        out.write(firstMember ? "\n" : ",\n");
+        firstMember = false;
+        out.write(indent);
+        writeString(name);
+        out.write(" : ");
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value instanceof String)
+            writeString((String) value);
+        else if (value instanceof Boolean || value instanceof Number)
+            out.write(value.toString());
+        else
+            throw new IOException("Unsupported value " + value);
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                out.write('\\');
+            if (c < 0x20)
+                out.write(String.format(Locale.US, "\\u%04x", (int) c));
+            else
+                out.write(c);
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,82 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+/*
+Identifies one monitored door and builds its Firebase paths and FCM topics.
+Doors live under '/sites/{site}/doors/{door}/', with their heartbeats grouped per site in '/sites/{site}/heartbeats/{door}',
+so that a single listener covers the heartbeats of every door of a site.
+The original single door kept under '/alarm/' is the LEGACY door, with its original paths and topics.
+Site and door ids are Firebase keys, which never contain '.', so '.' separates them in topic names.
+*/
+
+public final class DoorAddress {
+
+    public static final DoorAddress LEGACY = new DoorAddress("", "");
+
+    public final String site, door;
+
+    public DoorAddress(String site, String door) {
+        this.site = site;
+        this.door = door;
+    }
+
+    public boolean isLegacy() {
+        return site.isEmpty();
+    }
+
+    //Path of a child of the door node, e.g. "door_open" or "history"
+    public String path(String child) {
+        if (isLegacy())
+            return "/alarm/" + child;
+        return "/sites/" + site + "/doors/" + door + "/" + child;
+    }
+
+    public String heartbeatPath() {
+        if (isLegacy())
+            return "/alarm/door_heartbeat";
+        return heartbeatsPath(site) + "/" + door;
+    }
+
+    //Node holding the heartbeat of every door of a site
+    public static String heartbeatsPath(String site) {
+        return "/sites/" + site + "/heartbeats";
+    }
+
+    //FCM topic of this door, from the base topic name used by the cloud function ("porta_aberta", "sirene", "door_long")
+    public String topic(String base) {
+        if (isLegacy())
+            return base;
+        return base + "." + site + "." + door;
+    }
+
+    //Unique text form, used as key of local caches and preferences
+    public String key() {
+        if (isLegacy())
+            return "";
+        return site + "/" + door;
+    }
+
+    public static DoorAddress fromKey(String key) {
+        int slash = key == null ? -1 : key.indexOf('/');
+        if (slash < 0)
+            return LEGACY;
+        return new DoorAddress(key.substring(0, slash), key.substring(slash + 1));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DoorAddress))
+            return false;
+        DoorAddress other = (DoorAddress) o;
+        return site.equals(other.site) && door.equals(other.door);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * site.hashCode() + door.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return isLegacy() ? "alarm" : key();
+    }
+}
@@ -0,0 +1,62 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Ordered list of the configured doors, read from the '/sites_index/{site}/{door}' node (value = door display name).
+Each door gets a fixed index, used by the dashboard tiles, the subscriptions and the heartbeat aggregator,
+so that per door state can be kept in plain arrays.
+*/
+
+public class DoorDirectory {
+
+    private final List<DoorAddress> doors = new ArrayList<DoorAddress>();
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> sites = new ArrayList<String>();
+    private final Map<DoorAddress, Integer> indexes = new HashMap<DoorAddress, Integer>();
+
+    //Adds a door and returns its index. A door already listed keeps its index and gets the new name
+    public int add(String site, String door, String name) {
+        DoorAddress address = new DoorAddress(site, door);
+        if (name == null || name.isEmpty())
+            name = door;
+
+        Integer index = indexes.get(address);
+        if (index != null) {
+            names.set(index, name);
+            return index;
+        }
+
+        if (!sites.contains(site))
+            sites.add(site);
+        doors.add(address);
+        names.add(name);
+        indexes.put(address, doors.size() - 1);
+        return doors.size() - 1;
+    }
+
+    //-1 if the door is not listed
+    public int indexOf(String site, String door) {
+        Integer index = indexes.get(new DoorAddress(site, door));
+        return index == null ? -1 : index;
+    }
+
+    public DoorAddress get(int index) {
+        return doors.get(index);
+    }
+
+    public String getName(int index) {
+        return names.get(index);
+    }
+
+    public int size() {
+        return doors.size();
+    }
+
+    public List<String> getSites() {
+        return sites;
+    }
+}
@@ -0,0 +1,163 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.Locale;
+
+/*
+Confirmed door state, from the raw 'door_open' values. Only confirmed transitions should reach the screen and the sounds.
+Each value is tagged with where it comes from:
+- INITIAL: first value after the listener is attached (the current state, maybe from the local cache);
+- RECONNECT: first value after the database connection came back (the state reached while offline);
+- LIVE: any other value, a change seen as it happens;
+- LOCAL: a change read from the ESP8266 on the local network (onConfirmedValue), already confirmed by the board.
+These tags apply to the Firebase values (onValue). LOCAL values skip the windows: they are confirmed at once,
+and cancel a Firebase change still pending. The first local value after the link came up is a snapshot, tagged RECONNECT.
+INITIAL and RECONNECT values are snapshots: they are confirmed at once, and a RECONNECT value equal to the
+confirmed state is a stale replay, dropped. A LIVE change is confirmed only when the new state is held for the
+debounce window, and not before the previous state was held for the hysteresis window. A change undone before
+being confirmed is a flap: both of its raw transitions are suppressed and counted.
+Times are monotonic milliseconds. The owner calls poll() at getDeadline() to confirm a pending change.
+*/
+
+public class DoorStateMachine {
+
+    public enum Source { INITIAL, LIVE, RECONNECT, LOCAL }
+
+    public static class Transition {
+        public final boolean open;
+        public final Source source;
+        public final long receivedMs;      //when the raw value arrived
+        public final long confirmedMs;
+
+        Transition(boolean open, Source source, long receivedMs, long confirmedMs) {
+            this.open = open;
+            this.source = source;
+            this.receivedMs = receivedMs;
+            this.confirmedMs = confirmedMs;
+        }
+
+        //A change seen as it happened: the one to play sounds and measure delays for
+        public boolean isLive() {
+            return source == Source.LIVE || source == Source.LOCAL;
+        }
+    }
+
+    public static final long DEBOUNCE_MS = 300;
+    public static final long HYSTERESIS_MS = 1000;
+
+    private final long debounceMs, hysteresisMs;
+
+    private Boolean confirmed;          //null until the first value
+    private long confirmedAt;
+    private Boolean pending;            //LIVE change waiting to be confirmed
+    private long pendingSince;
+    private Source nextSource = Source.INITIAL;
+
+    private int rawValues, localValues, dropped, transitions, suppressed, staleReplays;
+
+    public DoorStateMachine(long debounceMs, long hysteresisMs) {
+        this.debounceMs = debounceMs;
+        this.hysteresisMs = hysteresisMs;
+    }
+
+    //The listener is (re)attached: its first value is the current state
+    public void onSubscribed() {
+        nextSource = Source.INITIAL;
+        pending = null;
+    }
+
+    //The database connection came back: the next value is the state reached while offline
+    public void onReconnected() {
+        if (confirmed != null)
+            nextSource = Source.RECONNECT;
+    }
+
+    //Returns the transition confirmed by this value, or null
+    public Transition onValue(boolean open, long nowMs) {
+        rawValues++;
+        Source source = nextSource;
+        nextSource = Source.LIVE;
+
+        if (source != Source.LIVE || confirmed == null) {
+            pending = null;
+            if (confirmed != null && confirmed == open) {
+                if (source == Source.RECONNECT)
+                    staleReplays++;
+                return null;
+            }
+            return confirm(open, source == Source.LIVE ? Source.INITIAL : source, nowMs, nowMs);
+        }
+
+        if (pending != null) {
+            if (pending != open) {
+                pending = null;     //back to the confirmed state before the change was confirmed
+                suppressed += 2;
+            }
+            return null;
+        }
+        if (confirmed == open)
+            return null;
+
+        pending = open;
+        pendingSince = nowMs;
+        return poll(nowMs);
+    }
+
+    //A value the board already confirmed (local network status). 'snapshot': the first one after the link came up.
+    //Returns the transition, or null when it is the confirmed state
+    public Transition onConfirmedValue(boolean open, boolean snapshot, long nowMs) {
+        localValues++;
+        pending = null;         //the board has the final word on a Firebase change still pending
+        if (confirmed != null && confirmed == open)
+            return null;
+        Source source = confirmed == null ? Source.INITIAL : snapshot ? Source.RECONNECT : Source.LOCAL;
+        return confirm(open, source, nowMs, nowMs);
+    }
+
+    //A Firebase value dropped by the owner (a late copy of a local change): it still uses up the tag of the next value
+    public void onDropped() {
+        dropped++;
+        nextSource = Source.LIVE;
+    }
+
+    //Confirms the pending change if its windows have elapsed. Returns the transition, or null
+    public Transition poll(long nowMs) {
+        if (pending == null || nowMs < getDeadline())
+            return null;
+        boolean open = pending;
+        pending = null;
+        return confirm(open, Source.LIVE, pendingSince, nowMs);
+    }
+
+    //Time at which poll() confirms the pending change, -1 if none
+    public long getDeadline() {
+        if (pending == null)
+            return -1;
+        return Math.max(pendingSince + debounceMs, confirmedAt + hysteresisMs);
+    }
+
+    private Transition confirm(boolean open, Source source, long receivedMs, long nowMs) {
+        confirmed = open;
+        confirmedAt = nowMs;
+        transitions++;
+        return new Transition(open, source, receivedMs, nowMs);
+    }
+
+    //Confirmed state, null until the first value
+    public Boolean getState() {
+        return confirmed;
+    }
+
+    public int getSuppressedCount() {
+        return suppressed;
+    }
+
+    public int getStaleReplayCount() {
+        return staleReplays;
+    }
+
+    public String getStats() {
+        return String.format(Locale.US, "%d values (%d local, %d late copies dropped), %d transitions, %d suppressed (flaps), "
+                        + "%d stale replays  [debounce %d ms, hysteresis %d ms]",
+                rawValues + localValues, localValues, dropped, transitions, suppressed, staleReplays, debounceMs, hysteresisMs);
+    }
+}
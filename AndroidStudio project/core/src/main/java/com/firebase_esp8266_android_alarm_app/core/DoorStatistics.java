@@ -0,0 +1,151 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.TimeZone;
+
+/*
+Door usage statistics updated one event at a time, in fixed-size primitive arrays:
+- openings per hour of day, per day of week and per day (last DAYS days, in a ring);
+- how long the door stays open, in a histogram with logarithmic buckets, from which percentiles are read.
+Adding an event costs the same however much history is kept, and nothing is recomputed by scanning history.
+Not thread-safe: used from the main thread.
+*/
+
+public class DoorStatistics {
+
+    public static final int DAYS = 30;
+
+    private static final long HOUR_MS = 60 * 60 * 1000L, DAY_MS = 24 * HOUR_MS;
+
+    //Open duration buckets: bucket i holds durations up to DURATION_BASE_S * GROWTH^i seconds (1 s .. about 2.3 days,
+    //longer ones are counted in the last bucket)
+    private static final int DURATION_BUCKETS = 68;
+    private static final double DURATION_BASE_S = 1, GROWTH = 1.2;
+
+    private final TimeZone timeZone;
+
+    private final int[] openingsByHour = new int[24];
+    private final int[] openingsByWeekday = new int[7];      //0 = Sunday
+    private final int[] openingsByDay = new int[DAYS];
+    private final long[] dayOfSlot = new long[DAYS];         //local day number held by each slot of the ring
+    private long totalOpenings;
+
+    private final int[] durationBuckets = new int[DURATION_BUCKETS];
+    private final double[] durationLimitsS = new double[DURATION_BUCKETS];
+    private long durationCount, durationTotalMs;
+
+    public DoorStatistics(TimeZone timeZone) {
+        this.timeZone = timeZone;
+        for (int i = 0; i < DURATION_BUCKETS; i++)
+            durationLimitsS[i] = DURATION_BASE_S * Math.pow(GROWTH, i);
+        for (int i = 0; i < DAYS; i++)
+            dayOfSlot[i] = Long.MIN_VALUE;
+    }
+
+    /****Openings (history timestamps, Unix Epoch milliseconds)****/
+    public void addOpening(long dateUnixEpoch) {
+        long local = dateUnixEpoch + timeZone.getOffset(dateUnixEpoch);
+        long day = floorDiv(local, DAY_MS);
+        int hour = (int) ((local - day * DAY_MS) / HOUR_MS);
+
+        openingsByHour[hour]++;
+        openingsByWeekday[(int) ((day + 4) % 7 + 7) % 7]++;     //01/01/1970 was a Thursday
+        totalOpenings++;
+
+        int slot = (int) (day % DAYS);
+        if (slot < 0)
+            slot += DAYS;
+        if (dayOfSlot[slot] == day)
+            openingsByDay[slot]++;
+        else if (dayOfSlot[slot] < day) {
+            //the slot held an older day, which is now out of the ring
+            dayOfSlot[slot] = day;
+            openingsByDay[slot] = 1;
+        }
+    }
+
+    /****Open durations, measured between 'door_open' transitions****/
+    public void addOpenDuration(long durationMs) {
+        if (durationMs < 0)
+            return;
+        double seconds = durationMs / 1000.0;
+        int bucket = seconds <= DURATION_BASE_S ? 0 : (int) Math.ceil(Math.log(seconds / DURATION_BASE_S) / Math.log(GROWTH));
+        durationBuckets[Math.min(bucket, DURATION_BUCKETS - 1)]++;
+        durationCount++;
+        durationTotalMs += durationMs;
+    }
+
+    public long getTotalOpenings() {
+        return totalOpenings;
+    }
+
+    public int getOpeningsAtHour(int hour) {
+        return openingsByHour[hour];
+    }
+
+    public int getOpeningsOnWeekday(int weekday) {
+        return openingsByWeekday[weekday];
+    }
+
+    //Openings on the local day containing 'dateUnixEpoch'; 0 when that day is out of the DAYS ring
+    public int getOpeningsOnDay(long dateUnixEpoch) {
+        long local = dateUnixEpoch + timeZone.getOffset(dateUnixEpoch);
+        long day = floorDiv(local, DAY_MS);
+        int slot = (int) (day % DAYS);
+        if (slot < 0)
+            slot += DAYS;
+        return dayOfSlot[slot] == day ? openingsByDay[slot] : 0;
+    }
+
+    //Openings in the last 'days' days (up to DAYS), including the day of 'nowUnixEpoch'
+    public int getOpeningsInLastDays(long nowUnixEpoch, int days) {
+        int total = 0;
+        for (int i = 0; i < Math.min(days, DAYS); i++)
+            total += getOpeningsOnDay(nowUnixEpoch - i * DAY_MS);
+        return total;
+    }
+
+    public int getBusiestHour() {
+        return argMax(openingsByHour);
+    }
+
+    public int getBusiestWeekday() {
+        return argMax(openingsByWeekday);
+    }
+
+    public long getOpenDurationCount() {
+        return durationCount;
+    }
+
+    public long getMeanOpenDurationMs() {
+        return durationCount == 0 ? -1 : durationTotalMs / durationCount;
+    }
+
+    //Upper limit of the bucket holding the p percentile (p between 0 and 1), in milliseconds; -1 when empty
+    public long getOpenDurationPercentileMs(double p) {
+        if (durationCount == 0)
+            return -1;
+        long target = Math.max(1, (long) Math.ceil(p * durationCount));
+        long cumulative = 0;
+        for (int i = 0; i < DURATION_BUCKETS; i++) {
+            cumulative += durationBuckets[i];
+            if (cumulative >= target)
+                return (long) (durationLimitsS[i] * 1000);
+        }
+        return (long) (durationLimitsS[DURATION_BUCKETS - 1] * 1000);
+    }
+
+    private static int argMax(int[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++)
+            if (values[i] > values[best])
+                best = i;
+        return best;
+    }
+
+    private static long floorDiv(long a, long b) {
+        long q = a / b;
+        if (a < 0 && q * b != a)
+            q--;
+        return q;
+    }
+}
@@ -0,0 +1,100 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/*
+Hands decoded events to the UI thread in batches, at most one batch per frame.
+Events are queued from any thread in the order they were decoded. The first event queued after a batch asks the
+FrameScheduler for a frame, and that frame runs every event queued by then, in order: the list and the views touched
+by a burst of events are laid out once, in the traversal that follows the batch.
+Counters: events queued, current and highest queue depth, batches and the size of the recent ones.
+*/
+
+public class EventBatcher {
+
+    //Runs a callback on the next frame of the UI thread (Choreographer on Android)
+    public interface FrameScheduler {
+        void scheduleFrame(Runnable frame);
+    }
+
+    private final FrameScheduler scheduler;
+
+    //guarded by 'this'
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+    private final RollingHistogram batchSizes = new RollingHistogram(256);
+    private boolean frameScheduled;
+    private long queued;
+    private int maxDepth;
+
+    //UI thread only
+    private final ArrayList<Runnable> batch = new ArrayList<Runnable>();
+
+    private final Runnable frame = new Runnable() {
+        @Override
+        public void run() {
+            publish();
+        }
+    };
+
+    public EventBatcher(FrameScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void post(Runnable event) {
+        boolean schedule;
+        synchronized (this) {
+            queue.add(event);
+            queued++;
+            maxDepth = Math.max(maxDepth, queue.size());
+            schedule = !frameScheduled;
+            frameScheduled = true;
+        }
+        if (schedule)
+            scheduler.scheduleFrame(frame);
+    }
+
+    //Runs the events queued so far. Events queued while they run wait for the next frame
+    private void publish() {
+        synchronized (this) {
+            batch.addAll(queue);
+            queue.clear();
+            frameScheduled = false;
+            batchSizes.add(batch.size());
+        }
+        try {
+            for (int i = 0; i < batch.size(); i++)
+                batch.get(i).run();
+        } finally {
+            batch.clear();
+        }
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    public synchronized long getQueuedCount() {
+        return queued;
+    }
+
+    public synchronized long getBatchCount() {
+        return batchSizes.getTotal();
+    }
+
+    //p between 0 and 1, over the recent batches. Returns -1 when there was none
+    public synchronized long getBatchSizePercentile(double p) {
+        return batchSizes.percentile(p);
+    }
+
+    public synchronized String getStats() {
+        return String.format(Locale.US, "%d events in %d batches, queue %d (max %d), batch size p50 %d  p95 %d  max %d",
+                queued, batchSizes.getTotal(), queue.size(), maxDepth,
+                batchSizes.percentile(0.5), batchSizes.percentile(0.95), batchSizes.percentile(1));
+    }
+}
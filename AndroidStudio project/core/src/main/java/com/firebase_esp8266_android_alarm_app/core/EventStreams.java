@@ -0,0 +1,96 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+Door event streams to replay through FakeEventSource: synthetic door flap storms, or the history recorded in a
+Firebase export ('Firebase export/door-export.json') repeated to any size.
+Each door opening is replayed as the ESP8266 and the cloud function write it: 'door_open_ts' and 'door_open' true
+(one update), the history push with an empty value, the history timestamp, then 'door_open' false.
+*/
+
+public class EventStreams {
+
+    //One write to the door node
+    public static class Event {
+        public final boolean history;   //history entry, or child of the door node
+        public final String name;       //history key, or child name
+        public final Object value;
+
+        public Event(boolean history, String name, Object value) {
+            this.history = history;
+            this.name = name;
+            this.value = value;
+        }
+
+        public void applyTo(FakeEventSource source) {
+            if (history)
+                source.emitHistory(name, value);
+            else
+                source.emitValue(name, value);
+        }
+    }
+
+    //Server time between the history push and the cloud function timestamp
+    public static final long FUNCTION_DELAY_MS = 700;
+
+    private static final Pattern HISTORY_ENTRY = Pattern.compile("\"([-_0-9A-Za-z]{20})\"\\s*:\\s*(\\d+)");
+
+    //'count' door openings, one every 'intervalMs' of server time from 'startMs' (5 events each)
+    public static List<Event> doorFlaps(int count, long startMs, long intervalMs) {
+        List<Event> events = new ArrayList<Event>(count * 5);
+        for (int i = 0; i < count; i++)
+            addOpening(events, PushIds.key(startMs + i * intervalMs, i), startMs + i * intervalMs);
+        return events;
+    }
+
+    //The history of a Firebase export, repeated 'scale' times one after the other, with new keys for the copies
+    public static List<Event> fromExport(Reader export, int scale) throws IOException {
+        TreeMap<String, Long> recorded = parseHistory(export);
+        List<Event> events = new ArrayList<Event>(recorded.size() * scale * 5);
+        if (recorded.isEmpty())
+            return events;
+
+        long span = recorded.lastEntry().getValue() - recorded.firstEntry().getValue() + 60 * 1000;
+        long sequence = 0;
+        for (int copy = 0; copy < scale; copy++) {
+            for (Map.Entry<String, Long> entry : recorded.entrySet()) {
+                long timestamp = entry.getValue() + copy * span;
+                String key = copy == 0 ? entry.getKey() : PushIds.key(timestamp - FUNCTION_DELAY_MS, sequence);
+                addOpening(events, key, timestamp);
+                sequence++;
+            }
+        }
+        return events;
+    }
+
+    //History entries (push id and timestamp) found in a Firebase export, in key order
+    public static TreeMap<String, Long> parseHistory(Reader export) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = export.read(buffer)) > 0)
+            text.append(buffer, 0, read);
+
+        TreeMap<String, Long> history = new TreeMap<String, Long>();
+        Matcher matcher = HISTORY_ENTRY.matcher(text);
+        while (matcher.find())
+            history.put(matcher.group(1), Long.parseLong(matcher.group(2)));
+        return history;
+    }
+
+    private static void addOpening(List<Event> events, String key, long timestamp) {
+        events.add(new Event(false, AlarmEventSource.DOOR_OPEN_TS, timestamp - FUNCTION_DELAY_MS));
+        events.add(new Event(false, AlarmEventSource.DOOR_OPEN, true));
+        events.add(new Event(true, key, ""));
+        events.add(new Event(true, key, timestamp));
+        events.add(new Event(false, AlarmEventSource.DOOR_OPEN, false));
+    }
+}
@@ -0,0 +1,255 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+In-process AlarmEventSource: the door node is a map, and events are injected with emitValue() and emitHistory(),
+e.g. by a replay of EventStreams. It behaves as the Firebase listeners do where the app relies on it:
+value listeners get the current value when added and then only real changes, writes come back to the listeners,
+and a history listener limited to the newest entries slides its oldest one out when a newer one arrives.
+Events are delivered synchronously on the calling thread, which must be the UI thread.
+Emitted and delivered events are counted: an event emitted while nobody listens is delivered to nobody.
+*/
+
+public class FakeEventSource implements AlarmEventSource {
+
+    private final Map<String, Object> values = new HashMap<String, Object>();
+    private final Map<String, List<ValueListener>> valueListeners = new HashMap<String, List<ValueListener>>();
+    private final TreeMap<String, Object> history = new TreeMap<String, Object>();
+    private final List<HistoryWindow> historyWindows = new ArrayList<HistoryWindow>();
+    private final TreeMap<String, Object> buckets = new TreeMap<String, Object>();
+    private final Map<BucketListener, String> bucketListeners = new HashMap<BucketListener, String>();   //listener and its start day
+    private final HistoryBuckets.Decoder decoder = new HistoryBuckets.Decoder();
+
+    private long emitted, delivered, writes;
+
+    //One live history listener and the keys it currently covers
+    private static class HistoryWindow {
+        final HistoryListener listener;
+        final String startKey;
+        final int limit;
+        final TreeSet<String> keys = new TreeSet<String>();
+
+        HistoryWindow(HistoryListener listener, String startKey, int limit) {
+            this.listener = listener;
+            this.startKey = startKey;
+            this.limit = limit;
+        }
+    }
+
+    @Override
+    public void addValueListener(String child, ValueListener listener) {
+        List<ValueListener> listeners = valueListeners.get(child);
+        if (listeners == null) {
+            listeners = new ArrayList<ValueListener>();
+            valueListeners.put(child, listeners);
+        }
+        listeners.add(listener);
+        listener.onValue(values.get(child));
+    }
+
+    @Override
+    public void removeValueListener(String child, ValueListener listener) {
+        List<ValueListener> listeners = valueListeners.get(child);
+        if (listeners != null)
+            listeners.remove(listener);
+    }
+
+    @Override
+    public void setValue(String child, Object value) {
+        writes++;
+        emitValue(child, value);
+    }
+
+    @Override
+    public void toggle(String child, ToggleCallback callback) {
+        boolean value = !Boolean.TRUE.equals(values.get(child));
+        setValue(child, value);
+        if (callback != null)
+            callback.onToggled(true, value);
+    }
+
+    @Override
+    public void addHistoryListener(String startKey, int limit, HistoryListener listener) {
+        HistoryWindow window = new HistoryWindow(listener, startKey, limit);
+        historyWindows.add(window);
+
+        NavigableMap<String, Object> initial = startKey != null ? history.tailMap(startKey, true) : history;
+        int skip = startKey == null && limit > 0 ? Math.max(0, initial.size() - limit) : 0;
+        for (Map.Entry<String, Object> entry : initial.entrySet()) {
+            if (skip-- > 0)
+                continue;
+            window.keys.add(entry.getKey());
+            listener.onEntry(entry.getKey(), entry.getValue(), false);
+        }
+    }
+
+    @Override
+    public void removeHistoryListener(HistoryListener listener) {
+        for (int i = historyWindows.size() - 1; i >= 0; i--)
+            if (historyWindows.get(i).listener == listener)
+                historyWindows.remove(i);
+    }
+
+    @Override
+    public void readHistory(String startKey, String endKey, int limit, PageCallback callback) {
+        NavigableMap<String, Object> range = history;
+        if (startKey != null)
+            range = range.tailMap(startKey, true);
+        if (endKey != null)
+            range = range.headMap(endKey, true);
+
+        int count = limit > 0 ? Math.min(limit, range.size()) : range.size();
+        int skip = range.size() - count, i = 0;
+        String[] keys = new String[count];
+        Object[] entryValues = new Object[count];
+        for (Map.Entry<String, Object> entry : range.entrySet()) {
+            if (skip-- > 0)
+                continue;
+            keys[i] = entry.getKey();
+            entryValues[i++] = entry.getValue();
+        }
+        callback.onPage(keys, entryValues, count);
+    }
+
+    @Override
+    public void addBucketListener(String startDay, int limit, BucketListener listener) {
+        if (startDay == null && limit > 0) {
+            //the newest 'limit' days. Unlike the history window, it does not slide: buckets are few
+            int newest = 0;
+            for (String day : buckets.descendingKeySet())
+                if (++newest == limit)
+                    startDay = day;
+        }
+        bucketListeners.put(listener, startDay != null ? startDay : "");
+        for (Map.Entry<String, Object> bucket : buckets.tailMap(startDay != null ? startDay : "", true).entrySet())
+            deliverBucket(listener, bucket.getKey(), bucket.getValue());
+    }
+
+    @Override
+    public void removeBucketListener(BucketListener listener) {
+        bucketListeners.remove(listener);
+    }
+
+    @Override
+    public void readBuckets(String startDay, String endDay, int limit, BucketListener callback) {
+        NavigableMap<String, Object> range = buckets;
+        if (startDay != null)
+            range = range.tailMap(startDay, true);
+        if (endDay != null)
+            range = range.headMap(endDay, true);
+
+        HistoryBuckets.Decoder all = new HistoryBuckets.Decoder();
+        int skip = limit > 0 ? Math.max(0, range.size() - limit) : 0;
+        String oldestDay = null;
+        for (Map.Entry<String, Object> bucket : range.entrySet()) {
+            if (skip-- > 0)
+                continue;
+            if (oldestDay == null)
+                oldestDay = bucket.getKey();
+            HistoryBuckets.decode(bucket.getKey(), bucket.getValue(), all);
+        }
+        callback.onBucket(oldestDay, all.getTimestamps(), all.size());
+    }
+
+    private void deliverBucket(BucketListener listener, String day, Object value) {
+        decoder.clear();
+        int count = HistoryBuckets.decode(day, value, decoder);
+        listener.onBucket(day, decoder.getTimestamps(), count);
+        delivered++;
+    }
+
+    /****Events coming from the "database"****/
+
+    //A child of the door node changes. Listeners are not called when the value is the same, as with Firebase
+    public void emitValue(String child, Object value) {
+        emitted++;
+        Object old = values.put(child, value);
+        if (value == null ? old == null : value.equals(old))
+            return;
+
+        List<ValueListener> listeners = valueListeners.get(child);
+        if (listeners == null)
+            return;
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onValue(value);
+            delivered++;
+        }
+    }
+
+    //A history entry is pushed, or its value changes
+    public void emitHistory(String key, Object value) {
+        emitted++;
+        boolean changed = history.put(key, value) != null;
+
+        for (int i = 0; i < historyWindows.size(); i++) {
+            HistoryWindow window = historyWindows.get(i);
+            if (window.startKey != null && key.compareTo(window.startKey) < 0)
+                continue;
+
+            if (window.keys.contains(key)) {
+                window.listener.onEntry(key, value, changed);
+                delivered++;
+                continue;
+            }
+            if (window.startKey == null && window.limit > 0 && window.keys.size() >= window.limit) {
+                if (key.compareTo(window.keys.first()) < 0)
+                    continue;   //older than the window
+                window.listener.onRemoved(window.keys.pollFirst());
+            }
+            window.keys.add(key);
+            window.listener.onEntry(key, value, false);
+            delivered++;
+        }
+    }
+
+    //The bucket of a day is written (see HistoryBuckets)
+    public void emitBucket(String day, Object value) {
+        emitted++;
+        buckets.put(day, value);
+        for (Map.Entry<BucketListener, String> listener : new ArrayList<Map.Entry<BucketListener, String>>(bucketListeners.entrySet()))
+            if (day.compareTo(listener.getValue()) >= 0)
+                deliverBucket(listener.getKey(), day, value);
+    }
+
+    public void removeHistory(String key) {
+        emitted++;
+        if (history.remove(key) == null)
+            return;
+        for (int i = 0; i < historyWindows.size(); i++) {
+            HistoryWindow window = historyWindows.get(i);
+            if (window.keys.remove(key)) {
+                window.listener.onRemoved(key);
+                delivered++;
+            }
+        }
+    }
+
+    public Object getValue(String child) {
+        return values.get(child);
+    }
+
+    public int getHistorySize() {
+        return history.size();
+    }
+
+    public long getEmittedCount() {
+        return emitted;
+    }
+
+    //Listener calls made, for all listeners
+    public long getDeliveredCount() {
+        return delivered;
+    }
+
+    //Writes made by the app (setValue and toggle)
+    public long getWriteCount() {
+        return writes;
+    }
+}
@@ -0,0 +1,113 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.Arrays;
+
+/*
+Link state of many ESP8266 boards, evaluated together by a single periodic check instead of one timer per door.
+Each door is identified by its DoorDirectory index. Receive times and states are kept in arrays,
+so a heartbeat costs an array write and a check of 500 doors is a loop without allocations.
+Only the doors whose state changed are reported, so the dashboard refreshes just those tiles.
+
+A door is DEGRADED after 'degradedAfterMs' without heartbeat and DOWN after 'downAfterMs'.
+A door never heard since the last restart is WAITING, and DOWN once 'downAfterMs' passed since the restart.
+Times must come from a monotonic clock (SystemClock.elapsedRealtime() on Android).
+*/
+
+public class HeartbeatAggregator {
+
+    //Receives the doors whose state changed during evaluate()
+    public interface Listener {
+        void onStateChanged(int door, HeartbeatMonitor.State state);
+    }
+
+    private static final HeartbeatMonitor.State[] STATES = HeartbeatMonitor.State.values();
+
+    private final long degradedAfterMs, downAfterMs;
+
+    private long[] lastReceive = new long[0];
+    private byte[] states = new byte[0];
+    private int doorCount;
+    private long restartMs;
+    private final int[] stateCounts = new int[STATES.length];
+
+    //Defaults: same thresholds as HeartbeatMonitor before it has measured gaps (1.5x and 3x the ESP8266 period)
+    public HeartbeatAggregator() {
+        this(HeartbeatMonitor.ESP_PERIOD_MS * 3 / 2, HeartbeatMonitor.ESP_PERIOD_MS * 3);
+    }
+
+    public HeartbeatAggregator(long degradedAfterMs, long downAfterMs) {
+        this.degradedAfterMs = degradedAfterMs;
+        this.downAfterMs = downAfterMs;
+    }
+
+    //Grows the arrays when doors are added to the directory. New doors start WAITING
+    public void setDoorCount(int count) {
+        if (count > lastReceive.length) {
+            int capacity = Math.max(count, lastReceive.length * 2);
+            int oldLength = lastReceive.length;
+            lastReceive = Arrays.copyOf(lastReceive, capacity);
+            states = Arrays.copyOf(states, capacity);
+            Arrays.fill(lastReceive, oldLength, capacity, -1);
+        }
+        for (int i = doorCount; i < count; i++)
+            stateCounts[HeartbeatMonitor.State.WAITING.ordinal()]++;
+        doorCount = count;
+    }
+
+    public int getDoorCount() {
+        return doorCount;
+    }
+
+    public void onHeartbeat(int door, long nowMs) {
+        if (door >= 0 && door < doorCount)
+            lastReceive[door] = nowMs;
+    }
+
+    //Forgets every receive time, e.g. when the listeners were detached: the doors wait for fresh heartbeats
+    public void restart(long nowMs) {
+        Arrays.fill(lastReceive, 0, doorCount, -1);
+        Arrays.fill(states, 0, doorCount, (byte) HeartbeatMonitor.State.WAITING.ordinal());
+        Arrays.fill(stateCounts, 0);
+        stateCounts[HeartbeatMonitor.State.WAITING.ordinal()] = doorCount;
+        restartMs = nowMs;
+    }
+
+    //Evaluates all doors and reports the ones that changed state. Returns the number of changes
+    public int evaluate(long nowMs, Listener listener) {
+        int changes = 0;
+        for (int i = 0; i < doorCount; i++) {
+            int state = stateOf(lastReceive[i], nowMs);
+            if (state == states[i])
+                continue;
+
+            stateCounts[states[i]]--;
+            stateCounts[state]++;
+            states[i] = (byte) state;
+            changes++;
+            if (listener != null)
+                listener.onStateChanged(i, STATES[state]);
+        }
+        return changes;
+    }
+
+    private int stateOf(long receive, long nowMs) {
+        long silence = receive < 0 ? nowMs - restartMs : nowMs - receive;
+        if (silence > downAfterMs)
+            return HeartbeatMonitor.State.DOWN.ordinal();
+        if (receive < 0)
+            return HeartbeatMonitor.State.WAITING.ordinal();
+        if (silence > degradedAfterMs)
+            return HeartbeatMonitor.State.DEGRADED.ordinal();
+        return HeartbeatMonitor.State.HEALTHY.ordinal();
+    }
+
+    //State found by the last evaluate()
+    public HeartbeatMonitor.State getState(int door) {
+        return STATES[states[door]];
+    }
+
+    //Number of doors in a state, as of the last evaluate()
+    public int getCount(HeartbeatMonitor.State state) {
+        return stateCounts[state.ordinal()];
+    }
+}
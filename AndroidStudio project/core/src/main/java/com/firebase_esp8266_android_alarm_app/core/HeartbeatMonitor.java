@@ -0,0 +1,95 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+/*
+Evaluates the communication with the ESP8266 from the receive times of 'door_heartbeat' changes.
+Times must come from a monotonic clock (SystemClock.elapsedRealtime() on Android).
+
+The gaps between heartbeats are kept in a rolling histogram. The link is:
+- DEGRADED when the silence since the last heartbeat exceeds 'degradedFactor' times the chosen gap percentile;
+- DOWN when it exceeds 'downFactor' times that percentile.
+Until 'minSamples' gaps have been measured, the ESP8266 nominal period is used instead of the percentile.
+*/
+
+public class HeartbeatMonitor {
+
+    public enum State { WAITING, HEALTHY, DEGRADED, DOWN }
+
+    public static final long ESP_PERIOD_MS = 5000;     //'period' in NodeMCU_DOOR.ino
+
+    private final RollingHistogram gaps;
+    private final double percentile;
+    private final double degradedFactor, downFactor;
+    private final int minSamples;
+    private final long nominalPeriodMs;
+
+    private long lastReceive;
+    private boolean received;       //whether 'lastReceive' holds a heartbeat since the start or the last restart
+
+    //Defaults: rule based on the 95th percentile of the last 64 gaps, degraded after 1.5x and down after 3x
+    public HeartbeatMonitor() {
+        this(64, 0.95, 1.5, 3.0, 5, ESP_PERIOD_MS);
+    }
+
+    public HeartbeatMonitor(int window, double percentile, double degradedFactor, double downFactor,
+                            int minSamples, long nominalPeriodMs) {
+        this.gaps = new RollingHistogram(window);
+        this.percentile = percentile;
+        this.degradedFactor = degradedFactor;
+        this.downFactor = downFactor;
+        this.minSamples = minSamples;
+        this.nominalPeriodMs = nominalPeriodMs;
+    }
+
+    public void onHeartbeat(long nowMs) {
+        if (received)
+            gaps.add(nowMs - lastReceive);
+        lastReceive = nowMs;
+        received = true;
+    }
+
+    public State evaluate(long nowMs) {
+        if (!received)
+            return State.WAITING;
+
+        long silence = nowMs - lastReceive;
+        long reference = getReferenceGapMs();
+        if (silence > reference * downFactor)
+            return State.DOWN;
+        if (silence > reference * degradedFactor)
+            return State.DEGRADED;
+        return State.HEALTHY;
+    }
+
+    //Gap used by the fault rule: the configured percentile, or the nominal period while there are too few samples
+    public long getReferenceGapMs() {
+        if (gaps.size() < minSamples)
+            return nominalPeriodMs;
+        return Math.max(gaps.percentile(percentile), nominalPeriodMs / 2);
+    }
+
+    public long getSilenceMs(long nowMs) {
+        return received ? nowMs - lastReceive : -1;
+    }
+
+    public long getGapPercentileMs(double p) {
+        return gaps.percentile(p);
+    }
+
+    public long getJitterMs() {
+        return gaps.jitter();
+    }
+
+    public long getHeartbeatCount() {
+        return received ? gaps.getTotal() + 1 : 0;
+    }
+
+    //Forgets the last receive time but keeps the gap statistics (e.g. after the listener has been detached for a while)
+    public void restart() {
+        received = false;
+    }
+
+    public void reset() {
+        gaps.clear();
+        received = false;
+    }
+}
@@ -0,0 +1,167 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.Arrays;
+
+/*
+Compact history format: the openings of one UTC day are kept in a single child of 'history_days', keyed by the day
+("2020-03-30"), as a string of base 36 numbers separated by ',': the first is the offset of the first opening from
+the start of the day in milliseconds, each following one the delta from the previous opening. A typical opening costs
+5 or 6 characters instead of a 20 character push id child, and a whole day is one listener event.
+The cloud function appends to the bucket of the day (see 'Firebase export/index.js', which encodes the same way).
+Openings read from buckets have no push id: they get a key made of the time prefix of push ids and BUCKET_SUFFIX,
+so they sort by time with the 'history' keys and are told apart from them.
+*/
+
+public class HistoryBuckets {
+
+    public static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    public static final String BUCKET_SUFFIX = "~";
+
+    //UTC day of a timestamp, "yyyy-MM-dd"
+    public static String dayKey(long timestamp) {
+        long days = timestamp >= 0 ? timestamp / DAY_MS : (timestamp - DAY_MS + 1) / DAY_MS;
+
+        //civil date from days since 1970-01-01 (proleptic Gregorian calendar)
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] chars = new char[10];
+        write(chars, 0, year, 4);
+        chars[4] = '-';
+        write(chars, 5, month, 2);
+        chars[7] = '-';
+        write(chars, 8, day, 2);
+        return new String(chars);
+    }
+
+    //Start of a UTC day in milliseconds, -1 if 'dayKey' is not a day key
+    public static long dayStart(String dayKey) {
+        if (dayKey == null || dayKey.length() != 10 || dayKey.charAt(4) != '-' || dayKey.charAt(7) != '-')
+            return -1;
+        try {
+            long year = Long.parseLong(dayKey.substring(0, 4));
+            long month = Long.parseLong(dayKey.substring(5, 7));
+            long day = Long.parseLong(dayKey.substring(8, 10));
+
+            //days since 1970-01-01 from the civil date
+            long y = month <= 2 ? year - 1 : year;
+            long era = (y >= 0 ? y : y - 399) / 400;
+            long yearOfEra = y - era * 400;
+            long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+            long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            return (era * 146097 + dayOfEra - 719468) * DAY_MS;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    //Encodes sorted timestamps of one day
+    public static String encode(long dayStart, long[] timestamps, int count) {
+        StringBuilder bucket = new StringBuilder(count * 6);
+        long previous = dayStart;
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                bucket.append(',');
+            bucket.append(Long.toString(timestamps[i] - previous, 36));
+            previous = timestamps[i];
+        }
+        return bucket.toString();
+    }
+
+    //Decodes a bucket in one pass, appending its timestamps to 'out'. Returns their number, -1 if malformed (nothing appended)
+    public static int decode(String dayKey, Object bucket, Decoder out) {
+        long previous = dayStart(dayKey);
+        if (previous < 0 || !(bucket instanceof String))
+            return -1;
+
+        String text = (String) bucket;
+        int base = out.size, length = text.length();
+        if (length == 0)
+            return 0;
+        long value = 0;
+        boolean digits = false;
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ',';
+            int digit = c == ',' ? -1 : Character.digit(c, 36);
+            if (digit >= 0) {
+                value = value * 36 + digit;
+                digits = true;
+                continue;
+            }
+            if (c != ',' || !digits) {
+                out.size = base;
+                return -1;
+            }
+            previous += value;
+            out.add(previous);
+            value = 0;
+            digits = false;
+        }
+        return out.size - base;
+    }
+
+    //Reusable growable array of decoded timestamps, so that decoding buckets does not allocate per opening.
+    //Also gathers the timestamps to merge into a bucket
+    public static class Decoder {
+        private long[] timestamps = new long[64];
+        private int size;
+
+        public void add(long timestamp) {
+            if (size == timestamps.length)
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+            timestamps[size++] = timestamp;
+        }
+
+        public long[] getTimestamps() {
+            return timestamps;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            size = 0;
+        }
+    }
+
+    //Merges timestamps into a bucket, sorted and without duplicates. Returns the new bucket
+    public static String merge(String dayKey, Object bucket, long[] added, int count) {
+        Decoder decoder = new Decoder();
+        decode(dayKey, bucket, decoder);        //a malformed bucket is replaced
+        for (int i = 0; i < count; i++)
+            decoder.add(added[i]);
+
+        long[] timestamps = decoder.getTimestamps();
+        int size = decoder.size();
+        Arrays.sort(timestamps, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++)
+            if (unique == 0 || timestamps[i] != timestamps[unique - 1])
+                timestamps[unique++] = timestamps[i];
+        return encode(dayStart(dayKey), timestamps, unique);
+    }
+
+    //Key of an opening read from a bucket
+    public static String entryKey(long timestamp) {
+        return PushIds.startKey(timestamp) + BUCKET_SUFFIX;
+    }
+
+    public static boolean isBucketKey(String key) {
+        return key.endsWith(BUCKET_SUFFIX);
+    }
+
+    private static void write(char[] chars, int offset, long value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
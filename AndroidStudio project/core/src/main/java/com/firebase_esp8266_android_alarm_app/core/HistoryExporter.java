@@ -0,0 +1,75 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/*
+Writes door openings one at a time as CSV or JSON, so an export never holds the whole history in memory:
+the caller feeds rows straight from a database cursor into a buffered file writer.
+Each row has the Firebase key, the timestamp in milliseconds (UTC) and the local time as shown in the app.
+*/
+
+public class HistoryExporter {
+
+    public static final int CSV = 0;
+    public static final int JSON = 1;
+
+    private final Writer out;
+    private final int format;
+    private final HistoryFormatter formatter;
+    private final char[] time = new char[HistoryFormatter.LENGTH];
+    private int count;
+
+    public HistoryExporter(Writer out, int format, HistoryFormatter formatter) {
+        this.out = out;
+        this.format = format;
+        this.formatter = formatter;
+    }
+
+    public void begin() throws IOException {
+        out.write(format == CSV ? "key,timestamp,local_time\n" : "[");
+    }
+
+    public void write(String key, long timestamp) throws IOException {
+        int length = formatter.format(timestamp, time);
+        if (format == CSV) {
+            out.write(key);
+            out.write(',');
+            out.write(Long.toString(timestamp));
+            out.write(',');
+            out.write(time, 0, length);
+            out.write('\n');
+        } else {
+            out.write(count == 0 ? "\n{\"key\":\"" : ",\n{\"key\":\"");
+            writeJsonString(key);
+            out.write("\",\"timestamp\":");
+            out.write(Long.toString(timestamp));
+            out.write(",\"local_time\":\"");
+            out.write(time, 0, length);
+            out.write("\"}");
+        }
+        count++;
+    }
+
+    //Closes the JSON array and flushes. Returns the number of rows written
+    public int end() throws IOException {
+        if (format == JSON)
+            out.write("\n]\n");
+        out.flush();
+        return count;
+    }
+
+    //Push ids only use '-', '_' and alphanumerics, but other keys are escaped in case
+    private void writeJsonString(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                out.write('\\');
+            if (c < 0x20)
+                out.write(String.format(Locale.US, "\\u%04x", (int) c));
+            else
+                out.write(c);
+        }
+    }
+}
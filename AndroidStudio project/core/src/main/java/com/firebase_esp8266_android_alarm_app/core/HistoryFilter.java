@@ -0,0 +1,60 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.TimeZone;
+
+/*
+Selects door openings by date range and, optionally, by time of day: "between 02:00 and 05:00 last week".
+The date range [fromMs, toMs) is meant for an indexed query (the history cache has an index on timestamp);
+the time of day can't be indexed, so it is checked on each row of that range with matches().
+A time window ending before it starts wraps past midnight (e.g. 22:00 to 06:00).
+*/
+
+public class HistoryFilter {
+
+    public static final int ANY_TIME = -1;
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    public final long fromMs, toMs;
+    public final int startMinute, endMinute;    //minutes of the day, ANY_TIME for no time window
+    private final TimeZone timeZone;
+
+    public HistoryFilter(long fromMs, long toMs, int startMinute, int endMinute, TimeZone timeZone) {
+        if (toMs < fromMs)
+            throw new IllegalArgumentException("Range ends before it starts");
+        this.fromMs = fromMs;
+        this.toMs = toMs;
+        this.startMinute = startMinute;
+        this.endMinute = endMinute;
+        this.timeZone = timeZone;
+    }
+
+    //Whole days only: no time window
+    public HistoryFilter(long fromMs, long toMs) {
+        this(fromMs, toMs, ANY_TIME, ANY_TIME, TimeZone.getDefault());
+    }
+
+    public boolean hasTimeWindow() {
+        return startMinute != ANY_TIME && endMinute != ANY_TIME && startMinute != endMinute;
+    }
+
+    public boolean matches(long timestamp) {
+        if (timestamp < fromMs || timestamp >= toMs)
+            return false;
+        if (!hasTimeWindow())
+            return true;
+
+        int minute = minuteOfDay(timestamp);
+        if (startMinute < endMinute)
+            return minute >= startMinute && minute < endMinute;
+        return minute >= startMinute || minute < endMinute;     //wraps past midnight
+    }
+
+    private int minuteOfDay(long timestamp) {
+        long local = timestamp + timeZone.getOffset(timestamp);
+        long msOfDay = local % DAY_MS;
+        if (msOfDay < 0)
+            msOfDay += DAY_MS;     //floor modulo (Math.floorMod needs API 24)
+        return (int) (msOfDay / 60000);
+    }
+}
@@ -0,0 +1,85 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+Formats history timestamps as "dd/MM/yy  -  HH:mm:ss" without allocating on every call.
+The date part is formatted once per day and cached, the time part is written digit by digit in the caller's buffer.
+All methods are synchronized, so a single instance can be shared between threads.
+*/
+
+public class HistoryFormatter {
+
+    public static final int LENGTH = 21;   //"dd/MM/yy  -  HH:mm:ss"
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final int CACHE_SIZE = 16;   //must be a power of 2
+
+    private static HistoryFormatter instance;
+
+    private final TimeZone timeZone;
+    private final SimpleDateFormat dayFormat;
+
+    //Per-day prefix cache "dd/MM/yy  -  ", indexed by local day number
+    private final long[] cachedDays = new long[CACHE_SIZE];
+    private final char[][] cachedPrefixes = new char[CACHE_SIZE][];
+
+    public static synchronized HistoryFormatter getInstance() {
+        if (instance == null)
+            instance = new HistoryFormatter(TimeZone.getDefault());
+        return instance;
+    }
+
+    public HistoryFormatter(TimeZone timeZone) {
+        this.timeZone = timeZone;
+        dayFormat = new SimpleDateFormat("dd/MM/yy  -  ", Locale.US);
+        dayFormat.setTimeZone(timeZone);
+    }
+
+    //Writes the formatted timestamp in 'out' (at least LENGTH chars) and returns the number of chars written
+    public synchronized int format(long dateUnixEpoch, char[] out) {
+        long local = dateUnixEpoch + timeZone.getOffset(dateUnixEpoch);
+        long day = local / DAY_MS;
+        if (local < 0 && day * DAY_MS != local)
+            day--;          //floor division (Math.floorDiv needs API 24)
+        int msOfDay = (int) (local - day * DAY_MS);
+
+        char[] prefix = prefixFor(day, dateUnixEpoch);
+        System.arraycopy(prefix, 0, out, 0, prefix.length);
+
+        int secondsOfDay = msOfDay / 1000;
+        int pos = prefix.length;
+        pos = twoDigits(secondsOfDay / 3600, out, pos);
+        out[pos++] = ':';
+        pos = twoDigits((secondsOfDay / 60) % 60, out, pos);
+        out[pos++] = ':';
+        pos = twoDigits(secondsOfDay % 60, out, pos);
+        return pos;
+    }
+
+    //Convenience for callers that need a String (allocates the result only)
+    public String format(long dateUnixEpoch) {
+        char[] out = new char[LENGTH];
+        return new String(out, 0, format(dateUnixEpoch, out));
+    }
+
+    private char[] prefixFor(long day, long dateUnixEpoch) {
+        int slot = (int) (day & (CACHE_SIZE - 1));
+        char[] prefix = cachedPrefixes[slot];
+        if (prefix == null || cachedDays[slot] != day) {
+            prefix = dayFormat.format(new Date(dateUnixEpoch)).toCharArray();
+            cachedPrefixes[slot] = prefix;
+            cachedDays[slot] = day;
+        }
+        return prefix;
+    }
+
+    private static int twoDigits(int value, char[] out, int pos) {
+        out[pos++] = (char) ('0' + value / 10);
+        out[pos++] = (char) ('0' + value % 10);
+        return pos;
+    }
+}
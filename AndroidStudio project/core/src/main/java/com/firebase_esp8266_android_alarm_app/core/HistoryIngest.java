@@ -0,0 +1,82 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+/*
+Entry point of door opening history events: validates each 'history' child value and applies it to the
+history model and to the usage statistics. Also tracks the oldest key received, used as paging cursor, and the oldest
+push id: keys made up for bucket openings do not exist in the 'history' node, so they cannot be cursors there.
+While both history formats are written, an opening may come from 'history' and from a day bucket (see HistoryBuckets):
+the first one received is kept, the other is a duplicate.
+*/
+
+public class HistoryIngest {
+
+    //Result of an event: what the model did with it
+    public static final int IGNORED = 0, UNCHANGED = 1, ADDED = 2, UPDATED = 3;
+
+    private final HistoryModel model;
+    private final DoorStatistics statistics;
+    private String oldestKey, oldestPushId;
+
+    public HistoryIngest(HistoryModel model, DoorStatistics statistics) {
+        this.model = model;
+        this.statistics = statistics;
+    }
+
+    public HistoryModel getModel() {
+        return model;
+    }
+
+    //Oldest key received so far, including children whose value was ignored; null if none
+    public String getOldestKey() {
+        return oldestKey;
+    }
+
+    //Oldest 'history' push id received so far, leaving out the bucket openings; null if none
+    public String getOldestPushId() {
+        return oldestPushId;
+    }
+
+    //Value as received from Firebase. If it is not a number (e.g. the empty string pushed by the ESP8266 before timestamping), it is ignored
+    public int onChild(String key, Object value) {
+        trackKey(key);
+        if (!(value instanceof Long))
+            return IGNORED;
+        return put(key, (Long) value);
+    }
+
+    //keeps date/time in Unix Epoch format (milliseconds since 01/01/1970). It is formatted only when displayed.
+    //the model keeps the most recent on the top. A changed child updates its existing row instead of adding a new one
+    //Each opening is counted once in the statistics, when it first enters the model
+    public int put(String key, long dateUnixEpoch) {
+        trackKey(key);
+        if (isDuplicate(key, dateUnixEpoch))
+            return UNCHANGED;
+        long previous = model.getTimestamp(key);
+        if (previous == dateUnixEpoch)
+            return UNCHANGED;
+
+        boolean added = !model.contains(key);
+        if (added)
+            statistics.addOpening(dateUnixEpoch);
+        model.put(key, dateUnixEpoch);
+        return added ? ADDED : UPDATED;
+    }
+
+    //By timestamp, so that no key is built for each event
+    private boolean isDuplicate(String key, long dateUnixEpoch) {
+        if (HistoryBuckets.isBucketKey(key))
+            return !model.contains(key) && model.containsTimestamp(dateUnixEpoch);
+        return model.containsTimestamp(dateUnixEpoch, HistoryBuckets.BUCKET_SUFFIX);
+    }
+
+    public void remove(String key) {
+        model.remove(key);
+    }
+
+    private void trackKey(String key) {
+        if (oldestKey == null || key.compareTo(oldestKey) < 0)
+            oldestKey = key;
+        if ((oldestPushId == null || key.compareTo(oldestPushId) < 0) && !HistoryBuckets.isBucketKey(key))
+            oldestPushId = key;
+    }
+}
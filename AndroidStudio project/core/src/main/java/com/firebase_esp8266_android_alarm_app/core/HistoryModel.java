@@ -0,0 +1,258 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.HashMap;
+
+/*
+Door opening history kept in memory, keyed by the Firebase push id and sorted by timestamp (most recent first).
+Adds, changes and removes only notify the rows that were actually touched.
+The entries are the nodes of a balanced search tree (AVL) ordered from the oldest to the most recent, where each node
+also counts the entries below it: finding an entry, its position, or the entry at a position are O(log n), and so are
+adds, moves and removes at any position (new openings at the top, older pages at the bottom, retention removing the oldest).
+Positions seen by the listener and by get() count from the most recent.
+*/
+
+public class HistoryModel {
+
+    //Receives the position of each row touched by the model, so that the adapter can refresh only those rows
+    public interface Listener {
+        void onInserted(int position);
+        void onChanged(int position);
+        void onRemoved(int position);
+        void onMoved(int fromPosition, int toPosition);
+    }
+
+    public static class Entry {
+        public final String key;
+        public final long id;          //stable id used by the RecyclerView adapter
+        public long timestamp;         //Unix Epoch, milliseconds since 01/01/1970. Formatted only when the row is bound
+
+        //tree node: children, entries in this subtree and subtree height
+        Entry left, right;
+        int size, height;
+
+        Entry(String key, long id, long timestamp) {
+            this.key = key;
+            this.id = id;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private Entry root;
+    private final HashMap<String, Entry> entriesByKey = new HashMap<String, Entry>();
+    private long nextId = 0;
+    private Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public Entry get(int position) {
+        int index = size() - 1 - position;
+        if (position < 0 || index < 0)
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size());
+
+        Entry node = root;
+        while (true) {
+            int left = size(node.left);
+            if (index < left) {
+                node = node.left;
+            } else if (index > left) {
+                index -= left + 1;
+                node = node.right;
+            } else {
+                return node;
+            }
+        }
+    }
+
+    public boolean contains(String key) {
+        return entriesByKey.containsKey(key);
+    }
+
+    //Whether some entry, whatever its key, has this timestamp
+    public boolean containsTimestamp(long timestamp) {
+        return containsTimestamp(root, timestamp, null);
+    }
+
+    //Whether some entry whose key ends with 'keySuffix' (null: any key) has this timestamp. Allocates nothing
+    public boolean containsTimestamp(long timestamp, String keySuffix) {
+        return containsTimestamp(root, timestamp, keySuffix);
+    }
+
+    //Timestamp of the entry with the given key, or -1 when it is not in the model
+    public long getTimestamp(String key) {
+        Entry entry = entriesByKey.get(key);
+        return entry != null ? entry.timestamp : -1;
+    }
+
+    //Adds a new entry or updates an existing one, moving it if its timestamp has changed
+    public void put(String key, long timestamp) {
+        Entry entry = entriesByKey.get(key);
+
+        if (entry == null) {
+            entry = new Entry(key, nextId++, timestamp);
+            root = insert(root, entry);
+            entriesByKey.put(key, entry);
+            if (listener != null)
+                listener.onInserted(size() - 1 - indexOf(entry));
+            return;
+        }
+
+        if (entry.timestamp == timestamp)
+            return;
+
+        int last = size() - 1;
+        int fromIndex = indexOf(entry);
+        root = remove(root, entry);
+        entry.timestamp = timestamp;
+        root = insert(root, entry);
+        int toIndex = indexOf(entry);
+        int from = last - fromIndex, to = last - toIndex;
+        if (listener != null) {
+            if (from != to)
+                listener.onMoved(from, to);
+            listener.onChanged(to);
+        }
+    }
+
+    public void remove(String key) {
+        Entry entry = entriesByKey.remove(key);
+        if (entry == null)
+            return;
+
+        int position = size() - 1 - indexOf(entry);
+        root = remove(root, entry);
+        if (listener != null)
+            listener.onRemoved(position);
+    }
+
+    //Index of an entry already in the tree, counted from the oldest
+    private int indexOf(Entry entry) {
+        int index = 0;
+        Entry node = root;
+        while (node != null) {
+            int cmp = compare(entry, node);
+            if (cmp < 0) {
+                node = node.left;
+            } else if (cmp > 0) {
+                index += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return index + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    //Entries with the same timestamp may be on both sides of one of them: only those branches are walked
+    private static boolean containsTimestamp(Entry node, long timestamp, String keySuffix) {
+        if (node == null)
+            return false;
+        if (node.timestamp < timestamp)
+            return containsTimestamp(node.right, timestamp, keySuffix);
+        if (node.timestamp > timestamp)
+            return containsTimestamp(node.left, timestamp, keySuffix);
+        return keySuffix == null || node.key.endsWith(keySuffix)
+                || containsTimestamp(node.left, timestamp, keySuffix) || containsTimestamp(node.right, timestamp, keySuffix);
+    }
+
+    private static Entry insert(Entry node, Entry entry) {
+        if (node == null) {
+            entry.left = entry.right = null;
+            entry.size = entry.height = 1;
+            return entry;
+        }
+        if (compare(entry, node) < 0)
+            node.left = insert(node.left, entry);
+        else
+            node.right = insert(node.right, entry);
+        return balance(node);
+    }
+
+    private static Entry remove(Entry node, Entry entry) {
+        int cmp = compare(entry, node);
+        if (cmp < 0) {
+            node.left = remove(node.left, entry);
+        } else if (cmp > 0) {
+            node.right = remove(node.right, entry);
+        } else {
+            if (node.left == null)
+                return node.right;
+            if (node.right == null)
+                return node.left;
+            //replaced by the next entry in order
+            Entry next = node.right;
+            while (next.left != null)
+                next = next.left;
+            next.right = removeFirst(node.right);
+            next.left = node.left;
+            node = next;
+        }
+        return balance(node);
+    }
+
+    private static Entry removeFirst(Entry node) {
+        if (node.left == null)
+            return node.right;
+        node.left = removeFirst(node.left);
+        return balance(node);
+    }
+
+    private static Entry balance(Entry node) {
+        update(node);
+        int skew = height(node.left) - height(node.right);
+        if (skew > 1) {
+            if (height(node.left.left) < height(node.left.right))
+                node.left = rotateLeft(node.left);
+            return rotateRight(node);
+        }
+        if (skew < -1) {
+            if (height(node.right.right) < height(node.right.left))
+                node.right = rotateRight(node.right);
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private static Entry rotateRight(Entry node) {
+        Entry left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static Entry rotateLeft(Entry node) {
+        Entry right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+    private static void update(Entry node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    private static int size(Entry node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static int height(Entry node) {
+        return node != null ? node.height : 0;
+    }
+
+    //Oldest first. Ties are broken by the push id, which Firebase generates in chronological order
+    private static int compare(Entry a, Entry b) {
+        if (a.timestamp != b.timestamp)
+            return a.timestamp < b.timestamp ? -1 : 1;
+        return a.key.compareTo(b.key);
+    }
+}
@@ -0,0 +1,178 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/*
+Pull parser reading a JSON document one token at a time, so that a document of any size is read in constant memory:
+only the current token is kept. Numbers are read as Long when integral, Double otherwise.
+It is lenient where Firebase console exports are: commas are separators only, so a trailing comma
+(as in 'Firebase export/door-export.json') is accepted.
+*/
+
+public class JsonTokenReader {
+
+    public static final int BEGIN_OBJECT = 1, END_OBJECT = 2, BEGIN_ARRAY = 3, END_ARRAY = 4;
+    public static final int NAME = 5, STRING = 6, NUMBER = 7, BOOLEAN = 8, NULL = 9, END_DOCUMENT = 10;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int position, limit;
+    private long consumed;          //characters read before the buffer
+
+    private final StringBuilder text = new StringBuilder();
+    private int token;
+
+    public JsonTokenReader(Reader in) {
+        this.in = in;
+    }
+
+    //Reads the next token: one of the constants above
+    public int next() throws IOException {
+        int c = skipSeparators();
+        switch (c) {
+            case -1:
+                return token = END_DOCUMENT;
+            case '{':
+                return token = BEGIN_OBJECT;
+            case '}':
+                return token = END_OBJECT;
+            case '[':
+                return token = BEGIN_ARRAY;
+            case ']':
+                return token = END_ARRAY;
+            case '"':
+                readString();
+                //a string followed by ':' is a member name
+                int after = skipSeparators();
+                if (after == ':')
+                    return token = NAME;
+                if (after != -1)
+                    position--;
+                return token = STRING;
+        }
+
+        text.setLength(0);
+        text.append((char) c);
+        while (true) {
+            int d = read();
+            if (d == -1)
+                break;
+            if (d == ',' || d == ':' || d == '}' || d == ']' || d <= ' ') {
+                position--;
+                break;
+            }
+            text.append((char) d);
+        }
+
+        String literal = text.toString();
+        if (literal.equals("true") || literal.equals("false"))
+            return token = BOOLEAN;
+        if (literal.equals("null"))
+            return token = NULL;
+        if (c == '-' || (c >= '0' && c <= '9'))
+            return token = NUMBER;
+        throw new IOException("Unexpected '" + literal + "' at character " + getPosition());
+    }
+
+    //Text of the current NAME, STRING, NUMBER or BOOLEAN token
+    public String getText() {
+        return text.toString();
+    }
+
+    //Value of the current scalar token: String, Long, Double, Boolean or null
+    public Object getValue() throws IOException {
+        switch (token) {
+            case STRING:
+                return text.toString();
+            case BOOLEAN:
+                return text.charAt(0) == 't';
+            case NULL:
+                return null;
+            case NUMBER:
+                String number = text.toString();
+                try {
+                    if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0)
+                        return Long.parseLong(number);
+                    return Double.parseDouble(number);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad number '" + number + "' at character " + getPosition());
+                }
+        }
+        throw new IOException("No value at character " + getPosition());
+    }
+
+    //Skips the value that starts with the current token, with everything nested in it
+    public void skipValue() throws IOException {
+        int depth = 0;
+        int t = token;
+        while (true) {
+            if (t == BEGIN_OBJECT || t == BEGIN_ARRAY)
+                depth++;
+            else if (t == END_OBJECT || t == END_ARRAY)
+                depth--;
+            else if (t == END_DOCUMENT)
+                throw new IOException("Unexpected end of document");
+            if (depth <= 0 && t != NAME)
+                return;
+            t = next();
+        }
+    }
+
+    //Characters read so far
+    public long getPosition() {
+        return consumed + position;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            consumed += limit;
+            position = 0;
+            limit = in.read(buffer, 0, buffer.length);
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private int skipSeparators() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ',' || (c >= 0 && c <= ' '));
+        return c;
+    }
+
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1)
+                throw new IOException("Unterminated string at character " + getPosition());
+            if (c == '"')
+                return;
+            if (c != '\\') {
+                text.append((char) c);
+                continue;
+            }
+            c = read();
+            switch (c) {
+                case 'n': text.append('\n'); break;
+                case 't': text.append('\t'); break;
+                case 'r': text.append('\r'); break;
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++)
+                        code = code * 16 + Character.digit(read(), 16);
+                    text.append((char) code);
+                    break;
+                default:
+                    text.append((char) c);
+            }
+        }
+    }
+}
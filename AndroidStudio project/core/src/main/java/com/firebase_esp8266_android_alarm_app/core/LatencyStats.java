@@ -0,0 +1,78 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.Locale;
+
+/*
+End-to-end delays of the door events, in milliseconds, one rolling histogram per stage.
+Every delay is measured against a server timestamp carried by the event, so the stages tell
+where the time goes: ESP8266 and Firebase, the cloud function, FCM, the listener delivery or the UI.
+A negative delay means the server clock estimate was off: it is counted and recorded as 0. Thread-safe.
+*/
+
+public class LatencyStats {
+
+    public static final int DOOR_LISTENER = 0;      //door state written -> 'door_open' listener in MainActivity
+    public static final int DOOR_UI = 1;            //door state written -> frame showing the new door picture
+    public static final int HISTORY_FUNCTION = 2;   //history pushed -> timestamp set by the cloud function
+    public static final int HISTORY_LISTENER = 3;   //timestamp set by the cloud function -> history listener
+    public static final int FCM_FUNCTION = 4;       //history pushed -> FCM message sent by the cloud function
+    public static final int FCM_DELIVERY = 5;       //FCM message sent -> received by MyFirebaseMessagingService
+    public static final int FCM_TOTAL = 6;          //history pushed -> FCM message received
+
+    public static final String[] STAGE_NAMES = {"door.listener", "door.ui", "history.function", "history.listener",
+            "fcm.function", "fcm.delivery", "fcm.total"};
+
+    private final RollingHistogram[] stages = new RollingHistogram[STAGE_NAMES.length];
+    private final long[] max = new long[STAGE_NAMES.length];
+    private int negatives;
+
+    public LatencyStats(int window) {
+        for (int i = 0; i < stages.length; i++)
+            stages[i] = new RollingHistogram(window);
+    }
+
+    public synchronized void record(int stage, long delayMs) {
+        if (delayMs < 0) {
+            negatives++;
+            delayMs = 0;
+        }
+        stages[stage].add(delayMs);
+        max[stage] = Math.max(max[stage], delayMs);
+    }
+
+    public synchronized long percentile(int stage, double p) {
+        return stages[stage].percentile(p);
+    }
+
+    //Number of delays recorded since the start, including the ones that left the window
+    public synchronized long getCount(int stage) {
+        return stages[stage].getTotal();
+    }
+
+    public synchronized long getMax(int stage) {
+        return max[stage];
+    }
+
+    public synchronized int getNegativeCount() {
+        return negatives;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i].clear();
+            max[i] = 0;
+        }
+        negatives = 0;
+    }
+
+    //One line per stage: name, count, p50, p95, p99 and max in milliseconds. 'csv' separates the fields with commas
+    public synchronized String format(boolean csv) {
+        StringBuilder text = new StringBuilder(csv ? "stage,count,p50_ms,p95_ms,p99_ms,max_ms\n"
+                : String.format(Locale.US, "%-17s %5s %6s %6s %6s %6s%n", "stage", "n", "p50", "p95", "p99", "max"));
+        String pattern = csv ? "%s,%d,%d,%d,%d,%d%n" : "%-17s %5d %6d %6d %6d %6d%n";
+        for (int i = 0; i < stages.length; i++)
+            text.append(String.format(Locale.US, pattern, STAGE_NAMES[i], stages[i].getTotal(),
+                    stages[i].percentile(0.5), stages[i].percentile(0.95), stages[i].percentile(0.99), max[i]));
+        return text.toString();
+    }
+}
@@ -0,0 +1,241 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+
+/*
+Reads the compact door status served by the ESP8266 on the local network ('/status', see NodeMCU_DOOR.ino),
+a faster path than the Firebase round trip while the phone is on the same Wi-Fi.
+Long polling: each request passes the sequence number of the last status received, and the board holds it until
+its door changes (the sequence moves on) or for LONG_POLL_S, then answers with its current status.
+A status is delivered only when its sequence differs from the previous one. A request that fails, times out
+or reaches another door is a failure: after FAILURES_TO_LOSE in a row the link is reported down (also when
+it never came up), and requests are retried every 'retryMs'. Runs on its own thread, which calls the listener.
+*/
+
+public class LocalStatusClient {
+
+    public interface Listener {
+        void onStatus(Status status);
+
+        void onLinkChanged(boolean up);
+    }
+
+    public static class Status {
+        public final long seq;              //confirmed door changes since the board started
+        public final boolean doorOpen;
+        public final long openSeconds;
+        public final boolean siren, heartbeat;
+        public final String site, door;
+
+        Status(long seq, boolean doorOpen, long openSeconds, boolean siren, boolean heartbeat, String site, String door) {
+            this.seq = seq;
+            this.doorOpen = doorOpen;
+            this.openSeconds = openSeconds;
+            this.siren = siren;
+            this.heartbeat = heartbeat;
+            this.site = site;
+            this.door = door;
+        }
+
+        //Whether the board is the one of this door. The board of the original '/alarm' door has an empty site id
+        public boolean isDoor(DoorAddress address) {
+            return address.site.equals(site) && (address.isLegacy() || address.door.equals(door));
+        }
+
+        //{"seq":12,"door_open":true,"open_s":40,"siren":false,"heartbeat":true,"site":"","door":"front"}
+        public static Status parse(Reader in) throws IOException {
+            JsonTokenReader json = new JsonTokenReader(in);
+            if (json.next() != JsonTokenReader.BEGIN_OBJECT)
+                throw new IOException("Not a door status");
+
+            Object seq = null, doorOpen = null, openSeconds = null, siren = null, heartbeat = null, site = null, door = null;
+            while (json.next() == JsonTokenReader.NAME) {
+                String name = json.getText();
+                int token = json.next();
+                if (token == JsonTokenReader.BEGIN_OBJECT || token == JsonTokenReader.BEGIN_ARRAY) {
+                    json.skipValue();
+                    continue;
+                }
+                Object value = json.getValue();
+                switch (name) {
+                    case "seq":
+                        seq = value;
+                        break;
+                    case "door_open":
+                        doorOpen = value;
+                        break;
+                    case "open_s":
+                        openSeconds = value;
+                        break;
+                    case "siren":
+                        siren = value;
+                        break;
+                    case "heartbeat":
+                        heartbeat = value;
+                        break;
+                    case "site":
+                        site = value;
+                        break;
+                    case "door":
+                        door = value;
+                        break;
+                }
+            }
+            if (!(seq instanceof Long) || !(doorOpen instanceof Boolean))
+                throw new IOException("Incomplete door status");
+            return new Status((Long) seq, (Boolean) doorOpen, openSeconds instanceof Long ? (Long) openSeconds : 0,
+                    Boolean.TRUE.equals(siren), Boolean.TRUE.equals(heartbeat),
+                    site instanceof String ? (String) site : "", door instanceof String ? (String) door : "");
+        }
+    }
+
+    public static final int CONNECT_TIMEOUT_MS = 1000;
+    public static final int LONG_POLL_S = 10;
+    public static final int FAILURES_TO_LOSE = 2;
+    public static final long RETRY_MS = 30000;
+
+    private final String baseUrl;
+    private final DoorAddress door;
+    private final Listener listener;
+    long retryMs = RETRY_MS;
+
+    private volatile boolean running;
+    private Thread thread;
+    private volatile HttpURLConnection connection;
+
+    //guarded by 'this'
+    private final RollingHistogram roundTrips = new RollingHistogram(256);
+    private long requests, failures, statuses;
+
+    //'baseUrl' without trailing slash, e.g. "http://192.168.0.20:80"
+    public LocalStatusClient(String baseUrl, DoorAddress door, Listener listener) {
+        this.baseUrl = baseUrl;
+        this.door = door;
+        this.listener = listener;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, "local-status");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //Stops polling. The listener is not called after the thread noticed it
+    public synchronized void stop() {
+        if (!running)
+            return;
+        running = false;
+        thread.interrupt();
+        HttpURLConnection current = connection;
+        if (current != null)
+            current.disconnect();       //ends a held request at once
+    }
+
+    private void poll() {
+        long seq = -1;
+        int failed = 0;
+        boolean up = false;
+        while (running) {
+            long start = System.nanoTime();
+            try {
+                Status status = request(seq);
+                if (!status.isDoor(door))
+                    throw new IOException("Status of another door: " + status.site + "/" + status.door);
+
+                synchronized (this) {
+                    requests++;
+                    if (seq < 0)        //answered at once: the round trip of the local path
+                        roundTrips.add((System.nanoTime() - start) / 1000000);
+                }
+                failed = 0;
+                if (!up && running) {
+                    up = true;
+                    listener.onLinkChanged(true);
+                }
+                if (status.seq != seq && running) {
+                    seq = status.seq;
+                    synchronized (this) {
+                        statuses++;
+                    }
+                    listener.onStatus(status);
+                }
+            } catch (IOException e) {
+                if (!running)
+                    break;
+                synchronized (this) {
+                    requests++;
+                    failures++;
+                }
+                seq = -1;
+                if (++failed == FAILURES_TO_LOSE) {
+                    up = false;
+                    listener.onLinkChanged(false);
+                }
+                if (failed >= FAILURES_TO_LOSE && !sleep(retryMs))
+                    break;
+            } catch (RuntimeException e) {
+                if (running)
+                    throw e;
+                break;      //HttpURLConnection may fail this way when stop() disconnects it during the request
+            }
+        }
+    }
+
+    private Status request(long seq) throws IOException {
+        String query = seq < 0 ? "" : "?since=" + seq + "&wait=" + LONG_POLL_S;
+        HttpURLConnection current = (HttpURLConnection) new URL(baseUrl + "/status" + query).openConnection();
+        connection = current;
+        try {
+            current.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            current.setReadTimeout(seq < 0 ? CONNECT_TIMEOUT_MS * 2 : (LONG_POLL_S + 5) * 1000);
+            current.setUseCaches(false);
+            if (current.getResponseCode() != HttpURLConnection.HTTP_OK)
+                throw new IOException("HTTP " + current.getResponseCode());
+            Reader in = new InputStreamReader(current.getInputStream(), "UTF-8");
+            try {
+                return Status.parse(in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection = null;
+            current.disconnect();
+        }
+    }
+
+    private boolean sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    //p between 0 and 1, over the recent requests answered at once. Returns -1 when there was none
+    public synchronized long getRoundTripPercentile(double p) {
+        return roundTrips.percentile(p);
+    }
+
+    public synchronized String getStats() {
+        return String.format(Locale.US, "%s: %d requests, %d failed, %d statuses, round trip p50 %d ms  p95 %d ms",
+                baseUrl, requests, failures, statuses, roundTrips.percentile(0.5), roundTrips.percentile(0.95));
+    }
+}
@@ -0,0 +1,75 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.HashMap;
+
+/*
+Merges door messages that arrive close together into a single notification, and limits how often it makes sound.
+- The first message of a burst always alerts.
+- Messages arriving less than 'windowMs' after the previous one update the same notification ("opened 7 times in 40 s").
+- Within a burst the notification sounds again at most once every 'minAlertIntervalMs'.
+- Bursts are kept per channel and per door: openings of another door never merge into this one.
+- Messages on an exempt channel (the door open for too long warning) are never merged nor silenced.
+Times must come from a monotonic clock. Not thread-safe: FCM delivers messages one at a time.
+*/
+
+public class NotificationCoalescer {
+
+    public static class Decision {
+        public boolean alert;          //play sound/vibration, otherwise update silently
+        public int count;              //messages merged in the current burst
+        public long burstStartMs;
+    }
+
+    private static class Burst {
+        long startMs, lastMs, lastAlertMs;
+        int count;
+    }
+
+    private final long windowMs, minAlertIntervalMs;
+    private final String exemptChannel;
+    private final HashMap<String, Burst> bursts = new HashMap<String, Burst>();
+
+    public NotificationCoalescer(long windowMs, long minAlertIntervalMs, String exemptChannel) {
+        this.windowMs = windowMs;
+        this.minAlertIntervalMs = minAlertIntervalMs;
+        this.exemptChannel = exemptChannel;
+    }
+
+    //'door' is the DoorAddress key of the door the message is about ("" for the original '/alarm' door)
+    public Decision onMessage(String channel, String door, long nowMs) {
+        Decision decision = new Decision();
+
+        if (channel.equals(exemptChannel)) {
+            decision.alert = true;
+            decision.count = 1;
+            decision.burstStartMs = nowMs;
+            return decision;
+        }
+
+        String key = channel + '|' + door;
+        Burst burst = bursts.get(key);
+        if (burst == null) {
+            burst = new Burst();
+            bursts.put(key, burst);
+        }
+
+        //a message after a quiet period starts a new burst, and always alerts
+        if (burst.count == 0 || nowMs - burst.lastMs > windowMs) {
+            burst.startMs = nowMs;
+            burst.count = 0;
+            burst.lastAlertMs = nowMs;
+            decision.alert = true;
+        }
+        else if (nowMs - burst.lastAlertMs >= minAlertIntervalMs) {
+            burst.lastAlertMs = nowMs;
+            decision.alert = true;
+        }
+
+        burst.count++;
+        burst.lastMs = nowMs;
+
+        decision.count = burst.count;
+        decision.burstStartMs = burst.startMs;
+        return decision;
+    }
+}
@@ -0,0 +1,60 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+/*
+Chooses how a door alarm message is notified: the notification channel (which defines the sound)
+and the notification id, accordingly to the message and to the user notification option.
+Door notifications are tagged with the door the message is about, taken from its FCM topic, so that each door has its own.
+The channel ids must match the ones sent by the Firebase cloud function.
+*/
+
+public class NotificationRouter {
+
+    public static final String CHANNEL_LONG = "channel_id_long";
+    public static final String CHANNEL_SIREN = "channel_id_siren";
+    public static final String CHANNEL_DEFAULT = "channel_id_default";
+
+    public static final String DOOR_LONG_MESSAGE = "Porta aberta por mais de 5 minutos!";
+
+    //Notification option: 0 = disabled, 1 = default sound, 2 = siren sound
+    public static final int OPTION_SIREN = 2;
+
+    public static final int NOTIFICATION_ID_DOOR = 0, NOTIFICATION_ID_LONG = 1;
+
+    //ESP8266 link lost or recovered, posted by the background watchdog (tagged per door)
+    public static final int NOTIFICATION_ID_LINK = 2;
+
+    public static String route(String messageBody, int notificationOption) {
+        if (DOOR_LONG_MESSAGE.equals(messageBody))
+            return CHANNEL_LONG;
+        if (notificationOption == OPTION_SIREN)
+            return CHANNEL_SIREN;
+        return CHANNEL_DEFAULT;
+    }
+
+    //The door open for too long warning has its own notification, door openings share another one
+    public static int notificationId(String channel) {
+        return CHANNEL_LONG.equals(channel) ? NOTIFICATION_ID_LONG : NOTIFICATION_ID_DOOR;
+    }
+
+    //DoorAddress key of the door of a message, from its sender ("/topics/porta_aberta.site.door", see DoorAddress.topic)
+    public static String doorKey(String from) {
+        if (from == null)
+            return "";
+        String topic = from.startsWith("/topics/") ? from.substring("/topics/".length()) : from;
+        int first = topic.indexOf('.');
+        int second = first < 0 ? -1 : topic.indexOf('.', first + 1);
+        if (second < 0)
+            return "";          //original '/alarm' door topics have no site nor door
+        return topic.substring(first + 1, second) + "/" + topic.substring(second + 1);
+    }
+
+    //Notification tag of a door: its openings replace each other, never those of another door
+    public static String doorTag(String doorKey) {
+        return "door:" + doorKey;
+    }
+
+    //Text of a notification that merges 'count' door openings
+    public static String burstText(int count, long elapsedMs) {
+        return "Porta aberta " + count + " vezes em " + elapsedMs / 1000 + " s";
+    }
+}
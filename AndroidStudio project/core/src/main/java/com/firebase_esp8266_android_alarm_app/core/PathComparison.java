@@ -0,0 +1,88 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.Locale;
+
+/*
+Compares the two paths delivering the same door changes: the ESP8266 status on the local network and the
+Firebase listener. The first value of a path is its baseline; each later change of value is an arrival.
+An arrival is matched with the arrival of the same value on the other path within MATCH_WINDOW_MS,
+and the lead of the path that delivered it first is recorded. Changes seen by one path only
+(link down, flap filtered by the other path) are counted as unmatched. Times are monotonic milliseconds. Thread-safe.
+*/
+
+public class PathComparison {
+
+    public static final int LOCAL = 0, CLOUD = 1;
+    public static final String[] PATH_NAMES = {"local", "firebase"};
+    public static final long MATCH_WINDOW_MS = 10000;
+
+    //What a value was for its path
+    public static final int BASELINE = 0, UNCHANGED = 1, FIRST = 2, LATE = 3;
+
+    private final Boolean[] last = new Boolean[2];
+    private final RollingHistogram[] leads = {new RollingHistogram(256), new RollingHistogram(256)};
+
+    private int pendingPath = -1;       //path of the arrival waiting for the other one
+    private boolean pendingValue;
+    private long pendingAt;
+    private int unmatched;
+
+    //Returns BASELINE, UNCHANGED, FIRST (a change not yet seen by the other path) or LATE (a copy of a change it delivered first)
+    public synchronized int onValue(int path, boolean open, long nowMs) {
+        if (pendingPath >= 0 && nowMs - pendingAt > MATCH_WINDOW_MS) {
+            unmatched++;
+            pendingPath = -1;
+        }
+
+        Boolean previous = last[path];
+        last[path] = open;
+        if (previous == null)
+            return BASELINE;
+        if (previous == open)
+            return UNCHANGED;
+
+        if (pendingPath >= 0 && pendingPath != path && pendingValue == open) {
+            leads[pendingPath].add(nowMs - pendingAt);
+            pendingPath = -1;
+            return LATE;
+        }
+        if (pendingPath >= 0)
+            unmatched++;
+        pendingPath = path;
+        pendingValue = open;
+        pendingAt = nowMs;
+        return FIRST;
+    }
+
+    //Whether the path delivered a value since it (re)started
+    public synchronized boolean hasValue(int path) {
+        return last[path] != null;
+    }
+
+    //The path starts over (link lost, listener attached again): its next value is a new baseline
+    public synchronized void reset(int path) {
+        last[path] = null;
+    }
+
+    //Changes this path delivered first
+    public synchronized long getFirstCount(int path) {
+        return leads[path].getTotal();
+    }
+
+    //p between 0 and 1: how long before the other path this one delivered a change. Returns -1 when there was none
+    public synchronized long getLeadPercentile(int path, double p) {
+        return leads[path].percentile(p);
+    }
+
+    public synchronized int getUnmatchedCount() {
+        return unmatched;
+    }
+
+    public synchronized String getStats() {
+        StringBuilder stats = new StringBuilder();
+        for (int path = 0; path < PATH_NAMES.length; path++)
+            stats.append(String.format(Locale.US, "%s first %d times, lead p50 %d ms  p95 %d ms%n", PATH_NAMES[path],
+                    leads[path].getTotal(), leads[path].percentile(0.5), leads[path].percentile(0.95)));
+        return stats.append("unmatched changes ").append(unmatched).toString();
+    }
+}
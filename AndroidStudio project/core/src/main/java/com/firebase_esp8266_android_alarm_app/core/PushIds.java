@@ -0,0 +1,48 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+/*
+Firebase push ids start with the creation time in milliseconds, as 8 characters of a 64 character alphabet.
+The ESP8266 pushes history entries through the REST API, so their ids are generated with the server clock:
+the id gives the time the door opening reached Firebase, before the cloud function ran.
+*/
+
+public class PushIds {
+
+    private static final String PUSH_CHARS = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+
+    //Creation time of a push id in milliseconds since 01/01/1970, -1 if the key is not a push id
+    public static long timestamp(String key) {
+        if (key == null || key.length() < 8)
+            return -1;
+
+        long time = 0;
+        for (int i = 0; i < 8; i++) {
+            int digit = PUSH_CHARS.indexOf(key.charAt(i));
+            if (digit < 0)
+                return -1;
+            time = time * 64 + digit;
+        }
+        return time;
+    }
+
+    //Shortest key sorting before every push id created at or after 'timestamp': a cursor for orderByKey().startAt/endAt
+    public static String startKey(long timestamp) {
+        char[] chars = new char[8];
+        for (int i = 7; i >= 0; i--) {
+            chars[i] = PUSH_CHARS.charAt((int) (timestamp % 64));
+            timestamp /= 64;
+        }
+        return new String(chars);
+    }
+
+    //Push id of 'timestamp' whose 12 last characters count 'sequence', for synthetic histories: sorted by time, then sequence
+    public static String key(long timestamp, long sequence) {
+        char[] chars = new char[20];
+        startKey(timestamp).getChars(0, 8, chars, 0);
+        for (int i = 19; i >= 8; i--) {
+            chars[i] = PUSH_CHARS.charAt((int) (sequence % 64));
+            sequence /= 64;
+        }
+        return new String(chars);
+    }
+}
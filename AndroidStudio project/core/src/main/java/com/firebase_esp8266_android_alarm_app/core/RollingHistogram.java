@@ -0,0 +1,87 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.Arrays;
+
+/*
+Keeps the last 'capacity' samples (e.g. milliseconds) in a ring buffer and computes percentiles, mean and jitter over them.
+Jitter is the mean absolute difference between consecutive samples. Not thread-safe.
+*/
+
+public class RollingHistogram {
+
+    private final long[] samples;
+    private final long[] sorted;      //scratch buffer reused by percentile()
+    private int next, count;
+    private long total;               //number of samples ever added
+    private long last;
+    private boolean hasLast;          //samples may be negative (e.g. leads), so 'last' has no spare value for "none"
+    private long jitterSum;
+    private final long[] jitters;     //|sample - previous sample|, in the same ring positions
+
+    public RollingHistogram(int capacity) {
+        samples = new long[capacity];
+        sorted = new long[capacity];
+        jitters = new long[capacity];
+    }
+
+    public void add(long sample) {
+        long jitter = hasLast ? Math.abs(sample - last) : 0;
+        last = sample;
+        hasLast = true;
+
+        if (count == samples.length)
+            jitterSum -= jitters[next];
+        else
+            count++;
+
+        samples[next] = sample;
+        jitters[next] = jitter;
+        jitterSum += jitter;
+        next = (next + 1) % samples.length;
+        total++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    //Most recent sample, 0 before the first one
+    public long getLast() {
+        return last;
+    }
+
+    //p between 0 and 1. Returns -1 when there are no samples
+    public long percentile(double p) {
+        if (count == 0)
+            return -1;
+        System.arraycopy(samples, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        int index = (int) Math.ceil(p * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    public long mean() {
+        if (count == 0)
+            return -1;
+        long sum = 0;
+        for (int i = 0; i < count; i++)
+            sum += samples[i];
+        return sum / count;
+    }
+
+    public long jitter() {
+        return count == 0 ? 0 : jitterSum / count;
+    }
+
+    public void clear() {
+        next = count = 0;
+        total = 0;
+        last = 0;
+        hasLast = false;
+        jitterSum = 0;
+    }
+}
@@ -0,0 +1,122 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+Decides which FCM topic calls (subscribe or unsubscribe) bring the device to the requested topics, with as few calls as possible.
+The topics the device is confirmed to be subscribed (or unsubscribed) to are kept: only the calls needed to reach the
+requested state are issued, and a topic with a call in flight is checked again when it completes.
+A failed call is retried after a delay that doubles from RETRY_MIN_MS up to RETRY_MAX_MS, back to RETRY_MIN_MS
+on a new request. Subscriptions belong to the FCM token: a new token forgets the confirmed state, and calls
+issued for the previous one are not recorded. The owner issues the calls, persists the confirmed state, and runs
+reconcile() DEBOUNCE_MS after the last request and after the delay returned by onComplete().
+*/
+
+public class TopicReconciler {
+
+    public static final long DEBOUNCE_MS = 500;
+    public static final long RETRY_MIN_MS = 2000, RETRY_MAX_MS = 5 * 60 * 1000;
+
+    //A subscribe or unsubscribe call to issue, passed back to onComplete()
+    public static class Call {
+        public final String topic;
+        public final boolean subscribe;
+        final int generation;
+
+        Call(String topic, boolean subscribe, int generation) {
+            this.topic = topic;
+            this.subscribe = subscribe;
+            this.generation = generation;
+        }
+    }
+
+    private final Set<String> always;           //topics whose state is checked even when never requested
+    private final Set<String> subscribed, unsubscribed;
+    private final Set<String> inFlight = new HashSet<String>();
+    private Set<String> desired;
+    private long retryDelayMs = RETRY_MIN_MS;
+    private int callCount;
+    private int tokenGeneration;
+
+    //'alwaysChecked': topics with a possibly unknown state (e.g. subscribed by older versions). Confirmed state as persisted
+    public TopicReconciler(String[] alwaysChecked, Set<String> subscribed, Set<String> unsubscribed) {
+        always = new HashSet<String>(Arrays.asList(alwaysChecked));
+        this.subscribed = new HashSet<String>(subscribed);
+        this.unsubscribed = new HashSet<String>(unsubscribed);
+    }
+
+    //The topics wanted now. reconcile() is due DEBOUNCE_MS later: requests made meanwhile replace this one
+    public void request(Set<String> topics) {
+        desired = new HashSet<String>(topics);
+        retryDelayMs = RETRY_MIN_MS;
+    }
+
+    //New FCM token: it has no subscriptions yet
+    public void onTokenChanged() {
+        tokenGeneration++;
+        subscribed.clear();
+        unsubscribed.clear();
+    }
+
+    //Calls to issue now, each one followed by onComplete(). Empty when nothing was requested or all is confirmed
+    public List<Call> reconcile() {
+        List<Call> calls = new ArrayList<Call>();
+        if (desired == null)
+            return calls;
+
+        //topics to check: the wanted ones, the ones to drop, and those whose state may be unknown
+        Set<String> topics = new HashSet<String>(desired);
+        topics.addAll(subscribed);
+        topics.addAll(always);
+
+        for (String topic : topics) {
+            if (inFlight.contains(topic))
+                continue;     //checked again when the call completes
+
+            boolean subscribe = desired.contains(topic);
+            if (subscribe && subscribed.contains(topic))
+                continue;
+            if (!subscribe && unsubscribed.contains(topic))
+                continue;
+
+            inFlight.add(topic);
+            callCount++;
+            calls.add(new Call(topic, subscribe, tokenGeneration));
+        }
+        return calls;
+    }
+
+    //Returns when to reconcile again: 0 at once, or the retry delay after a failure
+    public long onComplete(Call call, boolean success) {
+        inFlight.remove(call.topic);
+        if (call.generation != tokenGeneration)
+            return 0;       //made for the previous token: says nothing about this one
+
+        subscribed.remove(call.topic);
+        unsubscribed.remove(call.topic);
+        if (success) {
+            (call.subscribe ? subscribed : unsubscribed).add(call.topic);
+            return 0;
+        }
+        long delay = retryDelayMs;
+        retryDelayMs = Math.min(retryDelayMs * 2, RETRY_MAX_MS);
+        return delay;
+    }
+
+    public Set<String> getSubscribed() {
+        return new HashSet<String>(subscribed);
+    }
+
+    public Set<String> getUnsubscribed() {
+        return new HashSet<String>(unsubscribed);
+    }
+
+    //Number of calls issued since the app started
+    public int getCallCount() {
+        return callCount;
+    }
+}
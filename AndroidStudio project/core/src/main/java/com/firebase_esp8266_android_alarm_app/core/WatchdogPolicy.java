@@ -0,0 +1,65 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+/*
+Decides, from the 'last_seen' server timestamp written by the ESP8266 every minute, whether a door went offline
+or came back, and when the background watchdog should check it again.
+The check interval adapts: it starts at MIN_INTERVAL_MS and doubles after each check that found the board online,
+up to MAX_INTERVAL_MS, so a stable board costs a few reads a day. While the board is offline, or after a failed read,
+it goes back to MIN_INTERVAL_MS to notice the recovery early.
+A door that never wrote 'last_seen' (older firmware) is not reported.
+The state is two values, so that it can be kept in SharedPreferences between wakeups.
+*/
+
+public class WatchdogPolicy {
+
+    public static final long OFFLINE_AFTER_MS = 5 * 60 * 1000L;
+    public static final long MIN_INTERVAL_MS = 15 * 60 * 1000L;    //shortest periodic interval allowed by WorkManager
+    public static final long MAX_INTERVAL_MS = 4 * 60 * 60 * 1000L;
+
+    public static final int NONE = 0, WENT_OFFLINE = 1, BACK_ONLINE = 2;
+
+    private boolean offline;
+    private int onlineChecks;
+
+    public WatchdogPolicy(boolean offline, int onlineChecks) {
+        this.offline = offline;
+        this.onlineChecks = onlineChecks;
+    }
+
+    //'lastSeen' in server time, <= 0 if never written. Returns NONE, WENT_OFFLINE or BACK_ONLINE
+    public int onCheck(long lastSeen, long serverNow) {
+        if (lastSeen <= 0)
+            return NONE;
+
+        boolean nowOffline = serverNow - lastSeen > OFFLINE_AFTER_MS;
+        int event = NONE;
+        if (nowOffline && !offline)
+            event = WENT_OFFLINE;
+        else if (!nowOffline && offline)
+            event = BACK_ONLINE;
+
+        offline = nowOffline;
+        onlineChecks = offline || event == BACK_ONLINE ? 0 : onlineChecks + 1;
+        return event;
+    }
+
+    //A failed read says nothing about the board: check again soon, without changing the state
+    public void onReadFailed() {
+        onlineChecks = 0;
+    }
+
+    public long nextDelayMs() {
+        if (offline || onlineChecks == 0)
+            return MIN_INTERVAL_MS;
+        long delay = MIN_INTERVAL_MS << Math.min(onlineChecks - 1, 10);
+        return Math.min(delay, MAX_INTERVAL_MS);
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public int getOnlineChecks() {
+        return onlineChecks;
+    }
+}
@@ -0,0 +1,87 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Door node backups: the Firebase console export is read as is (trailing comma included),
+ * and a written backup reads back the same values and history.
+ */
+public class BackupTest {
+
+    private static final String CONSOLE_EXPORT = "{\n  \"alarm\" : {\n    \"disabled\" : false,\n    \"door_heartbeat\" : \"OFF\",\n"
+            + "    \"door_open_long_time\" : 240,\n    \"history\" : {\n      \"-M3haa06MFyCrpAMD-IJ\" : 1585608027451,\n"
+            + "      \"-M3hi671fQJwqWVVZgEe\" : \"\"\n    },\n    \"local_siren\" : false\n  },\n}";
+
+    private static class Collector implements BackupReader.Sink {
+        final Map<String, Object> values = new LinkedHashMap<String, Object>();
+        final Map<String, Object> history = new LinkedHashMap<String, Object>();
+        final Map<String, Object> buckets = new LinkedHashMap<String, Object>();
+
+        @Override
+        public void onValue(String name, Object value) {
+            values.put(name, value);
+        }
+
+        @Override
+        public void onHistoryEntry(String key, Object value) {
+            history.put(key, value);
+        }
+
+        @Override
+        public void onBucket(String day, Object value) {
+            buckets.put(day, value);
+        }
+    }
+
+    @Test
+    public void readsConsoleExport() throws IOException {
+        Collector collector = new Collector();
+        new BackupReader(new StringReader(CONSOLE_EXPORT)).read(collector);
+
+        assertEquals(false, collector.values.get("disabled"));
+        assertEquals("OFF", collector.values.get("door_heartbeat"));
+        assertEquals(240L, collector.values.get("door_open_long_time"));
+        assertEquals(false, collector.values.get("local_siren"));
+        assertEquals(1585608027451L, collector.history.get("-M3haa06MFyCrpAMD-IJ"));
+        assertEquals("", collector.history.get("-M3hi671fQJwqWVVZgEe"));   //pushed by the ESP8266, not yet timestamped
+    }
+
+    @Test
+    public void backupReadsBack() throws IOException {
+        StringWriter out = new StringWriter();
+        BackupWriter writer = new BackupWriter(out);
+        writer.begin("alarm");
+        writer.value("disabled", true);
+        writer.value("door_open", null);
+        writer.value("door_heartbeat", "quote \" and \\ slash");
+        writer.beginHistory();
+        for (int i = 0; i < 10000; i++)
+            writer.historyEntry(PushIds.key(1585608027451L + i * 1000L, i), 1585608027451L + i * 1000L);
+        writer.endHistory();
+        writer.beginBuckets();
+        writer.bucket("2020-03-30", "ta0rz,rs");
+        assertEquals(10000, writer.end());
+
+        Collector collector = new Collector();
+        BackupReader reader = new BackupReader(new StringReader(out.toString()));
+        reader.read(collector);
+
+        assertEquals(2, collector.values.size());
+        assertEquals(true, collector.values.get("disabled"));
+        assertEquals("quote \" and \\ slash", collector.values.get("door_heartbeat"));
+        assertEquals(10000, reader.getHistoryCount());
+        assertEquals("ta0rz,rs", collector.buckets.get("2020-03-30"));
+        assertEquals(1585608027451L + 9999 * 1000L, collector.history.get(PushIds.key(1585608027451L + 9999 * 1000L, 9999)));
+        assertEquals(out.toString().trim().length(), reader.getPosition());
+        assertTrue(out.toString().startsWith("{\n  \"alarm\" : {"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Flaps suppressed by the debounce and hysteresis windows, and snapshot values (initial sync, reconnect) confirmed at once.
+ */
+public class DoorStateMachineTest {
+
+    private static final long T = 100000;
+
+    @Test
+    public void initialValueIsConfirmedAtOnce() {
+        DoorStateMachine machine = new DoorStateMachine(300, 1000);
+        DoorStateMachine.Transition transition = machine.onValue(false, T);
+
+        assertEquals(DoorStateMachine.Source.INITIAL, transition.source);
+        assertFalse(transition.open);
+        assertFalse(transition.isLive());
+    }
+
+    @Test
+    public void flapIsSuppressed() {
+        DoorStateMachine machine = new DoorStateMachine(300, 1000);
+        machine.onValue(false, T);
+
+        assertNull(machine.onValue(true, T + 2000));
+        assertEquals(T + 2300, machine.getDeadline());
+        assertNull(machine.onValue(false, T + 2100));       //interference: undone within the debounce window
+        assertNull(machine.poll(T + 2300));
+        assertEquals(2, machine.getSuppressedCount());
+
+        assertNull(machine.onValue(true, T + 3000));
+        DoorStateMachine.Transition transition = machine.poll(T + 3300);
+        assertTrue(transition.open);
+        assertTrue(transition.isLive());
+        assertEquals(T + 3000, transition.receivedMs);
+    }
+
+    @Test
+    public void hysteresisHoldsTheConfirmedState() {
+        DoorStateMachine machine = new DoorStateMachine(0, 1000);
+        machine.onValue(false, T);
+
+        assertTrue(machine.onValue(true, T + 5000).open);       //no debounce: confirmed at once
+        assertNull(machine.onValue(false, T + 5200));
+        assertEquals(T + 6000, machine.getDeadline());
+        assertNull(machine.poll(T + 5999));
+        assertFalse(machine.poll(T + 6000).open);
+    }
+
+    @Test
+    public void reconnectReplayIsTaggedOrDropped() {
+        DoorStateMachine machine = new DoorStateMachine(300, 1000);
+        machine.onValue(false, T);
+
+        machine.onReconnected();
+        assertNull(machine.onValue(false, T + 60000));           //stale: nothing changed while offline
+        assertEquals(1, machine.getStaleReplayCount());
+
+        machine.onReconnected();
+        DoorStateMachine.Transition transition = machine.onValue(true, T + 120000);
+        assertEquals(DoorStateMachine.Source.RECONNECT, transition.source);
+        assertTrue(transition.open);
+
+        //live again afterwards
+        assertNull(machine.onValue(false, T + 130000));
+        assertEquals(DoorStateMachine.Source.LIVE, machine.poll(T + 130300).source);
+    }
+
+    @Test
+    public void localValuesAreConfirmedAtOnce() {
+        DoorStateMachine machine = new DoorStateMachine(300, 1000);
+        machine.onValue(false, T);
+
+        //first status after the local link came up: a snapshot
+        assertNull(machine.onConfirmedValue(false, true, T + 1000));
+        DoorStateMachine.Transition transition = machine.onConfirmedValue(true, false, T + 5000);
+        assertEquals(DoorStateMachine.Source.LOCAL, transition.source);
+        assertTrue(transition.isLive());
+        assertEquals(-1, machine.getDeadline());
+
+        //a Firebase change pending in its debounce window is settled by the board
+        assertNull(machine.onConfirmedValue(true, false, T + 9000));
+        assertNull(machine.onValue(false, T + 10000));
+        transition = machine.onConfirmedValue(false, false, T + 10050);
+        assertEquals(DoorStateMachine.Source.LOCAL, transition.source);
+        assertEquals(-1, machine.getDeadline());
+        assertEquals(0, machine.getSuppressedCount());
+    }
+}
@@ -0,0 +1,103 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Openings counted by local hour, weekday and day (in the DAYS ring), and open duration percentiles within one bucket.
+ */
+public class DoorStatisticsTest {
+
+    private static final long T = 1585608027451L;    //Monday 2020-03-30 22:40:27 UTC
+    private static final long HOUR = 60 * 60 * 1000L, DAY = 24 * HOUR;
+
+    @Test
+    public void openingsByLocalHourAndWeekday() {
+        DoorStatistics utc = new DoorStatistics(TimeZone.getTimeZone("UTC"));
+        utc.addOpening(T);
+        utc.addOpening(T + 2 * HOUR);       //00:40 on Tuesday
+        assertEquals(1, utc.getOpeningsAtHour(22));
+        assertEquals(1, utc.getOpeningsAtHour(0));
+        assertEquals(1, utc.getOpeningsOnWeekday(1));
+        assertEquals(1, utc.getOpeningsOnWeekday(2));
+
+        //UTC-3: both on Monday, at 19:40 and 21:40
+        DoorStatistics local = new DoorStatistics(TimeZone.getTimeZone("GMT-03:00"));
+        local.addOpening(T);
+        local.addOpening(T + 2 * HOUR);
+        local.addOpening(T + 2 * HOUR + 60000);
+        assertEquals(1, local.getOpeningsAtHour(19));
+        assertEquals(2, local.getOpeningsAtHour(21));
+        assertEquals(3, local.getOpeningsOnWeekday(1));
+        assertEquals(21, local.getBusiestHour());
+        assertEquals(1, local.getBusiestWeekday());
+        assertEquals(3, local.getOpeningsOnDay(T));
+        assertEquals(3, local.getTotalOpenings());
+
+        //before 1970: weekdays and hours still right
+        DoorStatistics old = new DoorStatistics(TimeZone.getTimeZone("UTC"));
+        old.addOpening(-DAY + 5 * HOUR);    //Wednesday 1969-12-31 05:00
+        assertEquals(1, old.getOpeningsOnWeekday(3));
+        assertEquals(1, old.getOpeningsAtHour(5));
+    }
+
+    @Test
+    public void dayRingKeepsTheLastDays() {
+        DoorStatistics statistics = new DoorStatistics(TimeZone.getTimeZone("UTC"));
+        statistics.addOpening(T);
+        statistics.addOpening(T - HOUR);
+        statistics.addOpening(T - DAY);
+        statistics.addOpening(T - (DoorStatistics.DAYS - 1) * DAY);
+        statistics.addOpening(T - DoorStatistics.DAYS * DAY);     //same slot as T, older: out of the ring
+
+        assertEquals(2, statistics.getOpeningsOnDay(T));
+        assertEquals(0, statistics.getOpeningsOnDay(T - DoorStatistics.DAYS * DAY));
+        assertEquals(3, statistics.getOpeningsInLastDays(T, 2));
+        assertEquals(4, statistics.getOpeningsInLastDays(T, DoorStatistics.DAYS));
+        assertEquals(4, statistics.getOpeningsInLastDays(T, 365));
+        assertEquals(5, statistics.getTotalOpenings());
+
+        //a new day replaces the one DAYS days before it
+        statistics.addOpening(T + DoorStatistics.DAYS * DAY);
+        assertEquals(0, statistics.getOpeningsOnDay(T));
+        assertEquals(1, statistics.getOpeningsOnDay(T + DoorStatistics.DAYS * DAY));
+        assertEquals(1, statistics.getOpeningsOnDay(T - DAY));
+    }
+
+    @Test
+    public void durationPercentilesAreWithinOneBucket() {
+        DoorStatistics statistics = new DoorStatistics(TimeZone.getTimeZone("UTC"));
+        assertEquals(-1, statistics.getOpenDurationPercentileMs(0.5));
+        assertEquals(-1, statistics.getMeanOpenDurationMs());
+
+        //100 durations from 1 s to 100 s, and one of 2 days
+        for (int i = 1; i <= 100; i++)
+            statistics.addOpenDuration(i * 1000L);
+        statistics.addOpenDuration(2 * DAY);
+        statistics.addOpenDuration(-1);             //ignored
+
+        assertEquals(101, statistics.getOpenDurationCount());
+        assertEquals((5050 * 1000L + 2 * DAY) / 101, statistics.getMeanOpenDurationMs());
+        assertEquals(1000, statistics.getOpenDurationPercentileMs(0));
+        assertBucket(51000, statistics.getOpenDurationPercentileMs(0.5));
+        assertBucket(96000, statistics.getOpenDurationPercentileMs(0.95));
+        assertBucket(2 * DAY, statistics.getOpenDurationPercentileMs(1));
+    }
+
+    @Test
+    public void longerDurationsGoToTheLastBucket() {
+        DoorStatistics statistics = new DoorStatistics(TimeZone.getTimeZone("UTC"));
+        statistics.addOpenDuration(30 * DAY);
+        long last = statistics.getOpenDurationPercentileMs(1);
+        assertTrue(last > 2 * DAY && last < 3 * DAY);
+    }
+
+    //The upper limit of a bucket is at most 20% above the durations it holds
+    private static void assertBucket(long durationMs, long limitMs) {
+        assertTrue(limitMs + " for " + durationMs, limitMs >= durationMs && limitMs <= durationMs * 1.2);
+    }
+}
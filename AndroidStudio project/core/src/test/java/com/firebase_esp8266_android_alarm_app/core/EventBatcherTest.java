@@ -0,0 +1,62 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Events queued between two frames are published in one batch, in order, and one frame is requested per batch.
+ */
+public class EventBatcherTest {
+
+    private final List<Runnable> frames = new ArrayList<Runnable>();
+    private final List<Integer> published = new ArrayList<Integer>();
+
+    private final EventBatcher batcher = new EventBatcher(new EventBatcher.FrameScheduler() {
+        @Override
+        public void scheduleFrame(Runnable frame) {
+            frames.add(frame);
+        }
+    });
+
+    private void post(final int event) {
+        batcher.post(new Runnable() {
+            @Override
+            public void run() {
+                published.add(event);
+                if (event == 2)
+                    post(100);      //queued while the batch runs: next frame
+            }
+        });
+    }
+
+    private void runFrame() {
+        frames.remove(0).run();
+    }
+
+    @Test
+    public void burstIsPublishedInOneFrame() {
+        for (int i = 0; i < 120; i++)
+            post(i);
+        assertEquals(1, frames.size());
+        assertEquals(120, batcher.getQueueDepth());
+        assertEquals(0, published.size());
+
+        runFrame();
+        assertEquals(120, published.size());
+        assertEquals(Integer.valueOf(119), published.get(119));
+        assertEquals(1, frames.size());             //event 100, posted by event 2
+
+        runFrame();
+        assertEquals(Integer.valueOf(100), published.get(120));
+        assertEquals(0, frames.size());
+        assertEquals(0, batcher.getQueueDepth());
+        assertEquals(120, batcher.getMaxQueueDepth());
+        assertEquals(2, batcher.getBatchCount());
+        assertEquals(121, batcher.getQueuedCount());
+        assertEquals(120, batcher.getBatchSizePercentile(1));
+    }
+}
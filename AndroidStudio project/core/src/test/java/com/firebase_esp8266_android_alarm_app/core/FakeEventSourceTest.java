@@ -0,0 +1,99 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The fake source behaves as the Firebase listeners the app relies on, and replays export and storm streams.
+ */
+public class FakeEventSourceTest {
+
+    private static final String EXPORT = "{\"alarm\" : {\"door_open\" : false, \"history\" : {\n"
+            + "\"-M3haa06MFyCrpAMD-IJ\" : 1585608027451,\n\"-M3hiGue0jShPogO8SYS\" : 1585610039666\n}}}";
+
+    private final List<String> received = new ArrayList<String>();
+
+    private final AlarmEventSource.HistoryListener historyListener = new AlarmEventSource.HistoryListener() {
+        @Override
+        public void onEntry(String key, Object value, boolean changed) {
+            received.add((changed ? "changed " : "added ") + key);
+        }
+
+        @Override
+        public void onRemoved(String key) {
+            received.add("removed " + key);
+        }
+    };
+
+    @Test
+    public void valueListenersGetCurrentValueThenChanges() {
+        FakeEventSource source = new FakeEventSource();
+        source.emitValue(AlarmEventSource.DOOR_OPEN, false);
+        source.addValueListener(AlarmEventSource.DOOR_OPEN, new AlarmEventSource.ValueListener() {
+            @Override
+            public void onValue(Object value) {
+                received.add(String.valueOf(value));
+            }
+        });
+
+        source.emitValue(AlarmEventSource.DOOR_OPEN, false);
+        source.emitValue(AlarmEventSource.DOOR_OPEN, true);
+        source.setValue(AlarmEventSource.DOOR_OPEN, false);
+
+        assertEquals("[false, true, false]", received.toString());
+        assertEquals(1, source.getWriteCount());
+        assertEquals(2, source.getDeliveredCount());
+    }
+
+    @Test
+    public void limitedHistoryWindowSlides() {
+        FakeEventSource source = new FakeEventSource();
+        source.emitHistory("a", 1L);
+        source.emitHistory("b", 2L);
+        source.emitHistory("c", 3L);
+        source.addHistoryListener(null, 2, historyListener);
+
+        source.emitHistory("d", "");
+        source.emitHistory("d", 4L);
+        source.emitHistory("a", 10L);       //older than the window
+
+        assertEquals("[added b, added c, removed b, added d, changed d]", received.toString());
+    }
+
+    @Test
+    public void readsHistoryRanges() {
+        FakeEventSource source = new FakeEventSource();
+        for (String key : new String[]{"a", "b", "c", "d"})
+            source.emitHistory(key, 1L);
+
+        source.readHistory(null, "c", 2, new AlarmEventSource.PageCallback() {
+            @Override
+            public void onPage(String[] keys, Object[] values, int count) {
+                assertEquals(2, count);
+                assertEquals("b", keys[0]);
+                assertEquals("c", keys[1]);
+            }
+        });
+    }
+
+    @Test
+    public void replaysScaledExport() throws Exception {
+        List<EventStreams.Event> events = EventStreams.fromExport(new StringReader(EXPORT), 3);
+        assertEquals(2 * 3 * 5, events.size());
+
+        FakeEventSource source = new FakeEventSource();
+        source.addHistoryListener(null, 0, historyListener);
+        for (EventStreams.Event event : events)
+            event.applyTo(source);
+
+        assertEquals(6, source.getHistorySize());
+        assertEquals("added -M3haa06MFyCrpAMD-IJ", received.get(0));
+        assertEquals(Boolean.FALSE, source.getValue(AlarmEventSource.DOOR_OPEN));
+        assertEquals(events.size(), source.getEmittedCount());
+    }
+}
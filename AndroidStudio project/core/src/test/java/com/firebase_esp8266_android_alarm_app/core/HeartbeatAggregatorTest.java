@@ -0,0 +1,70 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Link states of several doors evaluated by one check, and the changes it reports.
+ */
+public class HeartbeatAggregatorTest {
+
+    private HeartbeatAggregator aggregator;
+    private final List<String> changes = new ArrayList<String>();
+
+    private final HeartbeatAggregator.Listener listener = new HeartbeatAggregator.Listener() {
+        @Override
+        public void onStateChanged(int door, HeartbeatMonitor.State state) {
+            changes.add(door + " " + state);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        aggregator = new HeartbeatAggregator(7500, 15000);
+        aggregator.setDoorCount(3);
+        aggregator.restart(0);
+    }
+
+    @Test
+    public void onlyChangedDoorsAreReported() {
+        aggregator.onHeartbeat(0, 1000);
+        aggregator.onHeartbeat(1, 1000);
+        assertEquals(2, aggregator.evaluate(2000, listener));
+        assertEquals("[0 HEALTHY, 1 HEALTHY]", changes.toString());
+
+        changes.clear();
+        aggregator.onHeartbeat(0, 6000);
+        assertEquals(0, aggregator.evaluate(7000, listener));
+
+        assertEquals(1, aggregator.evaluate(9000, listener));
+        assertEquals("[1 DEGRADED]", changes.toString());
+        assertEquals(1, aggregator.getCount(HeartbeatMonitor.State.HEALTHY));
+        assertEquals(1, aggregator.getCount(HeartbeatMonitor.State.DEGRADED));
+        assertEquals(1, aggregator.getCount(HeartbeatMonitor.State.WAITING));
+    }
+
+    @Test
+    public void silentDoorsGoDown() {
+        aggregator.onHeartbeat(0, 1000);
+        aggregator.evaluate(20000, listener);
+
+        assertEquals(HeartbeatMonitor.State.DOWN, aggregator.getState(0));
+        assertEquals(HeartbeatMonitor.State.DOWN, aggregator.getState(2));
+        assertEquals(3, aggregator.getCount(HeartbeatMonitor.State.DOWN));
+    }
+
+    @Test
+    public void addedDoorsStartWaiting() {
+        aggregator.setDoorCount(600);
+        aggregator.onHeartbeat(599, 1000);
+        aggregator.evaluate(2000, null);
+
+        assertEquals(HeartbeatMonitor.State.HEALTHY, aggregator.getState(599));
+        assertEquals(599, aggregator.getCount(HeartbeatMonitor.State.WAITING));
+    }
+}
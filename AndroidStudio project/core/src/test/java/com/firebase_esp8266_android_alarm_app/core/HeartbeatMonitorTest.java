@@ -0,0 +1,114 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Fault rule on the gap percentile (the nominal period until enough gaps are known), gap jitter, and restart().
+ * Jitter is also kept across negative samples.
+ */
+public class HeartbeatMonitorTest {
+
+    private static final long PERIOD = HeartbeatMonitor.ESP_PERIOD_MS;
+
+    //Heartbeats 'gapMs' apart from 'startMs'. Returns the time of the last one
+    private static long beat(HeartbeatMonitor monitor, long startMs, long gapMs, int count) {
+        long now = startMs;
+        for (int i = 0; i < count; i++) {
+            now = startMs + i * gapMs;
+            monitor.onHeartbeat(now);
+        }
+        return now;
+    }
+
+    @Test
+    public void nominalPeriodUntilEnoughGaps() {
+        HeartbeatMonitor monitor = new HeartbeatMonitor();
+        assertEquals(HeartbeatMonitor.State.WAITING, monitor.evaluate(1000));
+        assertEquals(-1, monitor.getSilenceMs(1000));
+
+        long last = beat(monitor, 1000, 20000, 5);      //4 gaps: still fewer than minSamples
+        assertEquals(PERIOD, monitor.getReferenceGapMs());
+        assertEquals(HeartbeatMonitor.State.HEALTHY, monitor.evaluate(last + (long) (PERIOD * 1.5)));
+        assertEquals(HeartbeatMonitor.State.DEGRADED, monitor.evaluate(last + (long) (PERIOD * 1.5) + 1));
+        assertEquals(HeartbeatMonitor.State.DOWN, monitor.evaluate(last + PERIOD * 3 + 1));
+        assertEquals(5, monitor.getHeartbeatCount());
+    }
+
+    @Test
+    public void ruleFollowsTheGapPercentile() {
+        HeartbeatMonitor monitor = new HeartbeatMonitor();
+        //19 gaps of 8 s and one of 40 s: the 95th percentile ignores the outlier
+        long last = beat(monitor, 0, 8000, 20);
+        last = beat(monitor, last + 40000, 8000, 1);
+        assertEquals(8000, monitor.getGapPercentileMs(0.95));
+        assertEquals(40000, monitor.getGapPercentileMs(1));
+        assertEquals(8000, monitor.getReferenceGapMs());
+        assertEquals(HeartbeatMonitor.State.HEALTHY, monitor.evaluate(last + 12000));
+        assertEquals(HeartbeatMonitor.State.DEGRADED, monitor.evaluate(last + 12001));
+        assertEquals(HeartbeatMonitor.State.DOWN, monitor.evaluate(last + 24001));
+
+        //a second outlier reaches the percentile
+        beat(monitor, last + 40000, 8000, 1);
+        assertEquals(40000, monitor.getReferenceGapMs());
+    }
+
+    @Test
+    public void referenceIsAtLeastHalfThePeriod() {
+        HeartbeatMonitor monitor = new HeartbeatMonitor();
+        beat(monitor, 0, 500, 20);
+        assertEquals(500, monitor.getGapPercentileMs(0.95));
+        assertEquals(PERIOD / 2, monitor.getReferenceGapMs());
+    }
+
+    @Test
+    public void jitterIsTheMeanGapChange() {
+        HeartbeatMonitor monitor = new HeartbeatMonitor();
+        beat(monitor, 0, 5000, 11);
+        assertEquals(0, monitor.getJitterMs());
+
+        //gaps of 4 s and 6 s in turn: each gap differs from the previous one by 2 s
+        HeartbeatMonitor alternating = new HeartbeatMonitor();
+        long now = 0;
+        alternating.onHeartbeat(now);
+        for (int i = 0; i < 10; i++) {
+            now += i % 2 == 0 ? 4000 : 6000;
+            alternating.onHeartbeat(now);
+        }
+        assertEquals(9 * 2000 / 10, alternating.getJitterMs());     //the first gap has no previous one
+    }
+
+    @Test
+    public void restartKeepsTheGapsButNotTheLastReceive() {
+        HeartbeatMonitor monitor = new HeartbeatMonitor();
+        long last = beat(monitor, 0, 6000, 10);
+        monitor.restart();
+        assertEquals(HeartbeatMonitor.State.WAITING, monitor.evaluate(last + 60000));
+        assertEquals(-1, monitor.getSilenceMs(last + 60000));
+        assertEquals(6000, monitor.getReferenceGapMs());
+
+        //the time spent detached is not a gap
+        monitor.onHeartbeat(last + 600000);
+        monitor.onHeartbeat(last + 606000);
+        assertEquals(6000, monitor.getGapPercentileMs(1));
+        assertEquals(HeartbeatMonitor.State.HEALTHY, monitor.evaluate(last + 606000));
+
+        monitor.reset();
+        assertEquals(HeartbeatMonitor.State.WAITING, monitor.evaluate(0));
+        assertEquals(-1, monitor.getGapPercentileMs(0.95));
+        assertEquals(PERIOD, monitor.getReferenceGapMs());
+    }
+
+    @Test
+    public void negativeSamplesHaveJitter() {
+        //leads of one path over the other may be negative, and are still consecutive samples
+        RollingHistogram histogram = new RollingHistogram(4);
+        histogram.add(-5);
+        histogram.add(5);
+        assertEquals(5, histogram.jitter());        //(0 + 10) / 2
+        histogram.clear();
+        histogram.add(-5);
+        assertEquals(0, histogram.jitter());
+    }
+}
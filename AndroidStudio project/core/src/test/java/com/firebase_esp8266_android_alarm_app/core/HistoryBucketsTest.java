@@ -0,0 +1,87 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Day bucket encoding, and openings received in both history formats counted once.
+ */
+public class HistoryBucketsTest {
+
+    private static final long T = 1585608027451L;    //2020-03-30 22:40:27 UTC
+
+    @Test
+    public void dayKeysMatchTheCalendar() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            long timestamp = (long) (random.nextDouble() * 4102444800000L);      //up to 2100
+            String day = HistoryBuckets.dayKey(timestamp);
+            assertEquals(format.format(new Date(timestamp)), day);
+            long start = HistoryBuckets.dayStart(day);
+            assertEquals(0, start % HistoryBuckets.DAY_MS);
+            assertEquals(timestamp / HistoryBuckets.DAY_MS, start / HistoryBuckets.DAY_MS);
+        }
+        assertEquals("2020-03-30", HistoryBuckets.dayKey(T));
+        assertEquals(-1, HistoryBuckets.dayStart("-M3haa06MF"));
+    }
+
+    @Test
+    public void bucketRoundTrip() {
+        String day = HistoryBuckets.dayKey(T);
+        long[] timestamps = {T - 3600000, T - 1000, T, T + 5};
+        String bucket = HistoryBuckets.encode(HistoryBuckets.dayStart(day), timestamps, timestamps.length);
+
+        HistoryBuckets.Decoder decoder = new HistoryBuckets.Decoder();
+        assertEquals(4, HistoryBuckets.decode(day, bucket, decoder));
+        for (int i = 0; i < timestamps.length; i++)
+            assertEquals(timestamps[i], decoder.getTimestamps()[i]);
+
+        assertEquals(-1, HistoryBuckets.decode(day, "12,,3", decoder));
+        assertEquals(4, decoder.size());        //nothing appended
+        assertEquals(0, HistoryBuckets.decode(day, "", decoder));
+
+        String merged = HistoryBuckets.merge(day, bucket, new long[]{T + 5, T - 2000}, 2);
+        decoder.clear();
+        assertEquals(5, HistoryBuckets.decode(day, merged, decoder));
+        assertEquals(T - 2000, decoder.getTimestamps()[1]);
+    }
+
+    @Test
+    public void openingInBothFormatsIsCountedOnce() {
+        HistoryModel model = new HistoryModel();
+        DoorStatistics statistics = new DoorStatistics(TimeZone.getTimeZone("UTC"));
+        HistoryIngest ingest = new HistoryIngest(model, statistics);
+
+        //the bucket first, then the 'history' child timestamped by the cloud function
+        assertEquals(HistoryIngest.ADDED, ingest.put(HistoryBuckets.entryKey(T), T));
+        assertEquals(HistoryIngest.IGNORED, ingest.onChild("-M3haa06MFyCrpAMD-IJ", ""));
+        assertEquals(HistoryIngest.UNCHANGED, ingest.onChild("-M3haa06MFyCrpAMD-IJ", T));
+
+        //the other way round
+        assertEquals(HistoryIngest.ADDED, ingest.onChild("-M3hi671fQJwqWVVZgEe", T + 60000));
+        assertEquals(HistoryIngest.UNCHANGED, ingest.put(HistoryBuckets.entryKey(T + 60000), T + 60000));
+
+        assertEquals(2, model.size());
+        assertEquals(2, statistics.getTotalOpenings());
+    }
+
+    @Test
+    public void olderBucketOpeningIsNotAPushIdCursor() {
+        HistoryIngest ingest = new HistoryIngest(new HistoryModel(), new DoorStatistics(TimeZone.getTimeZone("UTC")));
+        ingest.onChild("-M3haa06MFyCrpAMD-IJ", T);
+        String older = HistoryBuckets.entryKey(T - HistoryBuckets.DAY_MS);
+        ingest.put(older, T - HistoryBuckets.DAY_MS);
+
+        assertEquals(older, ingest.getOldestKey());
+        assertEquals("-M3haa06MFyCrpAMD-IJ", ingest.getOldestPushId());
+    }
+}
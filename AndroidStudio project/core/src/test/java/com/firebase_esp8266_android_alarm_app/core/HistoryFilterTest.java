@@ -0,0 +1,58 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Date range and time of day selection, and the streamed export format.
+ */
+public class HistoryFilterTest {
+
+    private static final TimeZone SAO_PAULO = TimeZone.getTimeZone("GMT-03:00");
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long MONDAY = 1585537200000L;     //30/03/2020 00:00 in GMT-3
+
+    @Test
+    public void timeWindowWithinTheRange() {
+        HistoryFilter filter = new HistoryFilter(MONDAY, MONDAY + 7 * 24 * HOUR, 2 * 60, 5 * 60, SAO_PAULO);
+
+        assertTrue(filter.matches(MONDAY + 2 * HOUR));
+        assertTrue(filter.matches(MONDAY + 24 * HOUR + 4 * HOUR + 59 * 60000));
+        assertFalse(filter.matches(MONDAY + 5 * HOUR));
+        assertFalse(filter.matches(MONDAY + 14 * HOUR));
+        assertFalse(filter.matches(MONDAY - 22 * HOUR));     //02:00 on the day before the range
+    }
+
+    @Test
+    public void timeWindowWrapsPastMidnight() {
+        HistoryFilter filter = new HistoryFilter(MONDAY, MONDAY + 2 * 24 * HOUR, 22 * 60, 6 * 60, SAO_PAULO);
+
+        assertTrue(filter.matches(MONDAY + 23 * HOUR));
+        assertTrue(filter.matches(MONDAY + 24 * HOUR + HOUR));
+        assertFalse(filter.matches(MONDAY + 12 * HOUR));
+    }
+
+    @Test
+    public void exportsCsvAndJsonRows() throws Exception {
+        HistoryFormatter formatter = new HistoryFormatter(SAO_PAULO);
+
+        StringWriter csv = new StringWriter();
+        HistoryExporter exporter = new HistoryExporter(csv, HistoryExporter.CSV, formatter);
+        exporter.begin();
+        exporter.write("-M3hiGue0jShPogO8SYS", 1585610039666L);
+        assertEquals(1, exporter.end());
+        assertEquals("key,timestamp,local_time\n-M3hiGue0jShPogO8SYS,1585610039666,30/03/20  -  20:13:59\n", csv.toString());
+
+        StringWriter json = new StringWriter();
+        exporter = new HistoryExporter(json, HistoryExporter.JSON, formatter);
+        exporter.begin();
+        assertEquals(0, exporter.end());
+        assertEquals("[\n]\n", json.toString());
+    }
+}
@@ -0,0 +1,144 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * History model ordering and the row updates it reports to the adapter, also checked against a plain list for random edits.
+ */
+public class HistoryModelTest {
+
+    private HistoryModel model;
+    private final List<String> events = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        model = new HistoryModel();
+        model.setListener(new HistoryModel.Listener() {
+            @Override
+            public void onInserted(int position) {
+                events.add("insert " + position);
+            }
+
+            @Override
+            public void onChanged(int position) {
+                events.add("change " + position);
+            }
+
+            @Override
+            public void onRemoved(int position) {
+                events.add("remove " + position);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                events.add("move " + fromPosition + " " + toPosition);
+            }
+        });
+    }
+
+    @Test
+    public void mostRecentIsFirst() {
+        model.put("-a", 100);
+        model.put("-c", 300);
+        model.put("-b", 200);
+
+        assertEquals("-c", model.get(0).key);
+        assertEquals("-b", model.get(1).key);
+        assertEquals("-a", model.get(2).key);
+        assertEquals("[insert 0, insert 0, insert 1]", events.toString());
+    }
+
+    @Test
+    public void changedChildUpdatesItsRow() {
+        model.put("-a", 100);
+        model.put("-b", 200);
+        events.clear();
+
+        model.put("-a", 300);
+        assertEquals(2, model.size());
+        assertEquals("-a", model.get(0).key);
+        assertEquals("[move 1 0, change 0]", events.toString());
+
+        events.clear();
+        model.put("-a", 300);
+        assertEquals("[]", events.toString());
+    }
+
+    @Test
+    public void removeReportsPosition() {
+        model.put("-a", 100);
+        model.put("-b", 200);
+        model.put("-c", 300);
+        events.clear();
+
+        model.remove("-b");
+        model.remove("-x");
+        assertEquals("[remove 1]", events.toString());
+        assertEquals(2, model.size());
+        assertEquals(-1, model.getTimestamp("-b"));
+    }
+
+    @Test
+    public void stableIdsFollowEntries() {
+        model.put("-a", 100);
+        long id = model.get(0).id;
+        model.put("-b", 200);
+        assertEquals(id, model.get(1).id);
+    }
+
+    //The rows reported to the listener, replayed on a list as the adapter does, always match the model
+    @Test
+    public void randomEditsMatchAList() {
+        final List<String> rows = new ArrayList<String>();
+        model = new HistoryModel();
+        model.setListener(new HistoryModel.Listener() {
+            @Override
+            public void onInserted(int position) {
+                rows.add(position, model.get(position).key);
+            }
+
+            @Override
+            public void onChanged(int position) {
+                assertEquals(model.get(position).key, rows.get(position));
+            }
+
+            @Override
+            public void onRemoved(int position) {
+                rows.remove(position);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                rows.add(toPosition, rows.remove(fromPosition));
+            }
+        });
+
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            String key = "-k" + random.nextInt(500);
+            if (random.nextInt(4) == 0)
+                model.remove(key);
+            else
+                model.put(key, random.nextInt(1000));       //repeated timestamps: ordered by key
+        }
+
+        assertEquals(rows.size(), model.size());
+        for (int position = 0; position < rows.size(); position++) {
+            assertEquals(rows.get(position), model.get(position).key);
+            if (position > 0) {
+                HistoryModel.Entry newer = model.get(position - 1), entry = model.get(position);
+                assertTrue(newer.timestamp > entry.timestamp
+                        || (newer.timestamp == entry.timestamp && newer.key.compareTo(entry.key) > 0));
+            }
+        }
+        assertTrue(model.containsTimestamp(model.get(0).timestamp, model.get(0).key.substring(2)));
+    }
+}
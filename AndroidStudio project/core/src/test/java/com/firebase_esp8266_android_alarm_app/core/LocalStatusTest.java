@@ -0,0 +1,157 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local network path against an HTTP stub of the ESP8266 '/status' endpoint (held requests included),
+ * and the comparison of the local and Firebase paths.
+ */
+public class LocalStatusTest {
+
+    private HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Object lock = new Object();
+    private long seq;
+    private boolean open;
+
+    private final BlockingQueue<LocalStatusClient.Status> statuses = new LinkedBlockingQueue<LocalStatusClient.Status>();
+    private final BlockingQueue<Boolean> links = new LinkedBlockingQueue<Boolean>();
+    private final LocalStatusClient.Listener listener = new LocalStatusClient.Listener() {
+        @Override
+        public void onStatus(LocalStatusClient.Status status) {
+            statuses.add(status);
+        }
+
+        @Override
+        public void onLinkChanged(boolean up) {
+            links.add(up);
+        }
+    };
+
+    @Before
+    public void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/status", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = exchange.getRequestURI().getQuery();
+                String json;
+                synchronized (lock) {
+                    //held like the board does, until the sequence moves on or the wait is over
+                    if (query != null && query.startsWith("since=" + seq + "&")) {
+                        try {
+                            lock.wait(LocalStatusClient.LONG_POLL_S * 1000);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    json = "{\"seq\":" + seq + ",\"door_open\":" + open + ",\"open_s\":0,\"siren\":false,\"heartbeat\":true,"
+                            + "\"site\":\"\",\"door\":\"front\"}";
+                }
+                byte[] body = json.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopStub() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Test
+    public void heldRequestDeliversDoorChangeAtOnce() throws InterruptedException {
+        LocalStatusClient client = new LocalStatusClient(baseUrl(), DoorAddress.LEGACY, listener);
+        client.start();
+        try {
+            assertEquals(Boolean.TRUE, links.poll(5, TimeUnit.SECONDS));
+            LocalStatusClient.Status first = statuses.poll(5, TimeUnit.SECONDS);
+            assertNotNull(first);
+            assertEquals(false, first.doorOpen);
+
+            Thread.sleep(200);      //the next request is held by the stub
+            long changed = System.nanoTime();
+            synchronized (lock) {
+                seq++;
+                open = true;
+                lock.notifyAll();
+            }
+            LocalStatusClient.Status change = statuses.poll(5, TimeUnit.SECONDS);
+            long delayMs = (System.nanoTime() - changed) / 1000000;
+
+            assertNotNull(change);
+            assertEquals(1, change.seq);
+            assertEquals(true, change.doorOpen);
+            assertTrue("door change delivered in " + delayMs + " ms", delayMs < 100);
+            assertTrue(client.getRoundTripPercentile(0.5) >= 0);
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test
+    public void anotherDoorTakesTheLinkDown() throws InterruptedException {
+        LocalStatusClient client = new LocalStatusClient(baseUrl(), new DoorAddress("home", "back"), listener);
+        client.retryMs = 50;
+        client.start();
+        try {
+            assertEquals(Boolean.FALSE, links.poll(5, TimeUnit.SECONDS));
+            assertEquals(0, statuses.size());
+        } finally {
+            client.stop();
+        }
+    }
+
+    @Test
+    public void pathsAreComparedPerChange() {
+        PathComparison comparison = new PathComparison();
+        comparison.onValue(PathComparison.CLOUD, false, 0);         //baselines
+        comparison.onValue(PathComparison.LOCAL, false, 10);
+
+        assertEquals(PathComparison.FIRST, comparison.onValue(PathComparison.LOCAL, true, 1000));
+        assertEquals(PathComparison.LATE, comparison.onValue(PathComparison.CLOUD, true, 1400));
+        comparison.onValue(PathComparison.LOCAL, false, 5000);
+        comparison.onValue(PathComparison.CLOUD, false, 5300);
+        comparison.onValue(PathComparison.CLOUD, true, 9000);       //never seen locally
+        comparison.onValue(PathComparison.LOCAL, false, 30000);
+
+        assertEquals(2, comparison.getFirstCount(PathComparison.LOCAL));
+        assertEquals(400, comparison.getLeadPercentile(PathComparison.LOCAL, 1));
+        assertEquals(0, comparison.getFirstCount(PathComparison.CLOUD));
+        assertEquals(1, comparison.getUnmatchedCount());
+    }
+}
@@ -0,0 +1,87 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The first message of a burst always sounds and later ones at most once every ALERT_INTERVAL_MS, the door open for
+ * too long warning is never merged, and bursts are merged door by door.
+ */
+public class NotificationCoalescerTest {
+
+    //as in MyFirebaseMessagingService
+    private static final long WINDOW_MS = 60000, ALERT_INTERVAL_MS = 30000;
+
+    private final NotificationCoalescer coalescer = new NotificationCoalescer(WINDOW_MS, ALERT_INTERVAL_MS, NotificationRouter.CHANNEL_LONG);
+
+    @Test
+    public void firstMessageOfABurstAlerts() {
+        NotificationCoalescer.Decision first = coalescer.onMessage(NotificationRouter.CHANNEL_SIREN, "", 5000);
+        assertTrue(first.alert);
+        assertEquals(1, first.count);
+        assertEquals(5000, first.burstStartMs);
+
+        //after a quiet period longer than the window: a new burst, which alerts again
+        assertFalse(coalescer.onMessage(NotificationRouter.CHANNEL_SIREN, "", 6000).alert);
+        NotificationCoalescer.Decision next = coalescer.onMessage(NotificationRouter.CHANNEL_SIREN, "", 6001 + WINDOW_MS);
+        assertTrue(next.alert);
+        assertEquals(1, next.count);
+        assertEquals(6001 + WINDOW_MS, next.burstStartMs);
+
+        //each channel has its own bursts
+        assertTrue(coalescer.onMessage(NotificationRouter.CHANNEL_DEFAULT, "", 6002 + WINDOW_MS).alert);
+    }
+
+    @Test
+    public void longOpenWarningIsNeverCoalesced() {
+        for (long now = 0; now < 10000; now += 1000) {
+            NotificationCoalescer.Decision decision = coalescer.onMessage(NotificationRouter.CHANNEL_LONG, "", now);
+            assertTrue(decision.alert);
+            assertEquals(1, decision.count);
+            assertEquals(now, decision.burstStartMs);
+        }
+        //nor does it join or break the burst of the other channels
+        assertTrue(coalescer.onMessage(NotificationRouter.CHANNEL_DEFAULT, "", 10000).alert);
+        assertFalse(coalescer.onMessage(NotificationRouter.CHANNEL_DEFAULT, "", 11000).alert);
+    }
+
+    @Test
+    public void burstAlertsAtMostOncePerInterval() {
+        //a message every 5 s for 3 minutes, all in one burst
+        int alerts = 0;
+        long lastAlert = -1;
+        for (long now = 0; now <= 180000; now += 5000) {
+            NotificationCoalescer.Decision decision = coalescer.onMessage(NotificationRouter.CHANNEL_DEFAULT, "", now);
+            assertEquals(now / 5000 + 1, decision.count);
+            assertEquals(0, decision.burstStartMs);
+            if (decision.alert) {
+                if (lastAlert >= 0)
+                    assertTrue(now - lastAlert >= ALERT_INTERVAL_MS);
+                lastAlert = now;
+                alerts++;
+            }
+        }
+        assertEquals(7, alerts);        //at 0, 30, 60 ... 180 s
+    }
+
+    @Test
+    public void burstsAreKeptPerDoor() {
+        String front = NotificationRouter.doorKey("/topics/porta_aberta.home.front");
+        String back = NotificationRouter.doorKey("/topics/porta_aberta.home.back");
+        assertEquals("home/front", front);
+        assertEquals("", NotificationRouter.doorKey("/topics/porta_aberta"));
+
+        assertTrue(coalescer.onMessage(NotificationRouter.CHANNEL_DEFAULT, front, 0).alert);
+        NotificationCoalescer.Decision second = coalescer.onMessage(NotificationRouter.CHANNEL_DEFAULT, front, 1000);
+        assertFalse(second.alert);
+        assertEquals(2, second.count);
+
+        NotificationCoalescer.Decision other = coalescer.onMessage(NotificationRouter.CHANNEL_DEFAULT, back, 2000);
+        assertTrue(other.alert);
+        assertEquals(1, other.count);
+        assertEquals(3, coalescer.onMessage(NotificationRouter.CHANNEL_DEFAULT, front, 3000).count);
+    }
+}
@@ -0,0 +1,37 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Push id times, checked against entries of 'door-export.json' (key time, then the cloud function timestamp).
+ */
+public class PushIdsTest {
+
+    @Test
+    public void pushIdTimePrecedesCloudFunctionTimestamp() {
+        long pushed = PushIds.timestamp("-M3hiGue0jShPogO8SYS");
+        assertEquals(1585610038954L, pushed);
+
+        long functionDelay = 1585610039666L - pushed;
+        assertTrue(functionDelay > 0 && functionDelay < 5000);
+    }
+
+    @Test
+    public void otherKeysHaveNoTime() {
+        assertEquals(-1, PushIds.timestamp("front"));
+        assertEquals(-1, PushIds.timestamp("door+one"));
+        assertEquals(-1, PushIds.timestamp(null));
+    }
+
+    @Test
+    public void startKeyBoundsKeysOfThatTime() {
+        String start = PushIds.startKey(1585610038954L);
+        assertEquals("-M3hiGue", start);
+        assertEquals(1585610038954L, PushIds.timestamp(start));
+        assertTrue(start.compareTo("-M3hiGue0jShPogO8SYS") < 0);
+        assertTrue(PushIds.startKey(1585610038955L).compareTo("-M3hiGue0jShPogO8SYS") > 0);
+    }
+}
@@ -0,0 +1,135 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Only the calls needed to reach the requested topics, one call in flight per topic, retries backing off,
+ * and the confirmed state forgotten on a new FCM token.
+ */
+public class TopicReconcilerTest {
+
+    private static final String[] ALWAYS = {"porta_aberta", "sirene", "door_long"};
+
+    private static Set<String> topics(String... topics) {
+        return new HashSet<String>(Arrays.asList(topics));
+    }
+
+    private static TopicReconciler confirmed(Set<String> subscribed) {
+        Set<String> unsubscribed = topics(ALWAYS);
+        unsubscribed.removeAll(subscribed);
+        return new TopicReconciler(ALWAYS, subscribed, unsubscribed);
+    }
+
+    private static TopicReconciler.Call find(List<TopicReconciler.Call> calls, String topic) {
+        for (TopicReconciler.Call call : calls)
+            if (call.topic.equals(topic))
+                return call;
+        return null;
+    }
+
+    @Test
+    public void issuesOnlyTheMissingCalls() {
+        TopicReconciler reconciler = confirmed(topics("porta_aberta", "door_long"));
+        assertTrue(reconciler.reconcile().isEmpty());       //nothing requested yet
+
+        reconciler.request(topics("sirene", "door_long"));
+        List<TopicReconciler.Call> calls = reconciler.reconcile();
+        assertEquals(2, calls.size());
+        assertFalse(find(calls, "porta_aberta").subscribe);
+        assertTrue(find(calls, "sirene").subscribe);
+        assertEquals(2, reconciler.getCallCount());
+
+        for (TopicReconciler.Call call : calls)
+            assertEquals(0, reconciler.onComplete(call, true));
+        assertEquals(topics("sirene", "door_long"), reconciler.getSubscribed());
+        assertEquals(topics("porta_aberta"), reconciler.getUnsubscribed());
+        assertTrue(reconciler.reconcile().isEmpty());
+    }
+
+    @Test
+    public void unknownTopicsAreChecked() {
+        TopicReconciler reconciler = new TopicReconciler(ALWAYS, new HashSet<String>(), new HashSet<String>());
+        reconciler.request(topics("porta_aberta", "door_long"));
+        List<TopicReconciler.Call> calls = reconciler.reconcile();
+
+        assertEquals(3, calls.size());
+        assertFalse(find(calls, "sirene").subscribe);
+    }
+
+    @Test
+    public void requestsBeforeReconcileAreMerged() {
+        TopicReconciler reconciler = confirmed(new HashSet<String>());
+        reconciler.request(topics("porta_aberta", "door_long"));
+        reconciler.request(topics("sirene", "door_long"));
+        reconciler.request(topics("porta_aberta", "door_long"));
+
+        List<TopicReconciler.Call> calls = reconciler.reconcile();
+        assertEquals(2, calls.size());
+        assertTrue(find(calls, "porta_aberta").subscribe);
+        assertTrue(find(calls, "door_long").subscribe);
+    }
+
+    @Test
+    public void topicInFlightIsCheckedWhenItCompletes() {
+        TopicReconciler reconciler = confirmed(new HashSet<String>());
+        reconciler.request(topics("sirene"));
+        TopicReconciler.Call subscribe = reconciler.reconcile().get(0);
+
+        //changed back while the call is in flight: no second call for the same topic
+        reconciler.request(new HashSet<String>());
+        assertTrue(reconciler.reconcile().isEmpty());
+
+        assertEquals(0, reconciler.onComplete(subscribe, true));
+        List<TopicReconciler.Call> calls = reconciler.reconcile();
+        assertEquals(1, calls.size());
+        assertEquals("sirene", calls.get(0).topic);
+        assertFalse(calls.get(0).subscribe);
+        assertEquals(2, reconciler.getCallCount());
+    }
+
+    @Test
+    public void failuresBackOffUntilTheNextRequest() {
+        TopicReconciler reconciler = confirmed(new HashSet<String>());
+        reconciler.request(topics("sirene"));
+
+        long expected = TopicReconciler.RETRY_MIN_MS;
+        for (int i = 0; i < 12; i++) {
+            TopicReconciler.Call call = reconciler.reconcile().get(0);
+            assertEquals(expected, reconciler.onComplete(call, false));
+            expected = Math.min(expected * 2, TopicReconciler.RETRY_MAX_MS);
+        }
+        assertEquals(TopicReconciler.RETRY_MAX_MS, expected);
+        assertFalse(reconciler.getUnsubscribed().contains("sirene"));      //state unknown after a failure
+
+        reconciler.request(topics("sirene"));
+        assertEquals(TopicReconciler.RETRY_MIN_MS, reconciler.onComplete(reconciler.reconcile().get(0), false));
+    }
+
+    @Test
+    public void callsForThePreviousTokenAreNotRecorded() {
+        TopicReconciler reconciler = confirmed(topics("porta_aberta", "door_long"));
+        reconciler.request(topics("sirene", "door_long"));
+        List<TopicReconciler.Call> old = reconciler.reconcile();
+
+        reconciler.onTokenChanged();
+        assertTrue(reconciler.getSubscribed().isEmpty());
+        assertTrue(reconciler.getUnsubscribed().isEmpty());
+        for (TopicReconciler.Call call : old)
+            assertEquals(0, reconciler.onComplete(call, true));
+        assertTrue(reconciler.getSubscribed().isEmpty());
+
+        //all issued again for the new token
+        List<TopicReconciler.Call> calls = reconciler.reconcile();
+        assertEquals(3, calls.size());
+        assertTrue(find(calls, "door_long").subscribe);
+    }
+}
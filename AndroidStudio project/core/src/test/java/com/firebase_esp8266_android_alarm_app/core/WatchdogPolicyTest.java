@@ -0,0 +1,43 @@
+package com.firebase_esp8266_android_alarm_app.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Offline and recovery events, and the check interval backing off while the board stays online.
+ */
+public class WatchdogPolicyTest {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long NOW = 1585610039666L;
+
+    @Test
+    public void reportsOfflineAndRecoveryOnce() {
+        WatchdogPolicy policy = new WatchdogPolicy(false, 0);
+
+        assertEquals(WatchdogPolicy.NONE, policy.onCheck(NOW - MINUTE, NOW));
+        assertEquals(WatchdogPolicy.WENT_OFFLINE, policy.onCheck(NOW - 6 * MINUTE, NOW));
+        assertEquals(WatchdogPolicy.NONE, policy.onCheck(NOW - 30 * MINUTE, NOW + 24 * MINUTE));
+        assertEquals(WatchdogPolicy.BACK_ONLINE, policy.onCheck(NOW, NOW));
+
+        //older firmware without 'last_seen'
+        assertEquals(WatchdogPolicy.NONE, new WatchdogPolicy(false, 0).onCheck(0, NOW));
+    }
+
+    @Test
+    public void intervalBacksOffWhileOnline() {
+        WatchdogPolicy policy = new WatchdogPolicy(false, 0);
+        long[] expected = {15, 30, 60, 120, 240, 240};
+        for (long minutes : expected) {
+            policy.onCheck(NOW - MINUTE, NOW);
+            assertEquals(minutes * MINUTE, policy.nextDelayMs());
+        }
+
+        policy.onReadFailed();
+        assertEquals(WatchdogPolicy.MIN_INTERVAL_MS, policy.nextDelayMs());
+
+        policy.onCheck(NOW - 10 * MINUTE, NOW);
+        assertEquals(WatchdogPolicy.MIN_INTERVAL_MS, policy.nextDelayMs());
+    }
+}
@@ -7,10 +7,11 @@
  * 1) This ESP8266 board:
  * - Constantly reads open/close door sensor.
  * - Updates door state in the 'door_open' Firebase child node when change is detected.
- * - Generates and uploads 'door_heartbeat' bit to Firebase.
+ * - Generates and uploads 'door_heartbeat' bit to Firebase, and a 'last_seen' server timestamp every minute.
  * - Sets and uploads 'door_open_long' bit if door stays opened for too long.
  * - Activates a local siren when door is opened and 'local_siren' setting is set.
  * - Included WebServer and support over-the-air download
+ * - Serves a compact JSON '/status' (long polling) announced over mDNS, read by the app on the same Wi-Fi.
  *
  * 2) Firabase Realtime database:
  * - Stores child/values: disabled, 'door_open', 'door_open_long', 'door_open_long_time' and 'history'.
@@ -27,19 +28,47 @@
 #include "FirebaseESP8266.h"
 #include <ESP8266WiFi.h>
 #include <ArduinoOTA.h>  //over-the-air library
+#include <ESP8266mDNS.h>  //announces the '/status' endpoint on the local network
 
 #define FIREBASE_HOST "your_firebase.firebaseio.com"                   //Your Firebase project name address
 #define FIREBASE_AUTH "aDAJbKTckzj3heoBC5b7ucMRA9qKnmKTckzj3heJTypovkrTg"    //Your Firebase authentication key
 
+/*Door identification. With an empty SITE_ID the board uses the original single door paths under '/alarm/'.
+  Otherwise it writes to '/sites/SITE_ID/doors/DOOR_ID/', its heartbeat to '/sites/SITE_ID/heartbeats/DOOR_ID'
+  (one node per site, watched by the app dashboard) and registers DOOR_NAME in '/sites_index/SITE_ID/DOOR_ID'.
+  Ids must be valid Firebase keys made of letters, digits, '-' and '_' (they are also part of the FCM topic names) */
+#define SITE_ID ""
+#define DOOR_ID "front"
+#define DOOR_NAME "Front door"
+
 const char* ssid = "your_ssid";              //Your wifi name here
 const char* password = "your_password";      //Your wifi password
 
 WiFiServer webserver(80);
 
+/*Local status for the app ('/status', see handleWebClient): 'status_seq' counts the confirmed door changes.
+  One request can be held until the next change (long polling): the app gets it before the Firebase round trip */
+unsigned long status_seq = 0;
+bool reported_door_open;
+WiFiClient poll_client;
+unsigned long poll_seq, poll_startMillis, poll_wait;
+const unsigned long poll_max_wait = 30;   //seconds
+
+//Request being received, read over several loops as its bytes arrive (see handleWebClient)
+WiFiClient request_client;
+String request_line;
+bool request_line_done;
+int header_length;                        //characters of the header line being read
+unsigned long request_startMillis;
+const unsigned long request_timeout = 2000;   //milliseconds
+
 //Define FirebaseESP8266 data object
 FirebaseData firebaseData;
 String fire_error;
 
+//Firebase paths of this door, built at startup from SITE_ID and DOOR_ID
+String door_path, heartbeat_path;
+
 //configure I/O pins
 const int pin_door = D2, pin_siren = D7, pin_chime = D8;
 
@@ -56,6 +85,8 @@ unsigned long open_door_startMillis;
 unsigned long startMillis;
 unsigned long currentMillis;
 const unsigned long period = 5000;  //function execution period in milliseconds
+const int last_seen_period = 12;    //'last_seen' server timestamp written every 12 periods (1 minute), read by the app background watchdog
+int last_seen_count = 0;
 
 void setup()
 { 
@@ -87,6 +118,18 @@ void setup()
   //Connect to Firebase
   Firebase.begin(FIREBASE_HOST, FIREBASE_AUTH);
   Firebase.reconnectWiFi(true); 
+
+  if(String(SITE_ID).length() == 0)
+  {
+     door_path = "/alarm/";
+     heartbeat_path = "/alarm/door_heartbeat";
+  }
+  else
+  {
+     door_path = String("/sites/") + SITE_ID + "/doors/" + DOOR_ID + "/";
+     heartbeat_path = String("/sites/") + SITE_ID + "/heartbeats/" + DOOR_ID;
+     Firebase.setString(firebaseData, String("/sites_index/") + SITE_ID + "/" + DOOR_ID, DOOR_NAME);
+  }
   
   /*configure input pin enabling its built-in 10k pull-up resistor
   ps: a second 4k7 pull-up resistor had to be added to dampen electromagnetic induction 
@@ -107,6 +150,10 @@ void setup()
 
   //configura download over-the-air
   OTAsetup();
+
+  //mDNS service found by the app (LocalDoorLink.java), named after the door. ArduinoOTA has started mDNS
+  MDNS.setInstanceName(String(SITE_ID).length() == 0 ? String("alarm") : String(SITE_ID) + "/" + DOOR_ID);
+  MDNS.addService("doormon", "tcp", 80);
   
   door_open_confirmed = siren_on = siren_config = chime_on = heartbeat = disabled_config = false;
 
@@ -116,6 +163,7 @@ void setup()
      old_door_open = true;
   else
      old_door_open = false;
+  reported_door_open = old_door_open;
      
   //initial start time - the number of milliseconds since the program started
   startMillis = millis();  
@@ -124,6 +172,8 @@ void setup()
 void loop()
 {
    ArduinoOTA.handle();
+   MDNS.update();
+   handleWebClient();
 
     //reads door state
    door_open = old_door_open;
@@ -143,7 +193,17 @@ void loop()
    //ps: confirmation was implemented after some spurious changes have been registered due to electromagnetic interference
    if(need_confirm >= 100 && (door_open == old_door_open))
    {
-      Firebase.setBool(firebaseData, "/alarm/door_open", door_open);
+      //answers the app waiting on the local network first: the Firebase writes below take hundreds of milliseconds
+      reported_door_open = door_open;
+      status_seq++;
+      answerStatusPoll();
+
+      //new state and server time of the change (end-to-end latency in the app) in a single request:
+      //the server fills in 'door_open_ts', and the app receives both values together
+      FirebaseJson door_change;
+      door_change.set("door_open", door_open);
+      door_change.set("door_open_ts/.sv", "timestamp");
+      Firebase.updateNodeSilent(firebaseData, door_path, door_change);
      
       //logs door opening to Firebase history and plays siren if door opened 
       //Timestamping is done by cloud function (see 'index.js'), to it's not necessary to adjust ESP8266 builtin clock
@@ -151,11 +211,11 @@ void loop()
       {
          door_open_confirmed = true;
          open_door_startMillis = millis();
-         Firebase.pushString(firebaseData,"/alarm/history", "");                
+         Firebase.pushString(firebaseData,door_path + "history", "");                
       } 
       else
       {
-         Firebase.setBool(firebaseData,"/alarm/door_open_long", false);
+         Firebase.setBool(firebaseData,door_path + "door_open_long", false);
          chime_on = false;
          door_open_confirmed = false; 
       }
@@ -187,7 +247,7 @@ void loop()
       open_door_elapsed = (millis() - open_door_startMillis)/1000;
       if (open_door_elapsed >= open_door_config)
       {
-          Firebase.setBool(firebaseData,"/alarm/door_open_long", true);
+          Firebase.setBool(firebaseData,door_path + "door_open_long", true);
           chime_on = true;
       }
    }
@@ -215,23 +275,31 @@ void timedLoop()
    fire_error = "Firebase error";
 
    //Writes heartbeat to Firebase to allow monitoring by the app
-   if(!Firebase.setBool(firebaseData, "/alarm/door_heartbeat", heartbeat))   
+   if(!Firebase.setBool(firebaseData, heartbeat_path, heartbeat))   
       fire_error += " setBool: " + firebaseData.errorReason();
 
+   //Writes the last seen server time now and then: the app checks it with a single read when it is closed
+   if(++last_seen_count >= last_seen_period)
+   {
+      last_seen_count = 0;
+      if(!Firebase.setTimestamp(firebaseData, door_path + "last_seen"))
+         fire_error += " setTimestamp: " + firebaseData.errorReason();
+   }
+
    //Gets user setting from Firebase to activate local siren
-   if(!Firebase.getBool(firebaseData, "/alarm/local_siren"))      
+   if(!Firebase.getBool(firebaseData, door_path + "local_siren"))      
       fire_error += " getBool: " + firebaseData.errorReason(); 
    else
       siren_config = firebaseData.boolData();
 
    //Gets user setting from Firebase to enable/disable system
-   if(!Firebase.getBool(firebaseData, "/alarm/disabled"))
+   if(!Firebase.getBool(firebaseData, door_path + "disabled"))
       fire_error += " getBool: " + firebaseData.errorReason();
    else
       disabled_config = firebaseData.boolData();
 
    //Gets user setting from Firebasefor the door open for long time warning
-   if(!Firebase.getInt(firebaseData, "/alarm/door_open_long_time"))
+   if(!Firebase.getInt(firebaseData, door_path + "door_open_long_time"))
       fire_error += " getInt: " + firebaseData.errorReason();
    else
       open_door_config = firebaseData.intData();
@@ -246,17 +314,127 @@ void timedLoop()
    inputs_states[6] = '0' + digitalRead(D6);
    inputs_states[7] = '\0';
    
-   //Updates web page
-   statusToWeb(door_open, siren_on, open_door_elapsed, heartbeat, fire_error, inputs_states);
+}
+
+/****************Receives the requests to the web page and to the '/status' endpoint. Called every loop***************
+ * Never waits for a client: only the bytes already received are read, one request at a time, so that a slow or
+ * half-open client (e.g. a browser preconnect) does not hold the door confirmation count and the heartbeat.
+ * A request not complete after 'request_timeout' is dropped */
+void handleWebClient()
+{
+   if(poll_client && (poll_seq != status_seq || millis() - poll_startMillis >= poll_wait || !poll_client.connected()))
+      answerStatusPoll();
+
+   if(!request_client)
+   {
+      request_client = webserver.available(); //Verifica se tem cliente conectado
+      if(!request_client)
+         return;
+      request_line = "";
+      request_line_done = false;
+      header_length = 0;
+      request_startMillis = millis();
+   }
+
+   //request line, e.g. "GET /status?since=12&wait=10 HTTP/1.1", then the headers up to the empty line
+   while(request_client.available())
+   {
+      char c = request_client.read();
+      if(c == '\r')
+         continue;
+      if(c == '\n')
+      {
+         if(request_line_done && header_length == 0)
+         {
+            serveRequest(request_client, request_line);
+            request_client = WiFiClient();
+            return;
+         }
+         request_line_done = true;
+         header_length = 0;
+      }
+      else if(!request_line_done)
+      {
+         if(request_line.length() < 200)
+            request_line += c;
+      }
+      else
+         header_length++;
+   }
+
+   if(!request_client.connected() || millis() - request_startMillis >= request_timeout)
+   {
+      request_client.stop();
+      request_client = WiFiClient();
+   }
+}
+
+/****************Answers a complete request***************
+ * '/status' answers the door status as compact JSON at once. With '?since=N&wait=S', while N is still the
+ * current 'status_seq', the request is held until the next confirmed door change or for S seconds:
+ * one held request at a time (the app), a new one answers the previous. Any other request gets the web page */
+void serveRequest(WiFiClient& client, String request)
+{
+   if(!request.startsWith("GET /status"))
+   {
+      statusToWeb(client, door_open, siren_on, open_door_elapsed, heartbeat, fire_error, inputs_states);
+      return;
+   }
+
+   long since = queryArgument(request, "since=");
+   if(since >= 0 && (unsigned long)since == status_seq)
+   {
+      if(poll_client)
+         answerStatusPoll();
+      long wait = queryArgument(request, "wait=");
+      poll_client = client;
+      poll_seq = since;
+      poll_startMillis = millis();
+      poll_wait = (wait < 0 ? 10 : min((unsigned long)wait, poll_max_wait)) * 1000;
+      return;
+   }
+   sendStatus(client);
+}
+
+//Number following 'name' in the request line, -1 if absent
+long queryArgument(String request, String name)
+{
+   int start = request.indexOf(name);
+   if(start < 0)
+      return -1;
+   return request.substring(start + name.length()).toInt();
+}
+
+void answerStatusPoll()
+{
+   if(!poll_client)
+      return;
+   if(poll_client.connected())
+      sendStatus(poll_client);
+   poll_client.stop();
+   poll_client = WiFiClient();
+}
+
+//{"seq":12,"door_open":true,"open_s":40,"siren":false,"heartbeat":true,"site":"","door":"front"}
+void sendStatus(WiFiClient& client)
+{
+   String json = String("{\"seq\":") + status_seq
+      + ",\"door_open\":" + (reported_door_open ? "true" : "false")
+      + ",\"open_s\":" + open_door_elapsed
+      + ",\"siren\":" + (siren_on ? "true" : "false")
+      + ",\"heartbeat\":" + (heartbeat ? "true" : "false")
+      + ",\"site\":\"" + SITE_ID + "\",\"door\":\"" + DOOR_ID + "\"}";
+
+   client.print("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nCache-Control: no-cache\r\nConnection: close\r\nContent-Length: ");
+   client.print(json.length());
+   client.print("\r\n\r\n");
+   client.print(json);
+   client.stop();
 }
 
 /****************Publishes door state in a web page*************/
-void statusToWeb(bool door_open, bool siren_on, int open_door_elapsed, bool  heartbeat, String fire_error, char *inputs_states)
+void statusToWeb(WiFiClient& client, bool door_open, bool siren_on, int open_door_elapsed, bool  heartbeat, String fire_error, char *inputs_states)
 {
-   WiFiClient client = webserver.available(); //Verifica se tem cliente conectado
-   if (!client) 
-      return; 
-   
    Serial.println("New client se connectes!"); 
      
    client.println("<!DOCTYPE HTML>"); 
@@ -11,6 +11,9 @@ DISABLE_LEGACY_METADATA_SERVER_ENDPOINTS=true
 const admin = require('firebase-admin');
 admin.initializeApp(functions.config().firebase);
 
+//Grava tambm o histrico compacto por dia em 'history_days' (ver HistoryBuckets.java no app)
+const HISTORY_BUCKETS = true;
+
 
 //Funcao para escrever ON/OFF nos LEDs quando 'all_leds' for escrito por alguem
 exports.updatingLeds = functions.database.ref('/leds/all_leds')
@@ -60,7 +63,7 @@ exports.updating_door_open_long = functions.database.ref('/alarm/door_open_long'
     console.log(v_door_long);
         
     if(true === v_door_long)
-    	sendFirebaseCloudMessage('door_long', 'chime.wav', 'Porta aberta por mais de 5 minutos!', 'channel_id_long');
+    	sendFirebaseCloudMessage('door_long', 'chime.wav', 'Porta aberta por mais de 5 minutos!', 'channel_id_long', null, Date.parse(context.timestamp));
     	  
     return 0;   
 })
@@ -75,6 +78,11 @@ exports.timestampingAlarm = functions.database.ref('/alarm/history/{pushId}/')
 	//l o valor sendo armazenado eo pushId
 	var original = snapshot.val();
 	var pushId = context.params.pushId;   
+
+	//entrada que j tem timestamp (escrita direta): nada a fazer. O restore do app grava em 'history_days',
+	//nunca aqui, para no disparar esta funo por entrada (ver AlarmBackup.java no app)
+	if (typeof original === 'number')
+		return null;
 	   
 	  //Loga no console para verificao
     console.log(`Detected new value ${original} with pushId ${pushId}`);
@@ -82,12 +90,128 @@ exports.timestampingAlarm = functions.database.ref('/alarm/history/{pushId}/')
     //Alterar o valor para timesptamp, no formato Epoch time (milisegundos desde 01/01/1970)
     var myDate = new Date();        
 	admin.database().ref("/alarm/history/" + pushId).set(myDate.getTime());
+	var bucket = HISTORY_BUCKETS ? appendToBucket('/alarm/', [myDate.getTime()]) : null;
 	   
-	sendFirebaseCloudMessage('porta_aberta', 'default', 'Porta aberta!', 'channel_id_default');
-	sendFirebaseCloudMessage('sirene', 'siren.wav', 'Porta aberta!', 'channel_id_siren');
-    return deleteOldChildren('/alarm/history/', 100);      
+	sendFirebaseCloudMessage('porta_aberta', 'default', 'Porta aberta!', 'channel_id_default', null, Date.parse(context.timestamp));
+	sendFirebaseCloudMessage('sirene', 'siren.wav', 'Porta aberta!', 'channel_id_siren', null, Date.parse(context.timestamp));
+    return Promise.all([bucket, deleteOldChildren('/alarm/history/', 100)]);
+})
+
+/* Mesmas funcoes para as portas dos sites, em '/sites/{site}/doors/{door}/' (ver DoorAddress.java no app).
+ * As mensagens vao para os topicos da porta: topico base + '.' + site + '.' + door,
+ * com o nome da porta (registrado em '/sites_index/{site}/{door}') como titulo. */
+exports.updating_site_door_open_long = functions.database.ref('/sites/{site}/doors/{door}/door_open_long')
+.onUpdate((change, context) => {
+
+    if(true === change.after.val())
+        return sendDoorCloudMessage(context, 'door_long', 'chime.wav', 'Porta aberta por mais de 5 minutos!', 'channel_id_long');
+
+    return 0;
+})
+
+exports.timestampingSiteAlarm = functions.database.ref('/sites/{site}/doors/{door}/history/{pushId}/')
+.onCreate((snapshot, context) => {
+
+    var params = context.params;
+    var historyPath = '/sites/' + params.site + '/doors/' + params.door + '/history/';
+    console.log(`Detected new value ${snapshot.val()} with pushId ${params.pushId} in ${historyPath}`);
+
+    //entrada que j tem timestamp (escrita direta): nada a fazer
+    if (typeof snapshot.val() === 'number')
+        return null;
+
+    var timestamp = new Date().getTime();
+    admin.database().ref(historyPath + params.pushId).set(timestamp);
+    var doorPath = '/sites/' + params.site + '/doors/' + params.door + '/';
+    var bucket = HISTORY_BUCKETS ? appendToBucket(doorPath, [timestamp]) : null;
+
+    sendDoorCloudMessage(context, 'porta_aberta', 'default', 'Porta aberta!', 'channel_id_default');
+    sendDoorCloudMessage(context, 'sirene', 'siren.wav', 'Porta aberta!', 'channel_id_siren');
+    return Promise.all([bucket, deleteOldChildren(historyPath, 100)]);
+})
+
+/****Histrico compacto: um n por dia UTC em 'history_days/{aaaa-mm-dd}', com os horrios das aberturas
+     numa string de nmeros em base 36 separados por ','. O primeiro  o deslocamento em milisegundos desde
+     o incio do dia, os seguintes a diferena para a abertura anterior. Mesma codificao de HistoryBuckets.java ****/
+function bucketDay(timestamp) {
+    return new Date(timestamp).toISOString().substring(0, 10);
+}
+
+//Junta horrios a um dia: ordenados e sem repeties. Um dia mal formado  substitudo
+function mergeBucket(day, bucket, timestamps) {
+    var start = Date.parse(day + 'T00:00:00Z');
+    var all = timestamps.slice();
+    if (typeof bucket === 'string' && /^[0-9a-z]+(,[0-9a-z]+)*$/.test(bucket)) {
+        var previous = start;
+        bucket.split(',').forEach(function(delta) {
+            previous += parseInt(delta, 36);
+            all.push(previous);
+        });
+    }
+    all.sort(function(a, b) { return a - b; });
+
+    var deltas = [];
+    var last = start;
+    all.forEach(function(timestamp, i) {
+        if (i > 0 && timestamp === all[i - 1])
+            return;
+        deltas.push((timestamp - last).toString(36));
+        last = timestamp;
+    });
+    return deltas.join(',');
+}
+
+//Acrescenta os horrios aos dias de 'history_days' do n da porta, numa transao por dia
+function appendToBucket(doorPath, timestamps) {
+    var days = {};
+    timestamps.forEach(function(timestamp) {
+        var day = bucketDay(timestamp);
+        (days[day] = days[day] || []).push(timestamp);
+    });
+    return Promise.all(Object.keys(days).map(function(day) {
+        return admin.database().ref(doorPath + 'history_days/' + day).transaction(function(bucket) {
+            return mergeBucket(day, bucket, days[day]);
+        });
+    }));
+}
+
+/* Migrao do histrico existente para o formato compacto: copia as entradas de 'history' com timestamp
+ * para 'history_days'. Pode ser executada mais de uma vez, horrios j presentes no so repetidos,
+ * e o app l os dois formatos durante a transio.
+ * Uso: https://<regio>-<projeto>.cloudfunctions.net/migrateHistory                   (porta '/alarm')
+ *      https://<regio>-<projeto>.cloudfunctions.net/migrateHistory?site=S&door=D     (porta de um site) */
+exports.migrateHistory = functions.https.onRequest((req, res) => {
+
+    var site = req.query.site, door = req.query.door;
+    var valid = /^[^.#$\[\]\/]+$/;
+    if (site !== undefined && !(valid.test(site) && valid.test(door || '')))
+        return res.status(400).send('site e door invlidos');
+
+    var doorPath = site === undefined ? '/alarm/' : '/sites/' + site + '/doors/' + door + '/';
+    return admin.database().ref(doorPath + 'history').once('value').then(snapshot => {
+        var timestamps = [];
+        snapshot.forEach(function(child) {
+            if (typeof child.val() === 'number')
+                timestamps.push(child.val());
+        });
+        return appendToBucket(doorPath, timestamps).then(results => {
+            return res.send(`${timestamps.length} entradas de ${doorPath}history migradas em ${results.length} dias`);
+        });
+    }).catch(error => {
+        console.error(error);
+        return res.status(500).send(String(error));
+    });
 })
 
+function sendDoorCloudMessage(context, topic, sound, body, channel_id) {
+
+    var params = context.params;
+    return admin.database().ref('/sites_index/' + params.site + '/' + params.door).once('value').then(name => {
+        return sendFirebaseCloudMessage(topic + '.' + params.site + '.' + params.door, sound, body, channel_id,
+            name.val() || params.door, Date.parse(context.timestamp));
+    })
+}
+
 /****Realiza buffer circular: remove as entradas antigas do caminho especificado at atingir a quantidade passada em max_log_count***/
 function deleteOldChildren(firebasePath, max_log_count) {
 	
@@ -119,25 +243,24 @@ function deleteOldChildren(firebasePath, max_log_count) {
 
  /****Envia mensagem FCM para os Apps clientes assinates dos respectivos tpicos
       O channel_id  necesrio para Android >= Oreo      ****/
-function sendFirebaseCloudMessage(topic, sound, body, channel_id) {
+function sendFirebaseCloudMessage(topic, sound, body, channel_id, title, event_ts) {
 
+    /* Data message: delivered to the app service also in background, which merges bursts of door alarms
+       into a single notification (see MyFirebaseMessagingService.java) */
     var message = {
-        notification: {
-  	        title: 'Alarme de porta',	      
-   	        body: body     	      	    
-  	    },
-  	    android: {
-  	   	    notification: {
-  	            title: 'Alarme de porta',
-   	    	    body: body,
-   	      	    color: '#ff00ff',
-  	  		    sound : sound,
-                tag: 'unique_tag',	  		      
-  	  		    channel_id: channel_id
-  	        }
-       },
-  	   topic: topic
-	};
+        data: {
+            title: title || 'Alarme de porta',
+            body: body,
+            sound: sound,
+            channel_id: channel_id,
+            event_ts: String(event_ts || ''),     //server time of the database write that triggered the message
+            sent_ts: String(Date.now())           //app measures the function and FCM delays from these (LatencyTracker.java)
+        },
+        android: {
+            priority: 'high'
+        },
+        topic: topic
+    };
 
 	/* Send a message to the devices subscriping  to the provided topic*/
     return admin.messaging().send(message).then(result => {